@@ -44,8 +44,15 @@ export default function Dashboard() {
         headers: { 'Content-Type': 'text/plain' },
         body: ''                                  // send text if you need
       });
-      setMsg(await r.text());                     // “Analysis complete…”
-      await loadBaseline();                       // refresh table after analysis
+      let job = await r.json();                   // analysis runs as a background job
+      while (job.status === 'QUEUED' || job.status === 'RUNNING') {
+        setMsg(`Analysing… ${job.daysProcessed} days processed`);
+        await new Promise(resolve => setTimeout(resolve, 1000));
+        job = await (await fetch(`http://localhost:4567/jobs/${job.id}`)).json();
+      }
+      if (job.status === 'FAILED') throw new Error(job.error);
+      setMsg('Analysis complete. Baseline written to BaselineStats.txt.');
+      setBaseline(job.baseline);                  // refresh table after analysis
     } catch (e) {
       setErr('Analyze failed. Is the backend running on :4567 and CORS enabled?');
     } finally {
@@ -11,8 +11,15 @@ export default function IDSPanel() {
       headers: { 'Content-Type': 'text/plain' },
       body: data
     });
-    const text = await res.text();
-    setResult(text);
+    let job = await res.json();
+
+    // Analysis runs as a background job; poll until it finishes
+    while (job.status === 'QUEUED' || job.status === 'RUNNING') {
+      setResult(`Analysing... ${job.daysProcessed} days processed`);
+      await new Promise(resolve => setTimeout(resolve, 1000));
+      job = await (await fetch(`http://localhost:4567/jobs/${job.id}`)).json();
+    }
+    setResult(job.status === 'DONE' ? 'Analysis complete.' : `Analysis failed: ${job.error}`);
 
     // Fetch and show baseline
     fetchBaseline();
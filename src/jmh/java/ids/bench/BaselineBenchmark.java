@@ -0,0 +1,72 @@
+package ids.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Baseline statistics over data already in memory: the boxed calculateMean /
+// calculateVariance pair against folding the same values into RunningStats
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class BaselineBenchmark {
+
+    @Param({"1000x5", "1000x500", "100000x5", "100000x50", "100000x500", "10000000x5"})
+    public String shape;
+
+    private int events;
+    private double[] matrix;
+    private Map<String, List<Double>> eventData;
+    private List<String> eventNames;
+
+    @Setup
+    public void setUp() {
+        events = SyntheticLogs.events(shape);
+        matrix = SyntheticLogs.matrix(shape);
+
+        eventData = new LinkedHashMap<>();
+        eventNames = new ArrayList<>();
+        for (int event = 0; event < events; event++) {
+            List<Double> column = new ArrayList<>();
+            for (int offset = event; offset < matrix.length; offset += events) {
+                column.add(matrix[offset]);
+            }
+            eventData.put(SyntheticLogs.eventName(event), column);
+            eventNames.add(SyntheticLogs.eventName(event));
+        }
+    }
+
+    @Benchmark
+    public Object meanAndVariance() throws Throwable {
+        Object mean = Targets.CALCULATE_MEAN.invoke(eventData);
+        return Targets.CALCULATE_VARIANCE.invoke(eventData, (List<?>) mean);
+    }
+
+    @Benchmark
+    public Object runningStats() throws Throwable {
+        Object stats = Targets.NEW_RUNNING_STATS.invoke(eventNames);
+        for (int offset = 0; offset < matrix.length; offset += events) {
+            for (int event = 0; event < events; event++) {
+                Targets.RUNNING_STATS_ADD.invoke(stats, event, matrix[offset + event]);
+            }
+        }
+        return stats;
+    }
+}
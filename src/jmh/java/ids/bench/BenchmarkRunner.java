@@ -0,0 +1,31 @@
+package ids.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks with the GC profiler (allocation rate) and writes JSON
+// results to target/jmh-<version>.json so runs can be compared across versions.
+// Standard JMH options (e.g. -p shape=1000x5 -wi 1) may be passed as arguments.
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        String version = System.getProperty("ids.version", "dev");
+        String include = System.getProperty("ids.bench.include", ".*");
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-" + version + ".json")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,51 @@
+package ids.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Data generation: ActivityEngine.generateDataSet (which drives generateData per event),
+// with the events drawn independently and with every pair correlated by 0.5
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class GenerationBenchmark {
+
+    @Param({"1000x5", "1000x500", "100000x5", "100000x50", "100000x500", "10000000x5"})
+    public String shape;
+
+    private int days;
+    private Object schema;
+    private Object correlatedSchema;
+
+    @Setup
+    public void setUp() throws Throwable {
+        days = SyntheticLogs.days(shape);
+        schema = Targets.COMPILE_SCHEMA.invoke(SyntheticLogs.eventData(SyntheticLogs.events(shape)),
+                SyntheticLogs.statsData(SyntheticLogs.events(shape)));
+        correlatedSchema = Targets.WITH_CORRELATIONS.invoke(schema, SyntheticLogs.correlationData(SyntheticLogs.events(shape), 0.5));
+    }
+
+    @Benchmark
+    public Object generateDataSet() throws Throwable {
+        return Targets.GENERATE_DATA_SET.invoke(days, schema);
+    }
+
+    @Benchmark
+    public Object generateCorrelatedDataSet() throws Throwable {
+        return Targets.GENERATE_DATA_SET.invoke(days, correlatedSchema);
+    }
+}
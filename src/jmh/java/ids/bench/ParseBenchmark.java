@@ -0,0 +1,50 @@
+package ids.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Log parsing: AnalysisEngine.readLogs / streamLogs and AlertEngine.readNewLogs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class ParseBenchmark {
+
+    @Param({"1000x5", "1000x500", "100000x5", "100000x50", "100000x500", "10000000x5"})
+    public String shape;
+
+    private String logFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        logFile = SyntheticLogs.textLog(shape);
+    }
+
+    @Benchmark
+    public Object readLogs() throws Throwable {
+        return Targets.READ_LOGS.invoke(logFile);
+    }
+
+    @Benchmark
+    public Object streamLogs() throws Throwable {
+        return Targets.STREAM_LOGS.invoke(logFile);
+    }
+
+    @Benchmark
+    public Object readNewLogs() throws Throwable {
+        return Targets.READ_NEW_LOGS.invoke(logFile);
+    }
+}
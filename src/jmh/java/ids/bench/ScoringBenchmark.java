@@ -0,0 +1,67 @@
+package ids.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Anomaly scoring: the List-based AlertEngine.calculateAnomalyCounter against the
+// primitive ScoringKernel path it delegates to
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class ScoringBenchmark {
+
+    @Param({"1000x5", "1000x500", "100000x5", "100000x50", "100000x500", "10000000x5"})
+    public String shape;
+
+    private int days;
+    private double[] matrix;
+    private List<List<Double>> rows;
+    private List<Integer> weights;
+    private List<Double> means;
+    private List<Double> stdDevs;
+    private Object kernel;
+
+    @Setup
+    public void setUp() throws Throwable {
+        days = SyntheticLogs.days(shape);
+        int events = SyntheticLogs.events(shape);
+        matrix = SyntheticLogs.matrix(shape);
+        rows = SyntheticLogs.rows(matrix, events);
+
+        weights = new ArrayList<>();
+        means = new ArrayList<>();
+        stdDevs = new ArrayList<>();
+        for (int event = 0; event < events; event++) {
+            weights.add(1 + event % 3);
+            means.add(SyntheticLogs.mean(event));
+            stdDevs.add(SyntheticLogs.stdDev(event));
+        }
+        kernel = Targets.NEW_KERNEL.invoke(weights, means, stdDevs);
+    }
+
+    @Benchmark
+    public Object listScoring() throws Throwable {
+        return Targets.ANOMALY_COUNTER.invoke(rows, weights, means, stdDevs);
+    }
+
+    @Benchmark
+    public Object kernelScoring() throws Throwable {
+        return Targets.ANOMALY_COUNTER_MATRIX.invoke(matrix, days, kernel);
+    }
+}
@@ -0,0 +1,144 @@
+package ids.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Deterministic synthetic inputs for the benchmarks. Shapes are written as
+// "<days>x<events>"; generated log files are cached in java.io.tmpdir so forks
+// and repeated runs reuse them.
+final class SyntheticLogs {
+
+    private static final long SEED = 42L;
+
+    private SyntheticLogs() {
+    }
+
+    static int days(String shape) {
+        return Integer.parseInt(shape.substring(0, shape.indexOf('x')));
+    }
+
+    static int events(String shape) {
+        return Integer.parseInt(shape.substring(shape.indexOf('x') + 1));
+    }
+
+    static String eventName(int event) {
+        return "Event " + event;
+    }
+
+    // Even events are discrete, odd events continuous
+    static char eventType(int event) {
+        return event % 2 == 0 ? 'D' : 'C';
+    }
+
+    static double mean(int event) {
+        return 10.0 + event % 40;
+    }
+
+    static double stdDev(int event) {
+        return 1.0 + event % 7;
+    }
+
+    static double sample(SplittableRandom random, int event) {
+        double value = mean(event) + gaussian(random) * stdDev(event);
+        return eventType(event) == 'D' ? Math.round(value) : Math.round(value * 100.0) / 100.0;
+    }
+
+    // Writes (or reuses) a text log in the Logs.txt format
+    static String textLog(String shape) throws IOException {
+        int days = days(shape);
+        int events = events(shape);
+        Path path = Paths.get(System.getProperty("java.io.tmpdir"), "ids-bench-" + shape + ".txt");
+        if (Files.exists(path)) {
+            return path.toString();
+        }
+
+        Path temp = Files.createTempFile(path.getParent(), "ids-bench-", ".tmp");
+        SplittableRandom random = new SplittableRandom(SEED);
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (int day = 1; day <= days; day++) {
+                out.write("Day " + day + "\n" + events + "\n");
+                for (int event = 0; event < events; event++) {
+                    out.write(eventName(event) + ":" + eventType(event) + ":" + sample(random, event) + ":\n");
+                }
+                out.write("\n");
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return path.toString();
+    }
+
+    // Row-major days x events matrix
+    static double[] matrix(String shape) {
+        int days = days(shape);
+        int events = events(shape);
+        SplittableRandom random = new SplittableRandom(SEED);
+        double[] matrix = new double[days * events];
+        for (int day = 0; day < days; day++) {
+            for (int event = 0; event < events; event++) {
+                matrix[day * events + event] = sample(random, event);
+            }
+        }
+        return matrix;
+    }
+
+    static List<List<Double>> rows(double[] matrix, int events) {
+        List<List<Double>> rows = new ArrayList<>();
+        for (int offset = 0; offset < matrix.length; offset += events) {
+            List<Double> row = new ArrayList<>(events);
+            for (int event = 0; event < events; event++) {
+                row.add(matrix[offset + event]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // Events file lines (count, then name:type:min:max:weight:)
+    static ArrayList<String> eventData(int events) {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(String.valueOf(events));
+        for (int event = 0; event < events; event++) {
+            lines.add(eventName(event) + ":" + eventType(event) + ":0:" + (int) (mean(event) + 10 * stdDev(event)) + ":1:");
+        }
+        return lines;
+    }
+
+    // Stats file lines (count, then name:mean:stddev:)
+    static ArrayList<String> statsData(int events) {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(String.valueOf(events));
+        for (int event = 0; event < events; event++) {
+            lines.add(eventName(event) + ":" + mean(event) + ":" + stdDev(event) + ":");
+        }
+        return lines;
+    }
+
+    // Correlations file lines with every pair of events correlated by the same amount
+    static ArrayList<String> correlationData(int events, double correlation) {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(String.valueOf(events));
+        for (int event = 0; event < events; event++) {
+            StringBuilder line = new StringBuilder(eventName(event)).append(':');
+            for (int other = 0; other < events; other++) {
+                line.append(event == other ? 1.0 : correlation).append(':');
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller; one value per call keeps the generator state simple
+        double u1 = 1.0 - random.nextDouble();
+        double u2 = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(2.0 * Math.PI * u2);
+    }
+}
@@ -0,0 +1,69 @@
+package ids.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// JMH refuses benchmarks in the unnamed package, and a named package cannot import
+// the IDS classes, so the hot paths are bound once through constant method handles.
+// The JIT treats static final handles as constants, so the indirection is free.
+final class Targets {
+
+    static final MethodHandle READ_LOGS = find("AnalysisEngine", "readLogs", Map.class, String.class);
+    static final MethodHandle STREAM_LOGS = find("AnalysisEngine", "streamLogs", type("RunningStats"), String.class);
+    static final MethodHandle READ_NEW_LOGS = find("AlertEngine", "readNewLogs", List.class, String.class);
+
+    static final MethodHandle CALCULATE_MEAN = find("AnalysisEngine", "calculateMean", List.class, Map.class);
+    static final MethodHandle CALCULATE_VARIANCE = find("AnalysisEngine", "calculateVariance", List.class, Map.class, List.class);
+    static final MethodHandle NEW_RUNNING_STATS = constructor("RunningStats", List.class);
+    static final MethodHandle RUNNING_STATS_ADD = find(type("RunningStats"), "add", false, void.class, int.class, double.class);
+
+    static final MethodHandle ANOMALY_COUNTER = find("AlertEngine", "calculateAnomalyCounter",
+            List.class, List.class, List.class, List.class, List.class);
+    static final MethodHandle ANOMALY_COUNTER_MATRIX = find("AlertEngine", "calculateAnomalyCounter",
+            double[].class, double[].class, int.class, type("ScoringKernel"));
+    static final MethodHandle NEW_KERNEL = find("ScoringKernel", "of", type("ScoringKernel"), List.class, List.class, List.class);
+
+    static final MethodHandle COMPILE_SCHEMA = find("EventSchema", "compile", type("EventSchema"), List.class, List.class);
+    static final MethodHandle WITH_CORRELATIONS = find(type("EventSchema"), "withCorrelations", false,
+            type("EventSchema"), List.class);
+    static final MethodHandle GENERATE_DATA_SET = find("ActivityEngine", "generateDataSet",
+            ArrayList.class, int.class, type("EventSchema"));
+
+    private Targets() {
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("IDS class " + name + " is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle find(String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        return find(type(owner), name, true, returnType, parameterTypes);
+    }
+
+    private static MethodHandle find(Class<?> owner, String name, boolean isStatic, Class<?> returnType, Class<?>... parameterTypes) {
+        MethodType methodType = MethodType.methodType(returnType, parameterTypes);
+        try {
+            return isStatic
+                    ? MethodHandles.publicLookup().findStatic(owner, name, methodType)
+                    : MethodHandles.publicLookup().findVirtual(owner, name, methodType);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + owner.getName() + "." + name + methodType, e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner, Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(type(owner), MethodType.methodType(void.class, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + owner + " constructor", e);
+        }
+    }
+}
@@ -1,109 +1,166 @@
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 public class ActivityEngine {
 
-    // Simulate activity and write to logs file - BASELINE
-    public static void simulateActivity(String filename, int days, ArrayList<String> eventData, ArrayList<ArrayList<Double>> dataSet) {
-        System.out.println("\nCurrently simulating activity with the data set generated...");
+    // Days appended to a text log per group commit
+    private static final int COMMIT_DAYS = 4096;
 
-        int noOfEvents = Integer.parseInt(eventData.get(0));
+    // Simulate activity and write to logs file - BASELINE
+    public static void simulateActivity(String filename, int days, EventSchema schema, ArrayList<ArrayList<Double>> dataSet) {
+        simulateActivity(filename, null, days, schema, dataSet);
+    }
 
-        try (FileWriter fout = new FileWriter(filename, true)) {
+    // Simulate activity for one user of a multi-user log; each record header becomes "Day N:<userId>"
+    public static void simulateActivity(String filename, String userId, int days, EventSchema schema, ArrayList<ArrayList<Double>> dataSet) {
+        double[][] columns = new double[dataSet.size()][days];
+        for (int j = 0; j < dataSet.size(); j++) {
             for (int i = 0; i < days; i++) {
-                fout.write("Day " + (i + 1) + "\n");
-                fout.write(noOfEvents + "\n");
+                columns[j][i] = dataSet.get(j).get(i);
+            }
+        }
+        simulateActivity(filename, userId, days, schema, columns);
+    }
 
-                for (int j = 0; j < noOfEvents; j++) {
-                    String[] data = eventData.get(j + 1).split(":");
-                    String eventName = data[0];
-                    String eventType = data[1];
-                    double eventValue = dataSet.get(j).get(i);
+    // Simulate activity from primitive columns (one per event), as produced by generateColumns
+    public static void simulateActivity(String filename, String userId, int days, EventSchema schema, double[][] columns) {
+        Console.info("\nCurrently simulating activity with the data set generated...");
 
-                    fout.write(eventName + ":" + eventType + ":" + eventValue + ":\n");
-                }
+        int noOfEvents = schema.size();
+        String userSuffix = userId == null ? "" : ":" + userId;
 
-                fout.write("\n");
+        if (filename.endsWith(BinaryLog.EXTENSION)) {
+            if (userId != null) {
+                System.err.println("Binary logs do not support user ids: " + filename);
+                return;
             }
-            System.out.println(".\n.\n.\n" + days + " days of data has been written to " + filename + "!");
-        } catch (IOException e) {
-            System.err.println("Error writing to file: " + e.getMessage());
+            simulateBinaryActivity(filename, days, schema, columns);
+            return;
         }
-    }
 
-    // Generate data set for each event
-    public static ArrayList<ArrayList<Double>> generateDataSet(int days, ArrayList<String> eventData, ArrayList<String> statsData) {
-        System.out.println("Currently generating data for " + days + " days of events...");
+        // Event line prefixes ("name:type:") are built once rather than per day
+        String[] prefixes = new String[noOfEvents];
+        for (int j = 0; j < noOfEvents; j++) {
+            prefixes[j] = schema.getName(j) + ":" + schema.getType(j) + ":";
+        }
 
-        int noOfEvents = Integer.parseInt(eventData.get(0));
-        ArrayList<ArrayList<Double>> activityData = new ArrayList<>();
+        // Opening the log cuts off any record a crashed run left half written, so it
+        // happens before the day index looks at the log
+        DayIndex.Builder index = null;
+        try (LogWriter log = LogWriter.open(filename)) {
+            try {
+                index = DayIndex.writer(filename, schema.getNames());
+            } catch (IOException e) {
+                System.err.println("Not indexing " + filename + ": " + e.getMessage());
+            }
 
-        for (int j = 1; j <= noOfEvents; j++) {
-            String[] eData = eventData.get(j).split(":");
-            String eventType = eData[1];
-            int minimum = Integer.parseInt(eData[2]);
-            int maximum = Integer.parseInt(eData[3]);
+            StringBuilder record = new StringBuilder(64 * (noOfEvents + 2));
+            for (int i = 0; i < days; i++) {
+                record.setLength(0);
+                record.append("Day ").append(i + 1).append(userSuffix).append('\n');
+                record.append(noOfEvents).append('\n');
 
-            String[] sData = statsData.get(j).split(":");
-            double mean = Double.parseDouble(sData[1]);
-            double standardDeviation = Double.parseDouble(sData[2]);
+                for (int j = 0; j < noOfEvents; j++) {
+                    record.append(prefixes[j]).append(columns[j][i]).append(":\n");
+                }
 
-            ArrayList<Double> dataSet = generateData(mean, standardDeviation, days, minimum, maximum, eventType);
-            activityData.add(dataSet);
+                record.append('\n');
+                long offset = log.append(record);
+
+                if (index != null) {
+                    index.startDay(i + 1, offset);
+                    for (int j = 0; j < noOfEvents; j++) {
+                        index.value(j, columns[j][i]);
+                    }
+                }
+                if ((i + 1) % COMMIT_DAYS == 0) {
+                    log.commit();
+                }
+            }
+            Console.info(".\n.\n.\n" + days + " days of data has been written to " + filename + "!");
+        } catch (IOException e) {
+            System.err.println("Error writing to file: " + e.getMessage());
+            return;
         }
 
-        System.out.println(".\n.\n.\nData set generation completed!");
-        return activityData;
+        if (index != null) {
+            try {
+                DayIndex.finishWriting(index);
+            } catch (IOException e) {
+                System.err.println("Error writing day index: " + e.getMessage());
+            }
+        }
     }
 
-    // Generate set of data as close to mean and stdev
-    public static ArrayList<Double> generateData(double mean, double standardDeviation, int days, int minimum, int maximum, String eventType) {
-        Random random = new Random();
-        ArrayList<Double> samples = new ArrayList<>();
-
-        while (true) {
-            samples.clear();
+    // Simulate activity and append it to a binary columnar log
+    private static void simulateBinaryActivity(String filename, int days, EventSchema schema, double[][] columns) {
+        int noOfEvents = schema.size();
+        String[] names = schema.getNames().toArray(new String[0]);
+        char[] types = schema.typeArray();
 
+        double[] dayValues = new double[noOfEvents];
+        try (BinaryLog.Writer writer = BinaryLog.Writer.open(filename, names, types, true)) {
             for (int i = 0; i < days; i++) {
-                double sample = mean + random.nextGaussian() * standardDeviation;
-
-                if (eventType.equals("D")) { // Discrete event
-                    sample = Math.round(sample);
-                } else if (eventType.equals("C")) { // Continuous event
-                    sample = Math.round(sample * 100.0) / 100.0;
+                for (int j = 0; j < noOfEvents; j++) {
+                    dayValues[j] = columns[j][i];
                 }
+                writer.writeDay(i + 1, dayValues);
+            }
+            Console.info(".\n.\n.\n" + days + " days of data has been written to " + filename + "!");
+        } catch (IOException e) {
+            System.err.println("Error writing to file: " + e.getMessage());
+        }
+    }
 
-                // Check bounds
-                if (sample < minimum || sample > maximum) {
-                    i--; // Retry for this sample
-                    continue;
-                }
+    // Generate data set for each event
+    public static ArrayList<ArrayList<Double>> generateDataSet(int days, EventSchema schema) {
+        return generateDataSet(days, schema, new Random().nextLong(), Runtime.getRuntime().availableProcessors());
+    }
 
-                samples.add(sample);
-            }
+    // Generate data set for each event, reproducibly from a seed and on several threads
+    public static ArrayList<ArrayList<Double>> generateDataSet(int days, EventSchema schema, long seed, int parallelism) {
+        double[][] columns = generateColumns(days, schema, seed, parallelism);
 
-            if (validateSamples(samples, mean, standardDeviation, days)) {
-                return samples;
+        ArrayList<ArrayList<Double>> activityData = new ArrayList<>();
+        for (double[] column : columns) {
+            ArrayList<Double> dataSet = new ArrayList<>(days);
+            for (double value : column) {
+                dataSet.add(value);
             }
+            activityData.add(dataSet);
         }
+        return activityData;
     }
 
-    // Validate samples to ensure mean and standard deviation meet criteria
-    private static boolean validateSamples(ArrayList<Double> samples, double mean, double standardDeviation, int days) {
-        double sampleMean = samples.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-        double sampleStdev = calculateStandardDeviation(samples, sampleMean);
+    // Generate one primitive column per event; the result depends only on the seed, not on parallelism
+    // (the schema must have been compiled with a Stats file, and may carry correlations)
+    public static double[][] generateColumns(int days, EventSchema schema, long seed, int parallelism) {
+        Console.info("Currently generating data for " + days + " days of events...");
 
-        double tolerance = days >= 10 ? 0.05 : 0.1;
+        double[][] columns = new DataGenerator(seed, parallelism).generate(days, schema.meanArray(), schema.stdDevArray(),
+                schema.minimumArray(), schema.maximumArray(), schema.typeArray(), schema.correlationMatrix());
 
-        return sampleMean >= mean * (1 - tolerance) && sampleMean <= mean * (1 + tolerance)
-                && sampleStdev >= standardDeviation * (1 - tolerance) && sampleStdev <= standardDeviation * (1 + tolerance);
+        Console.info(".\n.\n.\nData set generation completed!");
+        return columns;
     }
 
-    // Calculate standard deviation
-    private static double calculateStandardDeviation(ArrayList<Double> samples, double mean) {
-        double variance = samples.stream().mapToDouble(sample -> Math.pow(sample - mean, 2)).sum() / samples.size();
-        return Math.sqrt(variance);
+    // Generate set of data as close to mean and stdev
+    public static ArrayList<Double> generateData(double mean, double standardDeviation, int days, int minimum, int maximum, String eventType) {
+        return generateData(mean, standardDeviation, days, minimum, maximum, eventType, new Random(), new GenerationReport());
+    }
+
+    // Generate set of data as close to mean and stdev in a bounded number of steps (see DataGenerator)
+    public static ArrayList<Double> generateData(double mean, double standardDeviation, int days, int minimum, int maximum,
+                                                 String eventType, Random random, GenerationReport report) {
+        double[] values = DataGenerator.generateEvent(mean, standardDeviation, days, minimum, maximum,
+                eventType.isEmpty() ? ' ' : eventType.charAt(0), new SplittableRandom(random.nextLong()), report, false);
+
+        ArrayList<Double> samples = new ArrayList<>(days);
+        for (double value : values) {
+            samples.add(value);
+        }
+        return samples;
     }
 }
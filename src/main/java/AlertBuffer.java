@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Fixed-size ring of the most recent alerts. Publishers claim a sequence number with a
+// single atomic increment and store into its slot, so flagging never blocks on readers;
+// once the ring is full the oldest alerts are overwritten and memory stays constant.
+public class AlertBuffer {
+
+    // How many of the largest per-event contributions an alert keeps
+    static final int TOP_EVENTS = 3;
+
+    public static final class Alert {
+        public final long sequence;
+        public final long timestamp;
+        public final int day;
+        public final double score;
+        public final int threshold;
+        public final String[] topEvents;
+        public final double[] topContributions;
+
+        Alert(long sequence, int day, double score, int threshold, String[] topEvents, double[] topContributions) {
+            this.sequence = sequence;
+            this.timestamp = System.currentTimeMillis();
+            this.day = day;
+            this.score = score;
+            this.threshold = threshold;
+            this.topEvents = topEvents;
+            this.topContributions = topContributions;
+        }
+    }
+
+    // One page of alerts after a cursor; dropped counts alerts overwritten before they were read
+    public static final class Page {
+        public final List<Alert> alerts;
+        public final long nextCursor;
+        public final long dropped;
+
+        Page(List<Alert> alerts, long nextCursor, long dropped) {
+            this.alerts = alerts;
+            this.nextCursor = nextCursor;
+            this.dropped = dropped;
+        }
+    }
+
+    private final AtomicReferenceArray<Alert> slots;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    // capacity is rounded up to a power of two
+    public AlertBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // Sequence number of the newest alert (0 when none have been published)
+    public long lastSequence() {
+        return sequence.get();
+    }
+
+    public long publish(int day, double score, int threshold) {
+        return publish(day, score, threshold, new String[0], new double[0]);
+    }
+
+    public long publish(int day, double score, int threshold, String[] topEvents, double[] topContributions) {
+        long next = sequence.incrementAndGet();
+        slots.set((int) (next & mask), new Alert(next, day, score, threshold, topEvents, topContributions));
+        Metrics.ALERTS.increment();
+        return next;
+    }
+
+    // Publishes an alert naming the events that contributed most to the day's score
+    public long publish(int day, double score, int threshold, ScoringKernel kernel, List<String> eventNames,
+                        double[] values, int offset) {
+        double[] contributions = kernel.contributions(values, offset, new double[kernel.getEventCount()]);
+        String[] topEvents = new String[Math.min(TOP_EVENTS, contributions.length)];
+        double[] topContributions = new double[topEvents.length];
+
+        int count = 0;
+        for (; count < topEvents.length; count++) {
+            int best = -1;
+            for (int i = 0; i < contributions.length; i++) {
+                if (contributions[i] > 0 && (best < 0 || contributions[i] > contributions[best])) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break; // Only events that actually moved the score are worth naming
+            }
+            topEvents[count] = best < eventNames.size() ? eventNames.get(best) : "event " + (best + 1);
+            topContributions[count] = contributions[best];
+            contributions[best] = 0;
+        }
+        return publish(day, score, threshold, Arrays.copyOf(topEvents, count), Arrays.copyOf(topContributions, count));
+    }
+
+    // Returns up to limit alerts with sequence numbers after cursor, oldest first
+    public Page after(long cursor, int limit) {
+        long last = sequence.get();
+        if (cursor > last) {
+            cursor = 0; // A cursor from before a restart; start again from the oldest alert
+        }
+        long oldest = Math.max(1, last - mask);
+        long from = Math.max(cursor + 1, oldest);
+        long dropped = Math.max(0, from - (cursor + 1));
+
+        List<Alert> alerts = new ArrayList<>();
+        long next = from;
+        for (; next <= last && alerts.size() < limit; next++) {
+            Alert alert = slots.get((int) (next & mask));
+            if (alert == null || alert.sequence < next) {
+                break; // Claimed but not stored yet; pick it up on the next read
+            }
+            if (alert.sequence > next) {
+                dropped++; // Overwritten while we were reading
+                continue;
+            }
+            alerts.add(alert);
+        }
+        return new Page(alerts, Math.max(cursor, next - 1), dropped);
+    }
+}
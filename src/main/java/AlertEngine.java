@@ -4,6 +4,9 @@ import java.nio.file.*;
 
 public class AlertEngine {
 
+    // Most recent flagged days, served by the WebServer /alerts endpoints
+    public static final AlertBuffer recentAlerts = new AlertBuffer(4096);
+
     public static void main(String[] args) {
         while (true) {
             String statsFile = getNewStatsFile();
@@ -68,30 +71,45 @@ public class AlertEngine {
         return days;
     }
 
+    // Alert once the events are, taken together, two standard deviations out. Mean and
+    // robust scores are weighted sums of |z|, so that is 2 * sum(weights). Mahalanobis
+    // scores are a distance, sqrt(sum((w z)^2)) for uncorrelated events, so the same rule
+    // is 2 * sqrt(sum(w^2)): with equal weights w a normal day's score / w follows a chi
+    // distribution with one degree of freedom per event, and this is its 2 * sqrt(n)
+    // point (chi-square at 4n). One event alone alerts past 2 standard deviations either
+    // way. Rounded up, as thresholds are whole numbers.
     public static int calculateThreshold(List<Integer> weights) {
+        if (ScoringMode.current() == ScoringMode.MAHALANOBIS) {
+            double squares = 0;
+            for (int weight : weights) {
+                squares += (double) weight * weight;
+            }
+            return (int) Math.ceil(2 * Math.sqrt(squares));
+        }
         int sum = weights.stream().mapToInt(Integer::intValue).sum();
         return 2 * sum;
     }
 
     public static List<List<Double>> readNewLogs(String filename) {
-        System.out.println("Commencing analysis for " + filename + "...\n");
+        Console.info("Commencing analysis for " + filename + "...\n");
 
         List<List<Double>> dailyData = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
+        try {
+            LogParser.parse(filename, dailyCollector(dailyData));
+        } catch (IOException e) {
+            System.err.println("Error reading log file: " + e.getMessage());
+        }
 
-            while ((line = br.readLine()) != null) {
-                List<Double> daily = new ArrayList<>();
-                int noOfEvents = Integer.parseInt(br.readLine().trim());
+        return dailyData;
+    }
 
-                for (int i = 0; i < noOfEvents; i++) {
-                    String[] eventData = br.readLine().split(":");
-                    daily.add(Double.parseDouble(eventData[2]));
-                }
+    // Only the days numbered fromDay..toDay, found through the log's day index
+    public static List<List<Double>> readNewLogs(String filename, int fromDay, int toDay) {
+        Console.info("Commencing analysis for days " + fromDay + " to " + toDay + " of " + filename + "...\n");
 
-                dailyData.add(daily);
-                br.readLine(); // Skip newline
-            }
+        List<List<Double>> dailyData = new ArrayList<>();
+        try {
+            DayIndex.readDays(filename, fromDay, toDay, dailyCollector(dailyData));
         } catch (IOException e) {
             System.err.println("Error reading log file: " + e.getMessage());
         }
@@ -99,40 +117,106 @@ public class AlertEngine {
         return dailyData;
     }
 
+    private static LogParser.Handler dailyCollector(List<List<Double>> dailyData) {
+        return new LogParser.Handler() {
+            private List<Double> daily;
+
+            @Override
+            public void startDay(int day, long offset) {
+                daily = new ArrayList<>();
+                dailyData.add(daily);
+            }
+
+            @Override
+            public void value(int event, double value) {
+                daily.add(value);
+            }
+        };
+    }
+
 public static List<Double> calculateAnomalyCounter(List<List<Double>> dailyData, List<Integer> weights,
                                                    List<Double> means, List<Double> stdDevs) {
-    System.out.println("Currently calculating daily totals...\n.\n.\n.");
+    return calculateAnomalyCounter(dailyData, meanKernel(weights, means, stdDevs));
+}
 
-    List<Double> dailyTotals = new ArrayList<>();
+// As above with any kernel, e.g. from BaselineCache.Snapshot.kernel or AnalysisEngine.kernel
+public static List<Double> calculateAnomalyCounter(List<List<Double>> dailyData, ScoringKernel kernel) {
+    Console.info("Currently calculating daily totals...\n.\n.\n.");
 
-    for (List<Double> dayData : dailyData) {
-        double counter = 0.0;
+    int noOfEvents = kernel.getEventCount();
+    double[] matrix = new double[dailyData.size() * noOfEvents];
 
-        for (int i = 0; i < dayData.size(); i++) {
-            double value = dayData.get(i);
-            double deviation = Math.abs(value - means.get(i)) / stdDevs.get(i); // Calculate deviation
-            counter += deviation * weights.get(i); // Weight the deviation
+    for (int day = 0; day < dailyData.size(); day++) {
+        List<Double> dayData = dailyData.get(day);
+        for (int i = 0; i < noOfEvents; i++) {
+            // Missing values sit on the centre so they add nothing to the counter
+            matrix[day * noOfEvents + i] = i < dayData.size() ? dayData.get(i) : kernel.getCentre(i);
         }
+    }
 
-        dailyTotals.add(counter); // Add the total anomaly counter for the day
+    List<Double> dailyTotals = new ArrayList<>();
+    for (double total : calculateAnomalyCounter(matrix, dailyData.size(), kernel)) {
+        dailyTotals.add(total); // Add the total anomaly counter for the day
     }
 
-    System.out.println("Daily totals calculated!\n");
+    Console.info("Daily totals calculated!\n");
     return dailyTotals;
 }
 
+    // Means and standard deviations alone score each event on its own; Mahalanobis
+    // scoring also needs the inverse covariance, so rather than quietly scoring by means
+    // the List-based methods refuse it
+    static ScoringKernel meanKernel(List<Integer> weights, List<Double> means, List<Double> stdDevs) {
+        if (ScoringMode.current() == ScoringMode.MAHALANOBIS) {
+            throw new IllegalArgumentException("Mahalanobis scoring needs the baseline's inverse covariance;"
+                    + " score with a kernel from BaselineCache.Snapshot.kernel or AnalysisEngine.kernel");
+        }
+        return ScoringKernel.of(weights, means, stdDevs);
+    }
+
+    // Scores a dense days x events matrix and returns the daily totals
+    public static double[] calculateAnomalyCounter(double[] matrix, int days, ScoringKernel kernel) {
+        return kernel.score(matrix, days);
+    }
+
     public static void flagAnomalies(List<Double> dailyTotals, int threshold) {
-        System.out.println("Currently checking for anomalies...\n.\n.\n.");
+        flagAnomalies(dailyTotals, threshold, null, null, null);
+    }
+
+    // As above, also recording which events contributed most to each flagged day
+    public static void flagAnomalies(List<List<Double>> dailyData, List<Double> dailyTotals, int threshold,
+                                     List<Integer> weights, List<Double> means, List<Double> stdDevs,
+                                     List<String> eventNames) {
+        flagAnomalies(dailyTotals, threshold, dailyData, meanKernel(weights, means, stdDevs), eventNames);
+    }
+
+    // As above with any kernel, e.g. a MahalanobisKernel from BaselineCache.Snapshot.kernel;
+    // flagged days are published with the kernel's per-event contributions
+    public static void flagAnomalies(List<Double> dailyTotals, int threshold, List<List<Double>> dailyData,
+                                     ScoringKernel kernel, List<String> eventNames) {
+        Console.info("Currently checking for anomalies...\n.\n.\n.");
 
         boolean anomaliesDetected = false;
 
         for (int i = 0; i < dailyTotals.size(); i++) {
             double total = dailyTotals.get(i);
             boolean flagged = total >= threshold;
-            System.out.printf("Day %d anomaly count = %.2f %s%n", i + 1, total, flagged ? "--- FLAGGED" : "");
+            if (Console.enabled()) {
+                System.out.printf("Day %d anomaly count = %.2f %s%n", i + 1, total, flagged ? "--- FLAGGED" : "");
+            }
 
             if (flagged) {
                 anomaliesDetected = true;
+                if (kernel != null && i < dailyData.size()) {
+                    double[] row = new double[kernel.getEventCount()];
+                    List<Double> dayData = dailyData.get(i);
+                    for (int e = 0; e < row.length; e++) {
+                        row[e] = e < dayData.size() ? dayData.get(e) : Double.NaN;
+                    }
+                    recentAlerts.publish(i + 1, total, threshold, kernel, eventNames, row, 0);
+                } else {
+                    recentAlerts.publish(i + 1, total, threshold);
+                }
             }
         }
 
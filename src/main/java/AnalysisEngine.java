@@ -1,19 +1,48 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
 public class AnalysisEngine {
 
+    // Relative amount added to each variance before the covariance is inverted
+    private static final double COVARIANCE_RIDGE = 1e-6;
+
     public static void main(String[] args) {
         try {
             String inputFile = "Logs.txt"; // Replace with your log file name
-            System.out.println("Commencing analysis for " + inputFile + "...\n");
+            int parallelism = 1;
+            boolean incremental = false;
+            double halfLifeDays = 0;
+
+            // Usage: AnalysisEngine [logFile] [--parallelism N] [--incremental [--half-life DAYS]]
+            //        [--scoring mean|robust|mahalanobis]
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--scoring") && i + 1 < args.length) {
+                    ScoringMode.setCurrent(ScoringMode.parse(args[++i]));
+                } else if (args[i].equals("--parallelism") && i + 1 < args.length) {
+                    parallelism = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--incremental")) {
+                    incremental = true;
+                } else if (args[i].equals("--half-life") && i + 1 < args.length) {
+                    halfLifeDays = Double.parseDouble(args[++i]);
+                } else {
+                    inputFile = args[i];
+                }
+            }
+            Console.info("Commencing analysis for " + inputFile + "...\n");
 
-            Map<String, List<Double>> eventData = readLogs(inputFile);
-            List<String> eventNames = new ArrayList<>(eventData.keySet());
+            RunningStats stats = incremental
+                    ? IncrementalAnalysis.update(inputFile, halfLifeDays, null)
+                    : streamLogs(inputFile, parallelism);
 
             String outputFile = "BaselineStats.txt";
-            outputData(eventData, eventNames, outputFile);
+            outputData(stats, outputFile);
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
         }
@@ -22,52 +51,316 @@ public class AnalysisEngine {
     // Reads the logs file and extracts event data
     public static Map<String, List<Double>> readLogs(String filename) throws IOException {
         Map<String, List<Double>> eventData = new LinkedHashMap<>();
-        List<String> eventNames = new ArrayList<>();
-
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line = br.readLine(); // Read the first line (Day number)
-            int noOfEvents = Integer.parseInt(br.readLine().trim()); // Number of events logged
-
-            // Read event names
-            for (int i = 0; i < noOfEvents; i++) {
-                String eventLine = br.readLine().trim();
-                String eventName = eventLine.split(":")[0];
-                eventNames.add(eventName);
-                eventData.put(eventName, new ArrayList<>());
-            }
-
-            // Read daily data
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("Day")) { // Start of a new day's data
-                    br.readLine(); // Skip number of events line
-                    for (String eventName : eventNames) {
-                        String eventLine = br.readLine().trim();
-                        String[] eventInfo = eventLine.split(":");
-
-                        if (eventInfo[1].equals("D")) { // Discrete event
-                            eventData.get(eventName).add(Double.parseDouble(eventInfo[2]));
-                        } else if (eventInfo[1].equals("C")) { // Continuous event
-                            eventData.get(eventName).add(Double.parseDouble(eventInfo[2]));
-                        }
-                    }
+        List<List<Double>> columns = new ArrayList<>();
+
+        LogParser.parse(filename, new LogParser.Handler() {
+            private int records;
+
+            @Override
+            public void schema(String[] eventNames, char[] eventTypes) {
+                for (String eventName : eventNames) {
+                    List<Double> column = new ArrayList<>();
+                    eventData.put(eventName, column);
+                    columns.add(column);
                 }
             }
-        }
+
+            @Override
+            public void startDay(int day, long offset) {
+                records++;
+            }
+
+            @Override
+            public void value(int event, double value) {
+                if (records > 1) { // The first Day record only supplies the event names
+                    columns.get(event).add(value);
+                }
+            }
+        });
 
         return eventData;
     }
 
+    // Reads the logs file in a single pass, keeping only running statistics per event.
+    // Like readLogs, the first Day record only supplies the event names.
+    public static RunningStats streamLogs(String filename) throws IOException {
+        return streamLogs(filename, 1, null);
+    }
+
+    // Streams the logs file, splitting it into chunks analysed on several threads
+    // when parallelism is greater than one (text logs only)
+    public static RunningStats streamLogs(String filename, int parallelism) throws IOException {
+        return streamLogs(filename, parallelism, null);
+    }
+
+    // As above, reporting bytes and days consumed to progress (which may be null).
+    // Days rolled over into LogSegments are merged in from the segments.
+    public static RunningStats streamLogs(String filename, int parallelism, AnalysisProgress progress) throws IOException {
+        if (progress != null) {
+            progress.setTotalBytes(new File(filename).length());
+        }
+        RunningStats archived = LogSegments.archivedStats(filename);
+        if (archived != null && new File(filename).length() == 0) {
+            return archived; // Just rolled over
+        }
+
+        RunningStats stats;
+        if (parallelism > 1 && !BinaryLog.isBinaryLog(filename)) {
+            stats = ParallelAnalysis.analyze(filename, parallelism, progress, archived == null);
+        } else {
+            StatsCollector collector = new StatsCollector(archived == null, progress, 0);
+            LogParser.parse(filename, collector);
+            collector.finish(new File(filename).length());
+            stats = collector.stats;
+        }
+
+        if (stats == null) {
+            if (archived != null) {
+                return archived;
+            }
+            throw new IOException("No Day records found in " + filename);
+        }
+        return mergeArchived(archived, stats, filename);
+    }
+
+    // The archived statistics with the active log's merged in (or just the active log's)
+    static RunningStats mergeArchived(RunningStats archived, RunningStats stats, String filename) throws IOException {
+        if (archived == null) {
+            return stats;
+        }
+        if (!archived.getEventNames().equals(stats.getEventNames())) {
+            throw new IOException("Events in " + filename + " no longer match its archived segments");
+        }
+        archived.merge(stats);
+        return archived;
+    }
+
+    // Folds parsed records into RunningStats (and, for Mahalanobis scoring, whole days
+    // into its co-moments)
+    static class StatsCollector implements LogParser.Handler {
+        private final AnalysisProgress progress;
+        private boolean skipRecord;
+        private long lastOffset;
+        private double[] day;
+        RunningStats stats;
+
+        StatsCollector(boolean skipFirstRecord) {
+            this(skipFirstRecord, null, 0);
+        }
+
+        StatsCollector(boolean skipFirstRecord, AnalysisProgress progress, long startOffset) {
+            this.skipRecord = skipFirstRecord;
+            this.progress = progress;
+            this.lastOffset = startOffset;
+        }
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            ScoringMode mode = ScoringMode.current();
+            stats = new RunningStats(Arrays.asList(eventNames), mode == ScoringMode.ROBUST, mode == ScoringMode.MAHALANOBIS);
+            day = stats.hasCovariance() ? new double[eventNames.length] : null;
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            if (progress != null) {
+                progress.addBytes(offset - lastOffset);
+                lastOffset = offset;
+            }
+        }
+
+        @Override
+        public void value(int event, double value) {
+            if (!skipRecord) {
+                stats.add(event, value);
+                if (day != null && event < day.length) {
+                    day[event] = value;
+                }
+            }
+        }
+
+        @Override
+        public void endDay() {
+            if (day != null && !skipRecord) {
+                stats.addDay(day);
+            }
+            skipRecord = false;
+            if (progress != null) {
+                progress.addDay();
+            }
+        }
+
+        // Accounts for the bytes between the last record and the end of the range parsed
+        void finish(long endOffset) {
+            if (progress != null) {
+                progress.addBytes(endOffset - lastOffset);
+                lastOffset = endOffset;
+            }
+        }
+    }
+
     // Outputs data (mean and standard deviation) to a file
     public static void outputData(Map<String, List<Double>> data, List<String> eventNames, String filename) throws IOException {
         List<Double> mean = calculateMean(data);
         List<Double> stddev = calculateStddev(calculateVariance(data, mean));
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.valueOf(eventNames.size()));
+        writeBaseline(eventNames, mean, stddev, null, null, filename);
+    }
+
+    // Outputs streamed statistics (mean and standard deviation) to a file; robust
+    // statistics add median, MAD, p1 and p99 columns after them, and statistics with
+    // covariance add the inverse covariance matrix after the events
+    public static void outputData(RunningStats stats, String filename) throws IOException {
+        List<Double> mean = calculateMean(stats);
+        List<Double> stddev = calculateStddev(calculateVariance(stats, mean));
+
+        double[][] robust = null;
+        if (stats.isRobust()) {
+            robust = new double[stats.size()][];
+            for (int i = 0; i < stats.size(); i++) {
+                robust[i] = calculateRobust(stats.getSketch(i));
+            }
+        }
+        double[][] precision = null;
+        if (stats.hasCovariance()) {
+            try {
+                precision = calculatePrecision(stats);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Cannot invert the covariance of the events: " + e.getMessage(), e);
+            }
+            mean = fullMeans(stats);
+        }
+        writeBaseline(stats.getEventNames(), mean, stddev, robust, precision, filename);
+    }
+
+    // Inverse of the events' covariance. An event that never varied is given unit
+    // variance (its deviations count in its own units, as in ScoringKernel.factor), and
+    // the diagonal is raised by COVARIANCE_RIDGE of itself so events that move in exact
+    // lockstep still invert; breaking such a relation then scores very high.
+    public static double[][] calculatePrecision(RunningStats stats) {
+        int n = stats.size();
+        double[][] covariance = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                covariance[i][j] = stats.getCovariance(i, j);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!(covariance[i][i] > 0)) {
+                for (int j = 0; j < n; j++) {
+                    covariance[i][j] = 0.0;
+                    covariance[j][i] = 0.0;
+                }
+                covariance[i][i] = 1.0;
+            }
+            covariance[i][i] *= 1.0 + COVARIANCE_RIDGE;
+        }
+        return Matrices.invert(covariance, "Covariance matrix");
+    }
+
+    // A kernel scoring against these statistics the way the current ScoringMode asks for,
+    // as BaselineCache.Snapshot.kernel does for a baseline file
+    public static ScoringKernel kernel(RunningStats stats, List<Integer> weights) {
+        int n = stats.size();
+        double[] w = new double[weights.size()];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = weights.get(i);
+        }
+        List<Double> mean = calculateMean(stats);
+        List<Double> stddev = calculateStddev(calculateVariance(stats, mean));
+        double[] centres = new double[n];
+        double[] scales = new double[n];
+        for (int i = 0; i < n; i++) {
+            centres[i] = mean.get(i);
+            scales[i] = stddev.get(i);
+        }
+
+        ScoringMode mode = ScoringMode.current();
+        if (mode == ScoringMode.MAHALANOBIS) {
+            if (!stats.hasCovariance()) {
+                throw new IllegalArgumentException("The statistics have no covariance; gather them with mahalanobis scoring");
+            }
+            double[][] precision = calculatePrecision(stats);
+            double[] rows = new double[n * n];
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(precision[i], 0, rows, i * n, n);
+            }
+            List<Double> full = fullMeans(stats);
+            for (int i = 0; i < n; i++) {
+                centres[i] = full.get(i);
+            }
+            return new MahalanobisKernel(w, centres, scales, rows);
+        }
+        if (mode == ScoringMode.ROBUST) {
+            if (!stats.isRobust()) {
+                throw new IllegalArgumentException("The statistics have no sketches; gather them with robust scoring");
+            }
+            for (int i = 0; i < n; i++) {
+                double[] robust = calculateRobust(stats.getSketch(i));
+                centres[i] = robust[0];
+                scales[i] = ScoringKernel.robustScale(robust[1], robust[2], robust[3]);
+            }
+        }
+        return new ScoringKernel(w, centres, scales);
+    }
+
+    // Median, MAD, p1 and p99 of one event, read off its sketch
+    public static double[] calculateRobust(QuantileSketch sketch) {
+        QuantileSketch.Weighted sorted = sketch.sorted();
+        double median = sorted.quantile(0.5);
+        return new double[] {median, sorted.mad(median), sorted.quantile(0.01), sorted.quantile(0.99)};
+    }
+
+    private static void writeBaseline(List<String> eventNames, List<Double> mean, List<Double> stddev, double[][] robust,
+                                      double[][] precision, String filename) throws IOException {
+        StringBuilder baseline = new StringBuilder(String.valueOf(eventNames.size()));
+        for (int i = 0; i < eventNames.size(); i++) {
+            // Locale.ROOT: the file is parsed back with Double.parseDouble, which wants a '.'.
+            // With an inverse covariance the mean goes at full precision like the matrix.
+            String meanText = precision != null ? String.valueOf(mean.get(i)) : String.format(Locale.ROOT, "%.2f", mean.get(i));
+            baseline.append('\n').append(eventNames.get(i)).append(':').append(meanText)
+                    .append(String.format(Locale.ROOT, ":%.2f", stddev.get(i)));
+            // Median, MAD, p1 and p99 at full precision: a MAD below 0.005 would round to 0
+            if (robust != null) {
+                for (double value : robust[i]) {
+                    baseline.append(':').append(value);
+                }
+            }
+        }
+        // A "precision" line, then one name:row line per event at full precision; readers
+        // that only want the statistics stop after the event lines
+        if (precision != null) {
+            baseline.append('\n').append(BaselineCache.PRECISION_SECTION);
             for (int i = 0; i < eventNames.size(); i++) {
-                writer.write(String.format("\n%s:%.2f:%.2f", eventNames.get(i), mean.get(i), stddev.get(i)));
+                baseline.append('\n').append(eventNames.get(i));
+                for (double value : precision[i]) {
+                    baseline.append(':').append(value);
+                }
+            }
+        }
+        writeAtomically(filename, baseline.toString());
+        Console.info("Baseline statistics written to " + filename);
+    }
+
+    // Writes to a temporary file next to the target and renames it into place, so
+    // readers only ever see a complete file even with concurrent analyses
+    static void writeAtomically(String filename, String content) throws IOException {
+        writeAtomically(filename, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void writeAtomically(String filename, byte[] content) throws IOException {
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
             }
-            System.out.println("Baseline statistics written to " + filename);
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
 
@@ -81,6 +374,26 @@ public class AnalysisEngine {
                 .collect(Collectors.toList());
     }
 
+    // Calculates the mean for each event from streamed statistics
+    public static List<Double> calculateMean(RunningStats stats) {
+        List<Double> means = new ArrayList<>();
+        for (int i = 0; i < stats.size(); i++) {
+            means.add(Math.round(stats.getMean(i) * 100.0) / 100.0);
+        }
+        return means;
+    }
+
+    // Unrounded means for Mahalanobis scoring: rounding one event's mean to 0.01 shifts
+    // every day's deviation by up to 0.005, which the inverse covariance can magnify for
+    // an event with a small spread or one that tracks another closely
+    static List<Double> fullMeans(RunningStats stats) {
+        List<Double> means = new ArrayList<>();
+        for (int i = 0; i < stats.size(); i++) {
+            means.add(stats.getMean(i));
+        }
+        return means;
+    }
+
     // Calculates the variance for each event
     public static List<Double> calculateVariance(Map<String, List<Double>> data, List<Double> mean) {
         List<Double> variances = new ArrayList<>();
@@ -98,6 +411,16 @@ public class AnalysisEngine {
         return variances;
     }
 
+    // Calculates the variance for each event from streamed statistics, measured
+    // around the (rounded) mean just like the list-based version
+    public static List<Double> calculateVariance(RunningStats stats, List<Double> mean) {
+        List<Double> variances = new ArrayList<>();
+        for (int i = 0; i < stats.size(); i++) {
+            variances.add(Math.round(stats.getVariance(i, mean.get(i)) * 100.0) / 100.0);
+        }
+        return variances;
+    }
+
     // Calculates the standard deviation based on variance
     public static List<Double> calculateStddev(List<Double> variance) {
         return variance.stream()
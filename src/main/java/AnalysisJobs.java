@@ -0,0 +1,151 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs baseline analyses in the background on a bounded executor. Submitting returns
+// a Job straight away; a second request for the same unchanged input while the first
+// is still queued or running gets the same Job back instead of starting another pass.
+public class AnalysisJobs {
+
+    // Finished jobs kept around for /jobs/{id} before the oldest are forgotten
+    private static final int MAX_FINISHED_JOBS = 256;
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    public static final class Job {
+        public final long id;
+        public final String logFile;
+        public final int parallelism;
+        public final boolean full;
+        public final double halfLifeDays;
+        public final AnalysisProgress progress = new AnalysisProgress();
+        final String key;
+        volatile Status status = Status.QUEUED;
+        volatile BaselineCache.Snapshot result;
+        volatile String error;
+
+        Job(long id, String logFile, int parallelism, boolean full, double halfLifeDays, String key) {
+            this.id = id;
+            this.logFile = logFile;
+            this.parallelism = parallelism;
+            this.full = full;
+            this.halfLifeDays = halfLifeDays;
+            this.key = key;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        // The baseline this job published, once it is DONE
+        public BaselineCache.Snapshot getResult() {
+            return result;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final String baselineFile;
+    private final BaselineCache baselineCache;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Job> active = new ConcurrentHashMap<>();
+    private final Queue<Long> finished = new ConcurrentLinkedQueue<>();
+
+    // threads analyses run at once and at most queueCapacity more wait their turn
+    public AnalysisJobs(int threads, int queueCapacity, String baselineFile, BaselineCache baselineCache) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "analysis-job");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.baselineFile = baselineFile;
+        this.baselineCache = baselineCache;
+    }
+
+    // Queues an analysis of logFile, or returns the pending job for the same input.
+    // Unless full is set only the part of the log appended since the last analysis is
+    // read (see IncrementalAnalysis); a full analysis re-reads it using parallelism threads.
+    // Throws RejectedExecutionException when the queue is full, and IllegalArgumentException
+    // for a half-life the analysis could not apply (a full analysis never decays).
+    public Job submit(String logFile, int parallelism, boolean full, double halfLifeDays) {
+        if (full && halfLifeDays != 0) {
+            throw new IllegalArgumentException("halfLife cannot be combined with full=true");
+        }
+        IncrementalAnalysis.checkHalfLife(logFile, halfLifeDays);
+        File file = new File(logFile).getAbsoluteFile();
+        String key = file.getPath() + ":" + file.length() + ":" + file.lastModified() + ":" + full + ":" + halfLifeDays;
+
+        Job[] created = new Job[1];
+        Job job = active.computeIfAbsent(key,
+                k -> created[0] = new Job(ids.incrementAndGet(), logFile, parallelism, full, halfLifeDays, k));
+        if (created[0] == null) {
+            return job; // Coalesced onto a queued or running analysis
+        }
+
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            active.remove(key, job);
+            jobs.remove(job.id);
+            throw e;
+        }
+        return job;
+    }
+
+    public Job get(long id) {
+        return jobs.get(id);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(Job job) {
+        job.status = Status.RUNNING;
+        try {
+            RunningStats stats;
+            if (job.full) {
+                stats = AnalysisEngine.streamLogs(job.logFile, job.parallelism, job.progress);
+                // The saved incremental state no longer matches the published baseline
+                Files.deleteIfExists(Paths.get(IncrementalAnalysis.stateFile(job.logFile)));
+            } else {
+                stats = IncrementalAnalysis.update(job.logFile, job.halfLifeDays, job.progress);
+            }
+            AnalysisEngine.outputData(stats, baselineFile);
+            job.result = baselineCache.reload();
+            job.status = Status.DONE;
+        } catch (Exception e) {
+            job.error = e.getMessage() != null ? e.getMessage() : e.toString();
+            job.status = Status.FAILED;
+        } finally {
+            active.remove(job.key, job);
+            retire(job);
+        }
+    }
+
+    private void retire(Job job) {
+        finished.add(job.id);
+        while (finished.size() > MAX_FINISHED_JOBS) {
+            Long oldest = finished.poll();
+            if (oldest != null) {
+                jobs.remove(oldest);
+            }
+        }
+    }
+}
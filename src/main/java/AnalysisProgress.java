@@ -0,0 +1,34 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Bytes and Day records consumed so far by an analysis. Updated from every parsing
+// thread, so it uses LongAdders rather than a shared counter.
+public class AnalysisProgress {
+
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder days = new LongAdder();
+    private volatile long totalBytes;
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    void addBytes(long count) {
+        bytes.add(count);
+    }
+
+    void addDay() {
+        days.increment();
+    }
+
+    public long getBytesProcessed() {
+        return bytes.sum();
+    }
+
+    public long getDaysProcessed() {
+        return days.sum();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,473 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Replays a historical log against many weight/threshold settings in one go. The log
+// is read once into event columns, and each column is turned into |x - mean| / stddev
+// up front, which is the only part of the anomaly counter that does not depend on the
+// weights. Every setting then costs a weighted sum per day. Days are split into
+// blocks on a ForkJoinPool; each block is scored against every weight set while it
+// is still in cache, and only per-threshold counts leave the block.
+//
+// Thresholds are either absolute (--thresholds) or factors of each weight set's sum
+// (--factors, default 0.5 to 4 in steps of 0.25; AlertEngine.calculateThreshold is
+// factor 2). Weight sets come from the Events file, a file with one comma-separated
+// set per line (--weights), and/or every combination of the given values (--grid).
+// With a label file (one anomalous day number per line) each setting also gets
+// precision and recall.
+public class Backtest {
+
+    // Days scored per block; small enough that a block of columns stays in cache
+    private static final int BLOCK_DAYS = 4096;
+
+    // Largest number of weight sets --grid may expand to
+    private static final int MAX_WEIGHT_SETS = 100_000;
+
+    private final String[] eventNames;
+    private final int[] days;
+    // Per-event deviation columns, |x - centre| / spread; the weights are applied later
+    private final double[][] deviations;
+
+    private Backtest(String[] eventNames, int[] days, double[][] deviations) {
+        this.eventNames = eventNames;
+        this.days = days;
+        this.deviations = deviations;
+    }
+
+    // Flag counts for one weight set: flagged[j] days reached thresholds[j], and
+    // labelled[j] of those were in the label file
+    public static final class Result {
+        public final double[] weights;
+        public final double[] thresholds;
+        public final long[] flagged;
+        public final long[] labelled;
+
+        Result(double[] weights, double[] thresholds, long[] flagged, long[] labelled) {
+            this.weights = weights;
+            this.thresholds = thresholds;
+            this.flagged = flagged;
+            this.labelled = labelled;
+        }
+    }
+
+    public static void main(String[] args) {
+        String logFile = null;
+        String baselineFile = "BaselineStats.txt";
+        String eventsFile = null;
+        String weightsFile = null;
+        String grid = null;
+        String thresholds = null;
+        String factors = "0.5,0.75,1,1.25,1.5,1.75,2,2.25,2.5,2.75,3,3.25,3.5,3.75,4";
+        String labelsFile = null;
+        String outputFile = null;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        // Usage: Backtest <log file> [--baseline F] [--events F] [--weights F] [--grid V,V..]
+        //        [--thresholds T,T..|--factors F,F..] [--labels F] [--output F] [--parallelism N]
+        try {
+            for (int i = 0; i < args.length; i++) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals("--baseline") && hasValue) {
+                    baselineFile = args[++i];
+                } else if (args[i].equals("--events") && hasValue) {
+                    eventsFile = args[++i];
+                } else if (args[i].equals("--weights") && hasValue) {
+                    weightsFile = args[++i];
+                } else if (args[i].equals("--grid") && hasValue) {
+                    grid = args[++i];
+                } else if (args[i].equals("--thresholds") && hasValue) {
+                    thresholds = args[++i];
+                } else if (args[i].equals("--factors") && hasValue) {
+                    factors = args[++i];
+                } else if (args[i].equals("--labels") && hasValue) {
+                    labelsFile = args[++i];
+                } else if (args[i].equals("--output") && hasValue) {
+                    outputFile = args[++i];
+                } else if (args[i].equals("--parallelism") && hasValue) {
+                    parallelism = Integer.parseInt(args[++i]);
+                } else if (logFile == null && !args[i].startsWith("--")) {
+                    logFile = args[i];
+                } else {
+                    throw new IllegalArgumentException("Unrecognised argument: " + args[i]);
+                }
+            }
+            if (logFile == null) {
+                throw new IllegalArgumentException("No log file given");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: Backtest <log file> [--baseline <file>] [--events <file>] [--weights <file>]"
+                    + " [--grid V,V,...] [--thresholds T,T,...|--factors F,F,...] [--labels <file>]"
+                    + " [--output <file>] [--parallelism N]");
+            System.exit(1);
+            return;
+        }
+
+        if (outputFile == null) {
+            Console.setQuiet(true); // Keep standard output to the CSV
+        }
+        try {
+            long startTime = System.nanoTime();
+            BaselineCache.Snapshot baseline = new BaselineCache(baselineFile).reload();
+            if (baseline == null) {
+                throw new IOException("No baseline statistics in " + baselineFile);
+            }
+            Backtest backtest = load(logFile, baseline);
+            Console.info(String.format("Loaded %d days of %d events in %d ms", backtest.days.length,
+                    backtest.eventNames.length, (System.nanoTime() - startTime) / 1_000_000));
+
+            List<double[]> weightSets = new ArrayList<>();
+            if (eventsFile != null) {
+                EventSchema schema = EventSchema.fromEventsFile(eventsFile);
+                if (!schema.getNames().equals(Arrays.asList(backtest.eventNames))) {
+                    throw new IOException("Events in " + eventsFile + " do not match the log");
+                }
+                weightSets.add(schema.weightArray());
+            }
+            if (weightsFile != null) {
+                for (String line : Files.readAllLines(Paths.get(weightsFile), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty() && !line.trim().startsWith("#")) {
+                        weightSets.add(backtest.checkedWeights(parseList(line)));
+                    }
+                }
+            }
+            if (grid != null) {
+                weightSets.addAll(grid(parseList(grid), backtest.eventNames.length));
+            }
+            if (weightSets.isEmpty()) {
+                double[] ones = new double[backtest.eventNames.length];
+                Arrays.fill(ones, 1);
+                weightSets.add(ones);
+            }
+
+            double[] absolute = thresholds == null ? null : parseList(thresholds);
+            double[] relative = parseList(factors);
+            List<double[]> thresholdSets = new ArrayList<>();
+            for (double[] weights : weightSets) {
+                double sum = 0;
+                for (double weight : weights) {
+                    sum += weight;
+                }
+                double[] set = absolute != null ? absolute.clone() : relative.clone();
+                if (absolute == null) {
+                    for (int j = 0; j < set.length; j++) {
+                        set[j] *= sum;
+                    }
+                }
+                Arrays.sort(set);
+                thresholdSets.add(set);
+            }
+
+            boolean[] labels = labelsFile == null ? null : backtest.labels(labelsFile);
+            startTime = System.nanoTime();
+            List<Result> results = backtest.run(weightSets, thresholdSets, labels, parallelism);
+            Console.info(String.format("Scored %d weight sets x %d thresholds in %d ms", weightSets.size(),
+                    thresholdSets.get(0).length, (System.nanoTime() - startTime) / 1_000_000));
+
+            try (PrintWriter out = outputFile == null
+                    ? new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                    : new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
+                write(out, results, labels == null ? -1 : count(labels));
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Reads the log into columns and converts them to deviations from the baseline
+    public static Backtest load(String logFile, BaselineCache.Snapshot baseline) throws IOException {
+        if (ScoringMode.current() == ScoringMode.MAHALANOBIS) {
+            // Sweeping weights relies on a day's score being a weighted sum of per-event deviations
+            throw new IOException("Mahalanobis scores do not split into per-event deviations; backtest with mean or robust scoring");
+        }
+        ColumnReader reader = new ColumnReader();
+        LogParser.parse(logFile, reader);
+        if (reader.eventNames == null) {
+            throw new IOException("No Day records found in " + logFile);
+        }
+        if (!baseline.eventNames.equals(Arrays.asList(reader.eventNames))) {
+            throw new IOException("Events in " + logFile + " do not match the baseline");
+        }
+
+        double[] centres = baseline.centres();
+        double[] scales = baseline.scales();
+        double[][] columns = new double[reader.eventNames.length][];
+        for (int e = 0; e < columns.length; e++) {
+            double[] column = Arrays.copyOf(reader.columns[e], reader.count);
+            double factor = ScoringKernel.factor(1, scales[e]);
+            for (int d = 0; d < column.length; d++) {
+                // Missing values sit on the centre, as in AlertEngine.calculateAnomalyCounter
+                column[d] = Double.isNaN(column[d]) ? 0 : Math.abs(column[d] - centres[e]) * factor;
+            }
+            columns[e] = column;
+        }
+        return new Backtest(reader.eventNames, Arrays.copyOf(reader.days, reader.count), columns);
+    }
+
+    // Scores every weight set against its thresholds (ascending) on parallelism threads;
+    // labels, if not null, marks the anomalous days by position
+    public List<Result> run(List<double[]> weightSets, List<double[]> thresholdSets, boolean[] labels, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            long[][][] counts = pool.invoke(new BlockTask(weightSets, thresholdSets, labels, 0, days.length));
+            List<Result> results = new ArrayList<>();
+            for (int w = 0; w < weightSets.size(); w++) {
+                double[] thresholds = thresholdSets.get(w);
+                long[] flagged = new long[thresholds.length];
+                long[] labelled = new long[thresholds.length];
+                // counts[w][0][k] days passed exactly k thresholds; a day that passed k
+                // thresholds is flagged under thresholds 0..k-1
+                long flaggedSoFar = 0;
+                long labelledSoFar = 0;
+                for (int k = thresholds.length; k > 0; k--) {
+                    flaggedSoFar += counts[w][0][k];
+                    labelledSoFar += counts[w][1][k];
+                    flagged[k - 1] = flaggedSoFar;
+                    labelled[k - 1] = labelledSoFar;
+                }
+                results.add(new Result(weightSets.get(w), thresholds, flagged, labelled));
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Counts, for each weight set, how many days in [from, to) passed exactly k of its
+    // thresholds: [set][0][k] for all days and [set][1][k] for labelled days
+    private class BlockTask extends RecursiveTask<long[][][]> {
+        private static final long serialVersionUID = 1L;
+        private final List<double[]> weightSets;
+        private final List<double[]> thresholdSets;
+        private final boolean[] labels;
+        private final int from;
+        private final int to;
+
+        BlockTask(List<double[]> weightSets, List<double[]> thresholdSets, boolean[] labels, int from, int to) {
+            this.weightSets = weightSets;
+            this.thresholdSets = thresholdSets;
+            this.labels = labels;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[][][] compute() {
+            if (to - from > BLOCK_DAYS) {
+                int middle = from + (to - from) / 2 / BLOCK_DAYS * BLOCK_DAYS;
+                middle = middle == from ? from + BLOCK_DAYS : middle;
+                BlockTask left = new BlockTask(weightSets, thresholdSets, labels, from, middle);
+                left.fork();
+                long[][][] right = new BlockTask(weightSets, thresholdSets, labels, middle, to).compute();
+                long[][][] counts = left.join();
+                for (int w = 0; w < counts.length; w++) {
+                    for (int k = 0; k < counts[w][0].length; k++) {
+                        counts[w][0][k] += right[w][0][k];
+                        counts[w][1][k] += right[w][1][k];
+                    }
+                }
+                return counts;
+            }
+
+            long[][][] counts = new long[weightSets.size()][][];
+            double[] totals = new double[to - from];
+            for (int w = 0; w < counts.length; w++) {
+                double[] weights = weightSets.get(w);
+                double[] thresholds = thresholdSets.get(w);
+                counts[w] = new long[2][thresholds.length + 1];
+
+                Arrays.fill(totals, 0);
+                for (int e = 0; e < weights.length; e++) {
+                    double weight = weights[e];
+                    double[] column = deviations[e];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    for (int d = from; d < to; d++) {
+                        totals[d - from] += weight * column[d];
+                    }
+                }
+
+                double first = thresholds[0];
+                double span = thresholds[thresholds.length - 1] - first;
+                double inverseStep = span > 0 ? (thresholds.length - 1) / span : 0;
+                long[] all = counts[w][0];
+                long[] labelled = counts[w][1];
+                for (int d = from; d < to; d++) {
+                    int passed = passed(thresholds, first, inverseStep, totals[d - from]);
+                    all[passed]++;
+                    if (labels != null && labels[d]) {
+                        labelled[passed]++;
+                    }
+                }
+            }
+            return counts;
+        }
+    }
+
+    // Number of (ascending) thresholds at or below total, i.e. settings that flag it.
+    // Sweeps are usually evenly spaced, so the position is guessed from the spacing and
+    // then corrected against the real thresholds; a binary search instead mispredicts a
+    // branch on nearly every day and made sweeps more than twice as slow.
+    static int passed(double[] thresholds, double first, double inverseStep, double total) {
+        int count = thresholds.length;
+        double guess = (total - first) * inverseStep + 1;
+        int passed = guess <= 0 ? 0 : guess >= count ? count : (int) guess;
+        while (passed < count && thresholds[passed] <= total) {
+            passed++;
+        }
+        while (passed > 0 && thresholds[passed - 1] > total) {
+            passed--;
+        }
+        return passed;
+    }
+
+    // Marks the positions of the days listed in a label file (one day number per line)
+    boolean[] labels(String labelsFile) throws IOException {
+        Set<Integer> anomalous = new HashSet<>();
+        for (String line : Files.readAllLines(Paths.get(labelsFile), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                try {
+                    anomalous.add(Integer.parseInt(line));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid day in " + labelsFile + ": " + line);
+                }
+            }
+        }
+        boolean[] labels = new boolean[days.length];
+        for (int d = 0; d < days.length; d++) {
+            labels[d] = anomalous.contains(days[d]);
+        }
+        return labels;
+    }
+
+    private double[] checkedWeights(double[] weights) {
+        if (weights.length != eventNames.length) {
+            throw new IllegalArgumentException("Weight set " + Arrays.toString(weights) + " does not have "
+                    + eventNames.length + " weights");
+        }
+        return weights;
+    }
+
+    // Every assignment of the given values to the events
+    static List<double[]> grid(double[] values, int noOfEvents) {
+        if (Math.pow(values.length, noOfEvents) > MAX_WEIGHT_SETS) {
+            throw new IllegalArgumentException("A grid of " + values.length + " values over " + noOfEvents
+                    + " events has more than " + MAX_WEIGHT_SETS + " weight sets");
+        }
+        List<double[]> sets = new ArrayList<>();
+        int[] choice = new int[noOfEvents];
+        while (true) {
+            double[] weights = new double[noOfEvents];
+            for (int e = 0; e < noOfEvents; e++) {
+                weights[e] = values[choice[e]];
+            }
+            sets.add(weights);
+
+            int e = noOfEvents - 1;
+            while (e >= 0 && ++choice[e] == values.length) {
+                choice[e--] = 0;
+            }
+            if (e < 0) {
+                return sets;
+            }
+        }
+    }
+
+    private static double[] parseList(String list) {
+        String[] parts = list.trim().split("\\s*,\\s*");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i]);
+        }
+        return values;
+    }
+
+    private static int count(boolean[] labels) {
+        int count = 0;
+        for (boolean label : labels) {
+            if (label) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // One CSV row per weight set and threshold; precision and recall only with labels
+    private static void write(PrintWriter out, List<Result> results, int anomalies) {
+        out.println(anomalies < 0 ? "weights,threshold,flagged"
+                : "weights,threshold,flagged,truePositives,falsePositives,falseNegatives,precision,recall");
+        for (Result result : results) {
+            StringBuilder weights = new StringBuilder();
+            for (double weight : result.weights) {
+                weights.append(weights.length() > 0 ? " " : "").append(format(weight));
+            }
+            for (int j = 0; j < result.thresholds.length; j++) {
+                out.print(weights + "," + format(result.thresholds[j]) + "," + result.flagged[j]);
+                if (anomalies >= 0) {
+                    long truePositives = result.labelled[j];
+                    long falsePositives = result.flagged[j] - truePositives;
+                    double precision = result.flagged[j] == 0 ? 0 : (double) truePositives / result.flagged[j];
+                    double recall = anomalies == 0 ? 0 : (double) truePositives / anomalies;
+                    out.print(String.format(Locale.ROOT, ",%d,%d,%d,%.4f,%.4f", truePositives, falsePositives,
+                            anomalies - truePositives, precision, recall));
+                }
+                out.println();
+            }
+        }
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format(Locale.ROOT, "%.4g", value);
+    }
+
+    // Collects every record into growing per-event columns; missing values stay NaN
+    private static final class ColumnReader implements LogParser.Handler {
+        String[] eventNames;
+        double[][] columns;
+        int[] days = new int[1024];
+        int count;
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            this.eventNames = eventNames;
+            this.columns = new double[eventNames.length][days.length];
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            if (count == days.length) {
+                days = Arrays.copyOf(days, count * 2);
+                for (int e = 0; e < columns.length; e++) {
+                    columns[e] = Arrays.copyOf(columns[e], count * 2);
+                }
+            }
+            days[count] = day;
+            for (double[] column : columns) {
+                column[count] = Double.NaN;
+            }
+            count++;
+        }
+
+        @Override
+        public void value(int event, double value) {
+            if (event < columns.length) {
+                columns[event][count - 1] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+// In-memory copy of a baseline statistics file, held as an immutable snapshot with
+// pre-serialised JSON. Snapshots are swapped atomically, so readers never see a
+// half-updated baseline, and the file is re-read only when it changes on disk.
+public class BaselineCache {
+
+    // How often a read may stat the file to look for outside changes
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    // Line after the events that starts the inverse covariance rows, if any
+    static final String PRECISION_SECTION = "precision";
+
+    // One immutable version of the baseline
+    public static final class Snapshot {
+        public final long version;
+        public final List<String> eventNames;
+        public final double[] means;
+        public final double[] stdDevs;
+        // Robust columns; null when the baseline was written without them
+        public final double[] medians;
+        public final double[] mads;
+        public final double[] p1s;
+        public final double[] p99s;
+        // Inverse covariance, row-major; null when the baseline was written without it
+        public final double[] precision;
+        public final byte[] json;
+        public final String etag;
+        final long lastModified;
+        final long size;
+
+        Snapshot(long version, List<String> eventNames, double[] means, double[] stdDevs, double[][] robust,
+                 double[] precision, byte[] json, long lastModified, long size) {
+            this.version = version;
+            this.eventNames = eventNames;
+            this.means = means;
+            this.stdDevs = stdDevs;
+            this.medians = robust == null ? null : robust[0];
+            this.mads = robust == null ? null : robust[1];
+            this.p1s = robust == null ? null : robust[2];
+            this.p99s = robust == null ? null : robust[3];
+            this.precision = precision;
+            this.json = json;
+            this.lastModified = lastModified;
+            this.size = size;
+
+            CRC32 crc = new CRC32();
+            crc.update(json, 0, json.length);
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "\"";
+        }
+
+        public boolean isRobust() {
+            return medians != null;
+        }
+
+        public boolean hasPrecision() {
+            return precision != null;
+        }
+
+        // A kernel scoring against this baseline the way the current ScoringMode asks for
+        public ScoringKernel kernel(double[] weights) throws IOException {
+            if (ScoringMode.current() == ScoringMode.MAHALANOBIS) {
+                if (!hasPrecision()) {
+                    throw new IOException("The baseline has no inverse covariance; rerun the analysis with mahalanobis scoring");
+                }
+                return new MahalanobisKernel(weights, means, stdDevs, precision);
+            }
+            return new ScoringKernel(weights, centres(), scales());
+        }
+
+        // Per-event centre for the current scoring mode: mean, or median (Mahalanobis
+        // scoring has no per-event form; per-event callers get mean and stddev)
+        public double[] centres() throws IOException {
+            return ScoringMode.current() == ScoringMode.ROBUST ? requireRobust().medians : means;
+        }
+
+        // Per-event scale for the current scoring mode: stddev, or MAD scaled to match it
+        public double[] scales() throws IOException {
+            if (ScoringMode.current() != ScoringMode.ROBUST) {
+                return stdDevs;
+            }
+            requireRobust();
+            double[] scales = new double[mads.length];
+            for (int i = 0; i < scales.length; i++) {
+                scales[i] = ScoringKernel.robustScale(mads[i], p1s[i], p99s[i]);
+            }
+            return scales;
+        }
+
+        private Snapshot requireRobust() throws IOException {
+            if (!isRobust()) {
+                throw new IOException("The baseline has no median/MAD columns; rerun the analysis with robust scoring");
+            }
+            return this;
+        }
+    }
+
+    private final Path file;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final AtomicLong versions = new AtomicLong();
+    private volatile long lastCheck;
+
+    public BaselineCache(String filename) {
+        this.file = Paths.get(filename);
+    }
+
+    // Returns the current snapshot, reloading first if the file changed on disk;
+    // null when there is no baseline file
+    public Snapshot get() throws IOException {
+        Snapshot snapshot = current.get();
+        long now = System.currentTimeMillis();
+        if (snapshot != null && now - lastCheck < CHECK_INTERVAL_MS) {
+            return snapshot;
+        }
+        lastCheck = now;
+
+        if (!Files.exists(file)) {
+            current.set(null);
+            return null;
+        }
+        if (snapshot != null && snapshot.lastModified == Files.getLastModifiedTime(file).toMillis()
+                && snapshot.size == Files.size(file)) {
+            return snapshot;
+        }
+        return reload();
+    }
+
+    // Re-reads the file and publishes it as a new version (e.g. right after /analyze wrote it)
+    public synchronized Snapshot reload() throws IOException {
+        try {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long size = Files.size(file);
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+            int noOfEvents = Integer.parseInt(lines.get(0).trim());
+            String[] names = new String[noOfEvents];
+            double[] means = new double[noOfEvents];
+            double[] stdDevs = new double[noOfEvents];
+            double[][] robust = null;
+            StringBuilder json = new StringBuilder("[");
+
+            for (int i = 0; i < noOfEvents; i++) {
+                String[] parts = lines.get(i + 1).trim().split(":");
+                if (parts.length < 3) {
+                    throw new IOException("Malformed baseline line " + (i + 2) + " in " + file + ": " + lines.get(i + 1));
+                }
+                names[i] = parts[0];
+                means[i] = parseDouble(parts[1], i);
+                stdDevs[i] = parseDouble(parts[2], i);
+
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(String.format("{\"event\":\"%s\", \"mean\":%s, \"stddev\":%s",
+                        Json.escape(parts[0]), jsonValue(parts[1], means[i]), jsonValue(parts[2], stdDevs[i])));
+
+                // name:mean:stddev:median:mad:p1:p99 when the analysis ran with robust scoring
+                if (i == 0 && parts.length >= 7) {
+                    robust = new double[4][noOfEvents];
+                }
+                if (robust != null) {
+                    if (parts.length < 7) {
+                        throw new IOException("Missing robust columns for " + names[i] + " in " + file);
+                    }
+                    for (int column = 0; column < 4; column++) {
+                        robust[column][i] = parseDouble(parts[3 + column], i);
+                    }
+                    json.append(String.format(", \"median\":%s, \"mad\":%s, \"p1\":%s, \"p99\":%s",
+                            jsonValue(parts[3], robust[0][i]), jsonValue(parts[4], robust[1][i]),
+                            jsonValue(parts[5], robust[2][i]), jsonValue(parts[6], robust[3][i])));
+                }
+                json.append('}');
+            }
+
+            // The inverse covariance rows follow the events when the analysis learned it
+            double[] precision = null;
+            if (lines.size() > noOfEvents + 1 && lines.get(noOfEvents + 1).trim().equals(PRECISION_SECTION)) {
+                if (lines.size() < 2 * noOfEvents + 2) {
+                    throw new IOException("Incomplete inverse covariance in " + file);
+                }
+                precision = new double[noOfEvents * noOfEvents];
+                for (int i = 0; i < noOfEvents; i++) {
+                    String[] parts = lines.get(noOfEvents + 2 + i).trim().split(":");
+                    if (!parts[0].equals(names[i]) || parts.length != noOfEvents + 1) {
+                        throw new IOException("Malformed inverse covariance row for " + names[i] + " in " + file);
+                    }
+                    for (int j = 0; j < noOfEvents; j++) {
+                        precision[i * noOfEvents + j] = parseDouble(parts[j + 1], i);
+                    }
+                }
+            }
+            json.append(']');
+
+            Snapshot snapshot = new Snapshot(versions.incrementAndGet(), Collections.unmodifiableList(Arrays.asList(names)),
+                    means, stdDevs, robust, precision, json.toString().getBytes(StandardCharsets.UTF_8), lastModified, size);
+            current.set(snapshot);
+            lastCheck = System.currentTimeMillis();
+            return snapshot;
+        } catch (NoSuchFileException e) {
+            current.set(null);
+            return null;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // The previous snapshot stays current
+            throw new IOException("Malformed baseline in " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private double parseDouble(String text, int event) throws IOException {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number '" + text + "' for event " + (event + 1) + " in " + file);
+        }
+    }
+
+    // The number as written in the file, or null where JSON has no number
+    private static String jsonValue(String text, double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : text;
+    }
+}
@@ -0,0 +1,394 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compact columnar alternative to the text log format:
+//
+//   header  magic, version, event count, then (type, name) per event
+//   blocks  up to BLOCK_DAYS days each: day count, day numbers, then one column
+//           per event (int for D events, double for C events)
+//   footer  block index (lowest day, highest day, day count, offset), index offset, magic
+//
+// Appending writes new blocks and a new footer after the old footer, which stays in
+// place until the new one is complete. A log cut short mid-append is read through
+// its last complete footer, and the next append drops the partial tail.
+//
+// Blocks are read with positional NIO reads, so only the days asked for are touched.
+public class BinaryLog {
+
+    public static final String EXTENSION = ".idsb";
+
+    static final int MAGIC = 0x49445342; // "IDSB"
+    static final short VERSION = 1;
+    static final int BLOCK_DAYS = 1024;
+    private static final int TRAILER_SIZE = 8 + 4;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4 + 4 + 8;
+
+    // Checks the leading magic number rather than trusting the file extension
+    public static boolean isBinaryLog(String filename) {
+        Path path = Paths.get(filename);
+        if (!Files.isRegularFile(path)) {
+            return filename.endsWith(EXTENSION);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Reads every day of a binary log
+    public static void read(String filename, LogParser.Handler handler) throws IOException {
+        read(filename, Integer.MIN_VALUE, Integer.MAX_VALUE, handler);
+    }
+
+    // Reads the days numbered fromDay..toDay, skipping blocks via the footer index
+    public static void read(String filename, int fromDay, int toDay, LogParser.Handler handler) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+             FileChannel channel = file.getChannel()) {
+            Header header = readHeader(channel);
+            List<long[]> index = readIndex(channel);
+            handler.schema(header.names, header.types);
+
+            int noOfEvents = header.names.length;
+            ByteBuffer block = ByteBuffer.allocate(blockSize(header.types, BLOCK_DAYS));
+            int[] days = new int[BLOCK_DAYS];
+            double[] values = new double[noOfEvents * BLOCK_DAYS];
+            long startTime = System.nanoTime();
+            long bytesRead = 0;
+            long daysRead = 0;
+
+            for (long[] entry : index) {
+                int lowestDay = (int) entry[0];
+                int highestDay = (int) entry[1];
+                int dayCount = (int) entry[2];
+                long offset = entry[3];
+                if (lowestDay > toDay || highestDay < fromDay) {
+                    continue;
+                }
+
+                block.clear();
+                block.limit(blockSize(header.types, dayCount));
+                readFully(channel, block, offset);
+                bytesRead += block.position();
+                block.flip();
+
+                block.getInt(); // Day count, already known from the index
+                for (int d = 0; d < dayCount; d++) {
+                    days[d] = block.getInt();
+                }
+                for (int e = 0; e < noOfEvents; e++) {
+                    boolean discrete = header.types[e] == 'D';
+                    for (int d = 0; d < dayCount; d++) {
+                        values[d * noOfEvents + e] = discrete ? block.getInt() : block.getDouble();
+                    }
+                }
+
+                for (int d = 0; d < dayCount; d++) {
+                    if (days[d] < fromDay || days[d] > toDay) {
+                        continue;
+                    }
+                    handler.startDay(days[d], offset);
+                    for (int e = 0; e < noOfEvents; e++) {
+                        handler.value(e, values[d * noOfEvents + e]);
+                    }
+                    handler.endDay();
+                    daysRead++;
+                }
+            }
+
+            Metrics.PARSED_BYTES.add(bytesRead);
+            Metrics.PARSED_DAYS.add(daysRead);
+            Metrics.PARSE_SECONDS.record(System.nanoTime() - startTime);
+        }
+    }
+
+    static int blockSize(char[] types, int dayCount) {
+        int size = 4 + 4 * dayCount;
+        for (char type : types) {
+            size += (type == 'D' ? 4 : 8) * dayCount;
+        }
+        return size;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of binary log at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    static class Header {
+        String[] names;
+        char[] types;
+    }
+
+    static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(4 + 2 + 4);
+        readFully(channel, fixed, 0);
+        fixed.flip();
+        if (fixed.getInt() != MAGIC) {
+            throw new IOException("Not a binary IDS log");
+        }
+        short version = fixed.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary log version " + version);
+        }
+
+        Header header = new Header();
+        int noOfEvents = fixed.getInt();
+        header.names = new String[noOfEvents];
+        header.types = new char[noOfEvents];
+
+        long position = fixed.capacity();
+        ByteBuffer entry = ByteBuffer.allocate(1 + 2);
+        for (int i = 0; i < noOfEvents; i++) {
+            entry.clear();
+            readFully(channel, entry, position);
+            entry.flip();
+            header.types[i] = (char) entry.get();
+            ByteBuffer name = ByteBuffer.allocate(entry.getShort());
+            readFully(channel, name, position + entry.capacity());
+            header.names[i] = new String(name.array(), StandardCharsets.UTF_8);
+            position += entry.capacity() + name.capacity();
+        }
+        return header;
+    }
+
+    // Returns {lowestDay, highestDay, dayCount, offset} for every block
+    static List<long[]> readIndex(FileChannel channel) throws IOException {
+        return readIndex(channel, findTrailer(channel));
+    }
+
+    private static List<long[]> readIndex(FileChannel channel, long trailerOffset) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, trailerOffset);
+        long indexOffset = trailer.getLong(0);
+
+        ByteBuffer index = ByteBuffer.allocate((int) (trailerOffset - indexOffset));
+        readFully(channel, index, indexOffset);
+        index.flip();
+
+        int blocks = index.getInt();
+        List<long[]> entries = new ArrayList<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            entries.add(new long[] {index.getInt(), index.getInt(), index.getInt(), index.getLong()});
+        }
+        return entries;
+    }
+
+    // Offset of the last complete trailer. A cleanly closed log ends with one; a log
+    // cut short mid-append ends with part of the new blocks, and the footer the append
+    // started from is found by searching back for a trailer whose index ends at it.
+    static long findTrailer(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size >= TRAILER_SIZE && isTrailer(channel, size - TRAILER_SIZE)) {
+            return size - TRAILER_SIZE;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        long end = size;
+        while (end >= TRAILER_SIZE) {
+            long start = Math.max(0, end - chunk.capacity());
+            chunk.clear();
+            chunk.limit((int) (end - start));
+            readFully(channel, chunk, start);
+            for (int p = chunk.limit() - TRAILER_SIZE; p >= 0; p--) {
+                if (chunk.getInt(p + 8) == MAGIC && isTrailer(channel, start + p)) {
+                    long trailerOffset = start + p;
+                    if (trailerOffset + TRAILER_SIZE < size) {
+                        System.err.println("Binary log was not closed cleanly; ignoring "
+                                + (size - trailerOffset - TRAILER_SIZE) + " bytes after its last footer");
+                    }
+                    return trailerOffset;
+                }
+            }
+            // Chunks overlap by a trailer less one byte so none is split between two
+            end = start + TRAILER_SIZE - 1;
+            if (start == 0) {
+                break;
+            }
+        }
+        throw new IOException("Binary log has no footer; it was not closed cleanly");
+    }
+
+    // A trailer holds the magic and points at an index whose entry count fills the
+    // space up to the trailer exactly
+    private static boolean isTrailer(FileChannel channel, long at) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, at);
+        long indexOffset = trailer.getLong(0);
+        if (trailer.getInt(8) != MAGIC || indexOffset < 0 || indexOffset > at - 4
+                || (at - indexOffset - 4) % INDEX_ENTRY_SIZE != 0) {
+            return false;
+        }
+        ByteBuffer count = ByteBuffer.allocate(4);
+        readFully(channel, count, indexOffset);
+        return (long) count.getInt(0) * INDEX_ENTRY_SIZE == at - indexOffset - 4;
+    }
+
+    // Buffers days into fixed-width column blocks and writes the footer index on close
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final char[] types;
+        private final int noOfEvents;
+        private final List<long[]> index;
+        private final int[] days = new int[BLOCK_DAYS];
+        private final double[] values;
+        private final ByteBuffer block;
+        private int buffered;
+        private long position;
+
+        // Opens a binary log for writing. When appending to an existing log the schema
+        // must match; new blocks go after the old footer so it stays valid until close.
+        public static Writer open(String filename, String[] names, char[] types, boolean append) throws IOException {
+            Path path = Paths.get(filename);
+            if (append && Files.exists(path) && Files.size(path) > 0) {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    Header header = readHeader(channel);
+                    if (!Arrays.equals(header.names, names) || !Arrays.equals(header.types, types)) {
+                        throw new IOException("Event schema does not match existing binary log " + filename);
+                    }
+                    long trailerOffset = findTrailer(channel);
+                    List<long[]> index = readIndex(channel, trailerOffset);
+                    // Drops what an earlier append left behind after the footer it started from
+                    long end = trailerOffset + TRAILER_SIZE;
+                    if (channel.size() > end) {
+                        channel.truncate(end);
+                    }
+                    return new Writer(channel, types, index, end);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(headerSize(names));
+            header.putInt(MAGIC).putShort(VERSION).putInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                if (types[i] != 'D' && types[i] != 'C') {
+                    channel.close();
+                    throw new IllegalArgumentException("Invalid event type: " + types[i] + ". Must be 'D' or 'C'.");
+                }
+                byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+                header.put((byte) types[i]).putShort((short) name.length).put(name);
+            }
+            header.flip();
+            channel.write(header, 0);
+            return new Writer(channel, types, new ArrayList<>(), header.capacity());
+        }
+
+        private static int headerSize(String[] names) {
+            int size = 4 + 2 + 4;
+            for (String name : names) {
+                size += 1 + 2 + name.getBytes(StandardCharsets.UTF_8).length;
+            }
+            return size;
+        }
+
+        private Writer(FileChannel channel, char[] types, List<long[]> index, long position) {
+            this.channel = channel;
+            this.types = types.clone();
+            this.noOfEvents = types.length;
+            this.index = index;
+            this.position = position;
+            this.values = new double[noOfEvents * BLOCK_DAYS];
+            this.block = ByteBuffer.allocate(blockSize(types, BLOCK_DAYS));
+        }
+
+        // Appends one day; values are in schema order
+        public void writeDay(int day, double[] dayValues) throws IOException {
+            if (dayValues.length < noOfEvents) {
+                throw new IllegalArgumentException("Expected " + noOfEvents + " values for day " + day);
+            }
+            for (int e = 0; e < noOfEvents; e++) {
+                double value = dayValues[e];
+                if (types[e] == 'D' && (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)) {
+                    throw new IllegalArgumentException("Discrete value " + value + " on day " + day + " is not a whole number");
+                }
+                values[buffered * noOfEvents + e] = value;
+            }
+            days[buffered++] = day;
+
+            if (buffered == BLOCK_DAYS) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (buffered == 0) {
+                return;
+            }
+
+            block.clear();
+            block.putInt(buffered);
+            for (int d = 0; d < buffered; d++) {
+                block.putInt(days[d]);
+            }
+            for (int e = 0; e < noOfEvents; e++) {
+                boolean discrete = types[e] == 'D';
+                for (int d = 0; d < buffered; d++) {
+                    double value = values[d * noOfEvents + e];
+                    if (discrete) {
+                        block.putInt((int) value);
+                    } else {
+                        block.putDouble(value);
+                    }
+                }
+            }
+            block.flip();
+
+            int lowestDay = days[0];
+            int highestDay = days[0];
+            for (int d = 1; d < buffered; d++) {
+                lowestDay = Math.min(lowestDay, days[d]);
+                highestDay = Math.max(highestDay, days[d]);
+            }
+            index.add(new long[] {lowestDay, highestDay, buffered, position});
+            position += writeFully(block, position);
+            buffered = 0;
+        }
+
+        private int writeFully(ByteBuffer buffer, long at) throws IOException {
+            int written = 0;
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, at + written);
+            }
+            return written;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+
+                ByteBuffer footer = ByteBuffer.allocate(4 + index.size() * INDEX_ENTRY_SIZE + TRAILER_SIZE);
+                footer.putInt(index.size());
+                for (long[] entry : index) {
+                    footer.putInt((int) entry[0]).putInt((int) entry[1]).putInt((int) entry[2]).putLong(entry[3]);
+                }
+                footer.putLong(position).putInt(MAGIC);
+                footer.flip();
+                writeFully(footer, position);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+// Progress chatter from the engines. Runs with -Dids.quiet=true (or after
+// setQuiet(true)) skip it entirely, including the per-day lines of large runs.
+public class Console {
+
+    private static volatile boolean quiet = Boolean.getBoolean("ids.quiet");
+
+    public static boolean enabled() {
+        return !quiet;
+    }
+
+    public static void setQuiet(boolean quiet) {
+        Console.quiet = quiet;
+    }
+
+    public static void info(String message) {
+        if (!quiet) {
+            System.out.println(message);
+        }
+    }
+}
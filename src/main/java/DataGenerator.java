@@ -0,0 +1,306 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Reproducible, parallel data generation. Every event, and every fixed-size range of
+// days within an event, draws from its own SplittableRandom split off a single seed
+// in a fixed order, and partial sums are always combined in chunk order. The output
+// for a given seed is therefore identical whatever the number of threads.
+//
+// With a correlation matrix the events of a day are drawn together instead: each chunk
+// of days gets one random stream, independent standard normals are mixed through the
+// Cholesky factor of the matrix a column at a time, and each event's normal is mapped
+// through its own truncated normal (a Gaussian copula). The per-event correction then
+// runs as before, so bounds, rounding and the Stats file moments are kept and the
+// correlations come out close to (slightly under, after clamping and rounding) the
+// matrix.
+public class DataGenerator {
+
+    // Days per chunk; fixed so the random streams do not depend on the thread count
+    static final int CHUNK_DAYS = 1 << 14;
+
+    // Correction rounds before an event settles for its closest attempt
+    private static final int MAX_CORRECTION_ROUNDS = 16;
+
+    private final long seed;
+    private final int parallelism;
+
+    public DataGenerator(long seed, int parallelism) {
+        this.seed = seed;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    // Generates one column of days values per event. Event types are 'D' (whole numbers)
+    // or 'C' (two decimals); samples stay within [minimums[e], maximums[e]].
+    public double[][] generate(int days, double[] means, double[] stdDevs, double[] minimums, double[] maximums, char[] types) {
+        int noOfEvents = means.length;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] eventRandoms = new SplittableRandom[noOfEvents];
+        for (int e = 0; e < noOfEvents; e++) {
+            eventRandoms[e] = root.split();
+        }
+
+        double[][] columns = new double[noOfEvents][];
+        if (parallelism == 1) {
+            for (int e = 0; e < noOfEvents; e++) {
+                columns[e] = generateEvent(means[e], stdDevs[e], days, minimums[e], maximums[e], types[e],
+                        eventRandoms[e], new GenerationReport(), false);
+            }
+            return columns;
+        }
+
+        inPool(() -> IntStream.range(0, noOfEvents).parallel().forEach(e ->
+                columns[e] = generateEvent(means[e], stdDevs[e], days, minimums[e], maximums[e], types[e],
+                        eventRandoms[e], new GenerationReport(), true)));
+        return columns;
+    }
+
+    // As above, but with the events of each day correlated as in correlations (a
+    // correlation matrix, row and column per event); null draws them independently
+    public double[][] generate(int days, double[] means, double[] stdDevs, double[] minimums, double[] maximums, char[] types,
+                               double[][] correlations) {
+        if (correlations == null) {
+            return generate(days, means, stdDevs, minimums, maximums, types);
+        }
+        int noOfEvents = means.length;
+        double[][] factor = cholesky(correlations);
+
+        SplittableRandom root = new SplittableRandom(seed);
+        int chunks = (days + CHUNK_DAYS - 1) / CHUNK_DAYS;
+        SplittableRandom[] chunkRandoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            chunkRandoms[c] = root.split();
+        }
+        TruncatedNormal[] distributions = new TruncatedNormal[noOfEvents];
+        double[][] columns = new double[noOfEvents][days];
+        for (int e = 0; e < noOfEvents; e++) {
+            distributions[e] = new TruncatedNormal(means[e], stdDevs[e], minimums[e], maximums[e]);
+        }
+
+        boolean parallel = parallelism > 1;
+        Runnable generation = () -> {
+            chunks(chunks, parallel).forEach(c ->
+                    drawCorrelated(columns, factor, distributions, c * CHUNK_DAYS, Math.min(days, (c + 1) * CHUNK_DAYS),
+                            chunkRandoms[c]));
+            IntStream events = IntStream.range(0, noOfEvents);
+            (parallel ? events.parallel() : events).forEach(e ->
+                    correct(columns[e], means[e], stdDevs[e], minimums[e], maximums[e], types[e], new GenerationReport(), parallel));
+        };
+        if (parallel) {
+            inPool(generation);
+        } else {
+            generation.run();
+        }
+        return columns;
+    }
+
+    // Fills days from..to of every column with correlated draws from the events' truncated normals
+    private static void drawCorrelated(double[][] columns, double[][] factor, TruncatedNormal[] distributions,
+                                       int from, int to, SplittableRandom random) {
+        int noOfEvents = columns.length;
+        for (int e = 0; e < noOfEvents; e++) {
+            double[] column = columns[e];
+            for (int i = from; i < to; i++) {
+                // Strictly inside (0, 1), so the quantile is always finite
+                column[i] = TruncatedNormal.inverseCdf(((random.nextLong() >>> 11) + 0.5) * 0x1.0p-53);
+            }
+        }
+
+        // Row e of the factor only reaches columns 0..e, so mixing from the last event
+        // down can overwrite each column in place
+        double[] mixed = new double[to - from];
+        for (int e = noOfEvents - 1; e >= 0; e--) {
+            double[] row = factor[e];
+            double[] column = columns[e];
+            for (int i = from; i < to; i++) {
+                mixed[i - from] = row[e] * column[i];
+            }
+            for (int k = 0; k < e; k++) {
+                double weight = row[k];
+                if (weight == 0.0) {
+                    continue;
+                }
+                double[] source = columns[k];
+                for (int i = from; i < to; i++) {
+                    mixed[i - from] += weight * source[i];
+                }
+            }
+            TruncatedNormal distribution = distributions[e];
+            for (int i = from; i < to; i++) {
+                column[i] = distribution.fromStandardNormal(mixed[i - from]);
+            }
+        }
+    }
+
+    // Lower triangular L with L * L^T = correlations
+    static double[][] cholesky(double[][] correlations) {
+        return Matrices.cholesky(correlations, "Correlation matrix");
+    }
+
+    // Runs work in a pool of this generator's size, so parallel streams inside it use that many threads
+    private void inPool(Runnable work) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(work).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Data generation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Data generation failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Generates one event: draw once from a normal truncated to the bounds, then apply an
+    // affine correction (clamped and rounded like the event type requires) until the sample
+    // statistics are within tolerance, at most MAX_CORRECTION_ROUNDS times
+    static double[] generateEvent(double mean, double standardDeviation, int days, double minimum, double maximum,
+                                  char type, SplittableRandom random, GenerationReport report, boolean parallel) {
+        int chunks = (days + CHUNK_DAYS - 1) / CHUNK_DAYS;
+        SplittableRandom[] chunkRandoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            chunkRandoms[c] = random.split();
+        }
+
+        TruncatedNormal distribution = new TruncatedNormal(mean, standardDeviation, minimum, maximum);
+        double[] values = new double[days];
+        chunks(chunks, parallel).forEach(c -> {
+            for (int i = c * CHUNK_DAYS, end = Math.min(days, i + CHUNK_DAYS); i < end; i++) {
+                values[i] = distribution.fromUniform(chunkRandoms[c].nextDouble());
+            }
+        });
+        return correct(values, mean, standardDeviation, minimum, maximum, type, report, parallel);
+    }
+
+    // Turns drawn values into the event's samples in place and returns them: standardise
+    // to zero mean and unit standard deviation, then correct as described above
+    private static double[] correct(double[] values, double mean, double standardDeviation, double minimum, double maximum,
+                                    char type, GenerationReport report, boolean parallel) {
+        int days = values.length;
+        int chunks = (days + CHUNK_DAYS - 1) / CHUNK_DAYS;
+        double[] partials = new double[chunks];
+        chunks(chunks, parallel).forEach(c -> {
+            double sum = 0.0;
+            for (int i = c * CHUNK_DAYS, end = Math.min(days, i + CHUNK_DAYS); i < end; i++) {
+                sum += values[i];
+            }
+            partials[c] = sum;
+        });
+        double drawnMean = total(partials) / days;
+        chunks(chunks, parallel).forEach(c -> {
+            double sum = 0.0;
+            for (int i = c * CHUNK_DAYS, end = Math.min(days, i + CHUNK_DAYS); i < end; i++) {
+                sum += (values[i] - drawnMean) * (values[i] - drawnMean);
+            }
+            partials[c] = sum;
+        });
+        double drawnStdev = Math.sqrt(total(partials) / days);
+        chunks(chunks, parallel).forEach(c -> {
+            for (int i = c * CHUNK_DAYS, end = Math.min(days, i + CHUNK_DAYS); i < end; i++) {
+                values[i] = drawnStdev > 0 ? (values[i] - drawnMean) / drawnStdev : 0.0;
+            }
+        });
+
+        double shift = mean;
+        double scale = standardDeviation;
+        double bestError = Double.POSITIVE_INFINITY;
+
+        report.converged = false;
+        for (report.rounds = 1; report.rounds <= MAX_CORRECTION_ROUNDS; report.rounds++) {
+            double roundShift = shift;
+            double roundScale = scale;
+            chunks(chunks, parallel).forEach(c -> {
+                double sum = 0.0;
+                for (int i = c * CHUNK_DAYS, end = Math.min(days, i + CHUNK_DAYS); i < end; i++) {
+                    sum += sample(values[i], roundShift, roundScale, minimum, maximum, type);
+                }
+                partials[c] = sum;
+            });
+            double sampleMean = total(partials) / days;
+            chunks(chunks, parallel).forEach(c -> {
+                double sum = 0.0;
+                for (int i = c * CHUNK_DAYS, end = Math.min(days, i + CHUNK_DAYS); i < end; i++) {
+                    double deviation = sample(values[i], roundShift, roundScale, minimum, maximum, type) - sampleMean;
+                    sum += deviation * deviation;
+                }
+                partials[c] = sum;
+            });
+            double sampleStdev = Math.sqrt(total(partials) / days);
+
+            double error = Math.abs(sampleMean - mean) / Math.max(Math.abs(mean), 1e-9)
+                    + Math.abs(sampleStdev - standardDeviation) / Math.max(standardDeviation, 1e-9);
+            boolean valid = withinTolerance(sampleMean, sampleStdev, mean, standardDeviation, days);
+            if (valid || error < bestError) {
+                bestError = error;
+                report.shift = shift;
+                report.scale = scale;
+            }
+            if (valid) {
+                report.converged = true;
+                break;
+            }
+
+            // Move the affine parameters by however far clamping and rounding pulled the result
+            shift += mean - sampleMean;
+            if (sampleStdev > 0) {
+                scale *= standardDeviation / sampleStdev;
+            }
+        }
+        report.rounds = Math.min(report.rounds, MAX_CORRECTION_ROUNDS);
+
+        // Materialise the chosen correction in place
+        double finalShift = report.shift;
+        double finalScale = report.scale;
+        chunks(chunks, parallel).forEach(c -> {
+            for (int i = c * CHUNK_DAYS, end = Math.min(days, i + CHUNK_DAYS); i < end; i++) {
+                values[i] = sample(values[i], finalShift, finalScale, minimum, maximum, type);
+            }
+        });
+
+        Metrics.GENERATED_EVENTS.increment();
+        Metrics.GENERATION_CORRECTION_ROUNDS.add(report.rounds);
+        if (!report.converged) {
+            Metrics.GENERATION_UNCONVERGED.increment();
+        }
+        return values;
+    }
+
+    private static double sample(double standardised, double shift, double scale, double minimum, double maximum, char type) {
+        double sample = Math.min(maximum, Math.max(minimum, shift + standardised * scale));
+
+        if (type == 'D') { // Discrete event
+            return Math.round(sample);
+        } else if (type == 'C') { // Continuous event
+            return Math.round(sample * 100.0) / 100.0;
+        }
+        return sample;
+    }
+
+    // Same acceptance rule ActivityEngine has always applied to generated samples
+    static boolean withinTolerance(double sampleMean, double sampleStdev, double mean, double standardDeviation, int days) {
+        double tolerance = days >= 10 ? 0.05 : 0.1;
+
+        return sampleMean >= mean * (1 - tolerance) && sampleMean <= mean * (1 + tolerance)
+                && sampleStdev >= standardDeviation * (1 - tolerance) && sampleStdev <= standardDeviation * (1 + tolerance);
+    }
+
+    private static IntStream chunks(int chunks, boolean parallel) {
+        IntStream range = IntStream.range(0, chunks);
+        return parallel ? range.parallel() : range;
+    }
+
+    // Sums partial results in chunk order so the total never depends on scheduling
+    private static double total(double[] partials) {
+        double sum = 0.0;
+        for (double partial : partials) {
+            sum += partial;
+        }
+        return sum;
+    }
+}
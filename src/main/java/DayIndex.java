@@ -0,0 +1,476 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Sparse index over a text log, kept next to it as <log>.idx. Records are grouped in
+// file order into blocks of BLOCK_DAYS; each block knows its byte range, its lowest
+// and highest day number and, per event, the count, min, max and sum of its values.
+// A range of days is then read by seeking to the blocks that can hold it, and
+// window aggregates come straight from the summaries of the blocks wholly inside the
+// window, with only the two edge blocks parsed.
+//
+// The index is written while ActivityEngine simulates into a log, and otherwise built
+// (or extended over the appended tail) the first time the log is read through it.
+// Like IncrementalAnalysis it checksums the bytes before the indexed end, so a log
+// that was replaced is reindexed from scratch. Binary logs already carry a block
+// index of their own and are read through BinaryLog.
+public class DayIndex {
+
+    static final int BLOCK_DAYS = 1024;
+
+    private static final int MAGIC = 0x49445358; // "IDSX"
+    private static final short VERSION = 1;
+
+    // Indexes already loaded, so repeated queries do not re-read the sidecar
+    private static final Map<String, DayIndex> open = new ConcurrentHashMap<>();
+
+    private final String logFile;
+    private final String[] eventNames;
+    private final List<Block> blocks;
+    private final long indexedLength;
+    private final long fingerprint;
+
+    // One run of consecutive records and the summary of their values
+    static final class Block {
+        final long start;
+        long end;
+        int lowestDay = Integer.MAX_VALUE;
+        int highestDay = Integer.MIN_VALUE;
+        int days;
+        final long[] counts;
+        final double[] minimums;
+        final double[] maximums;
+        final double[] sums;
+
+        Block(long start, int noOfEvents) {
+            this.start = start;
+            this.end = start;
+            this.counts = new long[noOfEvents];
+            this.minimums = new double[noOfEvents];
+            this.maximums = new double[noOfEvents];
+            this.sums = new double[noOfEvents];
+            Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+            Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+        }
+
+        void startDay(int day) {
+            lowestDay = Math.min(lowestDay, day);
+            highestDay = Math.max(highestDay, day);
+            days++;
+        }
+
+        void value(int event, double value) {
+            counts[event]++;
+            sums[event] += value;
+            if (value < minimums[event]) {
+                minimums[event] = value;
+            }
+            if (value > maximums[event]) {
+                maximums[event] = value;
+            }
+        }
+    }
+
+    // Per-event count, min, max and sum over a window of days
+    public static final class Summary {
+        public final String[] eventNames;
+        public final long[] counts;
+        public final double[] minimums;
+        public final double[] maximums;
+        public final double[] sums;
+        public long days;
+
+        Summary(String[] eventNames) {
+            int noOfEvents = eventNames.length;
+            this.eventNames = eventNames;
+            this.counts = new long[noOfEvents];
+            this.minimums = new double[noOfEvents];
+            this.maximums = new double[noOfEvents];
+            this.sums = new double[noOfEvents];
+            Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+            Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+        }
+
+        public double getMean(int event) {
+            return counts[event] == 0 ? Double.NaN : sums[event] / counts[event];
+        }
+
+        void add(Block block) {
+            days += block.days;
+            for (int e = 0; e < counts.length; e++) {
+                counts[e] += block.counts[e];
+                sums[e] += block.sums[e];
+                minimums[e] = Math.min(minimums[e], block.minimums[e]);
+                maximums[e] = Math.max(maximums[e], block.maximums[e]);
+            }
+        }
+
+        void add(int event, double value) {
+            counts[event]++;
+            sums[event] += value;
+            minimums[event] = Math.min(minimums[event], value);
+            maximums[event] = Math.max(maximums[event], value);
+        }
+    }
+
+    private DayIndex(String logFile, String[] eventNames, List<Block> blocks, long indexedLength, long fingerprint) {
+        this.logFile = logFile;
+        this.eventNames = eventNames;
+        this.blocks = blocks;
+        this.indexedLength = indexedLength;
+        this.fingerprint = fingerprint;
+    }
+
+    public static String indexFile(String logFile) {
+        return logFile + ".idx";
+    }
+
+    // Reads the days numbered from..to (inclusive) in file order
+    public static void readDays(String logFile, int from, int to, LogParser.Handler handler) throws IOException {
+        if (BinaryLog.isBinaryLog(logFile)) {
+            BinaryLog.read(logFile, from, to, handler);
+            return;
+        }
+        open(logFile).read(from, to, handler);
+    }
+
+    // Count, min, max and sum of every event over the days numbered from..to
+    public static Summary summarize(String logFile, int from, int to) throws IOException {
+        if (BinaryLog.isBinaryLog(logFile)) {
+            Summary[] summary = new Summary[1];
+            BinaryLog.read(logFile, from, to, new SummaryHandler(summary));
+            return summary[0];
+        }
+        return open(logFile).summarize(from, to);
+    }
+
+    // The index for logFile, brought up to date with whatever was appended since it was built
+    public static DayIndex open(String logFile) throws IOException {
+        String key = new File(logFile).getAbsolutePath();
+        DayIndex index = open.get(key);
+        if (index == null || !index.matches()) {
+            synchronized (DayIndex.class) {
+                index = open.get(key);
+                if (index == null) {
+                    index = load(logFile);
+                }
+                if (index == null || !index.matches()) {
+                    index = build(logFile, index);
+                }
+                open.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    public List<String> getEventNames() {
+        return Arrays.asList(eventNames);
+    }
+
+    // Whether the index still describes the whole log
+    private boolean matches() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+             FileChannel channel = file.getChannel()) {
+            return channel.size() == indexedLength && fingerprintMatches(channel);
+        }
+    }
+
+    private boolean fingerprintMatches(FileChannel channel) throws IOException {
+        return channel.size() >= indexedLength && IncrementalAnalysis.fingerprint(channel, indexedLength) == fingerprint;
+    }
+
+    void read(int from, int to, LogParser.Handler handler) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+             FileChannel channel = file.getChannel()) {
+            LogParser.Handler filter = new RangeFilter(from, to, handler);
+            for (Block block : blocks) {
+                if (block.highestDay >= from && block.lowestDay <= to) {
+                    LogParser.parse(channel, block.start, block.end, true, filter);
+                }
+            }
+        }
+    }
+
+    Summary summarize(int from, int to) throws IOException {
+        Summary[] summary = {new Summary(eventNames)};
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+             FileChannel channel = file.getChannel()) {
+            LogParser.Handler edge = new RangeFilter(from, to, new SummaryHandler(summary));
+            for (Block block : blocks) {
+                if (block.highestDay < from || block.lowestDay > to) {
+                    continue;
+                }
+                if (block.lowestDay >= from && block.highestDay <= to) {
+                    summary[0].add(block);
+                } else {
+                    LogParser.parse(channel, block.start, block.end, true, edge);
+                }
+            }
+        }
+        return summary[0];
+    }
+
+    // Indexes the log, keeping the complete blocks of a previous index whose bytes are unchanged
+    private static DayIndex build(String logFile, DayIndex previous) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+             FileChannel channel = file.getChannel()) {
+            List<Block> blocks = new ArrayList<>();
+            String[] eventNames = null;
+            long start = 0;
+            if (previous != null && previous.fingerprintMatches(channel)) {
+                eventNames = previous.eventNames;
+                blocks.addAll(previous.blocks);
+                start = previous.indexedLength;
+                // The last block may be partly filled; it is rebuilt along with the tail
+                if (!blocks.isEmpty() && blocks.get(blocks.size() - 1).days < BLOCK_DAYS) {
+                    start = blocks.remove(blocks.size() - 1).start;
+                }
+            }
+
+            Builder builder = new Builder(logFile, eventNames, blocks);
+            long end = LogParser.parse(channel, start, channel.size(), false, builder);
+            return builder.finish(channel, end);
+        }
+    }
+
+    // Collects blocks from records as they are parsed or written
+    static final class Builder implements LogParser.Handler {
+        private final String logFile;
+        private final List<Block> blocks;
+        private String[] eventNames;
+        private Block current;
+
+        Builder(String logFile, String[] eventNames, List<Block> blocks) {
+            this.logFile = logFile;
+            this.eventNames = eventNames;
+            this.blocks = blocks;
+        }
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            if (this.eventNames == null) {
+                this.eventNames = eventNames;
+            }
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            if (current == null || current.days == BLOCK_DAYS) {
+                closeBlock(offset);
+                current = new Block(offset, eventNames.length);
+                blocks.add(current);
+            }
+            current.startDay(day);
+        }
+
+        @Override
+        public void value(int event, double value) {
+            if (event < current.counts.length) {
+                current.value(event, value);
+            }
+        }
+
+        private void closeBlock(long offset) {
+            if (current != null) {
+                current.end = offset;
+            }
+        }
+
+        // Ends the last block at end and hands the blocks over, for LogSegments to archive
+        List<Block> close(long end) {
+            closeBlock(end);
+            return blocks;
+        }
+
+        // Ends the last block at end (the offset after the last complete record) and saves the index
+        DayIndex finish(FileChannel channel, long end) throws IOException {
+            closeBlock(end);
+            DayIndex index = new DayIndex(logFile, eventNames == null ? new String[0] : eventNames, blocks, end,
+                    IncrementalAnalysis.fingerprint(channel, end));
+            if (eventNames != null) {
+                index.save();
+            }
+            return index;
+        }
+    }
+
+    // Starts an index alongside a log that is about to be appended to, or returns null if the existing part of the log is not indexed (it is
+    // then indexed on first read instead)
+    static Builder writer(String logFile, List<String> eventNames) throws IOException {
+        File file = new File(logFile);
+        if (!file.exists() || file.length() == 0) {
+            return new Builder(logFile, eventNames.toArray(new String[0]), new ArrayList<>());
+        }
+        DayIndex existing = load(logFile);
+        if (existing == null || !existing.matches() || !existing.getEventNames().equals(eventNames)) {
+            return null;
+        }
+        Builder builder = new Builder(logFile, existing.eventNames, new ArrayList<>(existing.blocks));
+        if (!builder.blocks.isEmpty()) {
+            // Keep filling the last block if it has room
+            builder.current = builder.blocks.get(builder.blocks.size() - 1);
+        }
+        return builder;
+    }
+
+    // Saves the index once the log it describes is complete on disk
+    static void finishWriting(Builder builder) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(builder.logFile, "r");
+             FileChannel channel = file.getChannel()) {
+            DayIndex index = builder.finish(channel, channel.size());
+            open.put(new File(builder.logFile).getAbsolutePath(), index);
+        }
+    }
+
+    private void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + blocks.size() * (28 + 32 * eventNames.length));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(indexedLength);
+            out.writeLong(fingerprint);
+            out.writeInt(eventNames.length);
+            for (String name : eventNames) {
+                out.writeUTF(name);
+            }
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.writeLong(block.start);
+                out.writeLong(block.end);
+                out.writeInt(block.lowestDay);
+                out.writeInt(block.highestDay);
+                out.writeInt(block.days);
+                for (int e = 0; e < eventNames.length; e++) {
+                    out.writeLong(block.counts[e]);
+                    out.writeDouble(block.minimums[e]);
+                    out.writeDouble(block.maximums[e]);
+                    out.writeDouble(block.sums[e]);
+                }
+            }
+        }
+        AnalysisEngine.writeAtomically(indexFile(logFile), bytes.toByteArray());
+    }
+
+    // The saved index, or null if there is none or it cannot be read
+    private static DayIndex load(String logFile) {
+        File file = new File(indexFile(logFile));
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                return null;
+            }
+            long indexedLength = in.readLong();
+            long fingerprint = in.readLong();
+            String[] eventNames = new String[in.readInt()];
+            for (int e = 0; e < eventNames.length; e++) {
+                eventNames[e] = in.readUTF();
+            }
+            int noOfBlocks = in.readInt();
+            List<Block> blocks = new ArrayList<>(noOfBlocks);
+            for (int b = 0; b < noOfBlocks; b++) {
+                Block block = new Block(in.readLong(), eventNames.length);
+                block.end = in.readLong();
+                block.lowestDay = in.readInt();
+                block.highestDay = in.readInt();
+                block.days = in.readInt();
+                for (int e = 0; e < eventNames.length; e++) {
+                    block.counts[e] = in.readLong();
+                    block.minimums[e] = in.readDouble();
+                    block.maximums[e] = in.readDouble();
+                    block.sums[e] = in.readDouble();
+                }
+                blocks.add(block);
+            }
+            return new DayIndex(logFile, eventNames, blocks, indexedLength, fingerprint);
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Passes on only the records whose day number is within from..to
+    static final class RangeFilter implements LogParser.Handler {
+        private final int from;
+        private final int to;
+        private final LogParser.Handler handler;
+        private boolean schemaSent;
+        private boolean inRange;
+
+        RangeFilter(int from, int to, LogParser.Handler handler) {
+            this.from = from;
+            this.to = to;
+            this.handler = handler;
+        }
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            if (!schemaSent) {
+                schemaSent = true;
+                handler.schema(eventNames, eventTypes);
+            }
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            inRange = day >= from && day <= to;
+            if (inRange) {
+                handler.startDay(day, offset);
+            }
+        }
+
+        @Override
+        public void value(int event, double value) {
+            if (inRange) {
+                handler.value(event, value);
+            }
+        }
+
+        @Override
+        public void endDay() {
+            if (inRange) {
+                handler.endDay();
+            }
+        }
+    }
+
+    // Folds every value it is handed into summary[0], created from the schema
+    private static final class SummaryHandler implements LogParser.Handler {
+        private final Summary[] summary;
+
+        SummaryHandler(Summary[] summary) {
+            this.summary = summary;
+        }
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            if (summary[0] == null) {
+                summary[0] = new Summary(eventNames);
+            }
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            summary[0].days++;
+        }
+
+        @Override
+        public void value(int event, double value) {
+            if (event < summary[0].counts.length) {
+                summary[0].add(event, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The events described by an Events file (and, once compiled with one, a Stats file),
+// parsed once into primitive arrays so no engine has to split or parse those lines
+// again. Defaults follow what IDS has always applied: an empty minimum is 0, an empty
+// maximum is unbounded, an empty or missing weight is 1, an empty mean is 0 and an
+// empty standard deviation is 1.
+//
+// A Stats file may have a correlation (or covariance) matrix next to it, named after it
+// with .correlations.txt in place of .txt; DataGenerator then draws the events of a
+// day together instead of independently. Its lines follow the Stats file layout:
+//
+//   3
+//   Logins:1:0.6:0.4:
+//   Time online:0.6:1:0.5:
+//   Emails sent:0.4:0.5:1:
+public final class EventSchema {
+
+    private final String[] names;
+    private final boolean[] discrete;
+    private final double[] minimums;
+    private final double[] maximums;
+    private final int[] weights;
+    private final double[] means;
+    private final double[] stdDevs;
+    private final double[][] correlations;
+    private final Map<String, Integer> index;
+
+    private EventSchema(String[] names, boolean[] discrete, double[] minimums, double[] maximums, int[] weights,
+                        double[] means, double[] stdDevs, double[][] correlations, Map<String, Integer> index) {
+        this.names = names;
+        this.discrete = discrete;
+        this.minimums = minimums;
+        this.maximums = maximums;
+        this.weights = weights;
+        this.means = means;
+        this.stdDevs = stdDevs;
+        this.correlations = correlations;
+        this.index = index;
+    }
+
+    public static EventSchema fromEventsFile(String filename) throws IOException {
+        return parseEvents(readLines(filename));
+    }
+
+    // Also picks up the correlations file next to statsFile, if there is one
+    public static EventSchema fromFiles(String eventsFile, String statsFile) throws IOException {
+        EventSchema schema = compile(readLines(eventsFile), readLines(statsFile));
+        String correlationsFile = correlationsFile(statsFile);
+        return new File(correlationsFile).exists() ? schema.withCorrelations(readLines(correlationsFile)) : schema;
+    }
+
+    // Where the correlations for a Stats file are kept: Stats.txt -> Stats.correlations.txt
+    public static String correlationsFile(String statsFile) {
+        int dot = statsFile.lastIndexOf('.');
+        boolean hasExtension = dot > Math.max(statsFile.lastIndexOf('/'), statsFile.lastIndexOf(File.separatorChar));
+        return (hasExtension ? statsFile.substring(0, dot) : statsFile) + ".correlations.txt";
+    }
+
+    // Parses Events file lines; the schema has no statistics until withStats is called
+    public static EventSchema parseEvents(List<String> eventData) {
+        int noOfEvents = Integer.parseInt(eventData.get(0).trim());
+        String[] names = new String[noOfEvents];
+        boolean[] discrete = new boolean[noOfEvents];
+        double[] minimums = new double[noOfEvents];
+        double[] maximums = new double[noOfEvents];
+        int[] weights = new int[noOfEvents];
+        Map<String, Integer> index = new HashMap<>();
+
+        for (int i = 0; i < noOfEvents; i++) {
+            String[] eventDetails = eventData.get(i + 1).trim().split(":");
+            String eventType = field(eventDetails, 1);
+            if (!eventType.equals("D") && !eventType.equals("C")) {
+                throw new IllegalArgumentException("Invalid event type: " + eventType + ". Must be 'D' or 'C'.");
+            }
+
+            names[i] = eventDetails[0];
+            discrete[i] = eventType.equals("D");
+            minimums[i] = field(eventDetails, 2).isEmpty() ? 0 : Double.parseDouble(eventDetails[2]);
+            maximums[i] = field(eventDetails, 3).isEmpty()
+                    ? (discrete[i] ? Integer.MAX_VALUE : Double.MAX_VALUE)
+                    : Double.parseDouble(eventDetails[3]);
+            weights[i] = field(eventDetails, 4).isEmpty() ? 1 : Integer.parseInt(eventDetails[4]);
+            index.put(names[i], i);
+        }
+        return new EventSchema(names, discrete, minimums, maximums, weights, null, null, null, index);
+    }
+
+    // Parses Events and Stats file lines together, checking that they describe the same
+    // events in the same order (the check IDS.main runs before anything else)
+    public static EventSchema compile(List<String> eventData, List<String> statsData) {
+        return parseEvents(eventData).withStats(statsData);
+    }
+
+    // The same events with the means and standard deviations of another Stats file (and
+    // the same correlations, if any)
+    public EventSchema withStats(List<String> statsData) {
+        int noOfStats = Integer.parseInt(statsData.get(0).trim());
+        if (noOfStats != names.length) {
+            throw new IllegalArgumentException("Mismatch in the number of events and stats.");
+        }
+
+        double[] newMeans = new double[names.length];
+        double[] newStdDevs = new double[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String[] statDetails = statsData.get(i + 1).trim().split(":");
+            if (!statDetails[0].equals(names[i])) {
+                throw new IllegalArgumentException("Mismatch in event and stat names at line " + (i + 2));
+            }
+            newMeans[i] = field(statDetails, 1).isEmpty() ? 0.0 : Double.parseDouble(statDetails[1]);
+            newStdDevs[i] = field(statDetails, 2).isEmpty() ? 1.0 : Double.parseDouble(statDetails[2]);
+        }
+        return new EventSchema(names, discrete, minimums, maximums, weights, newMeans, newStdDevs, correlations, index);
+    }
+
+    // The same events drawn with the correlations of a correlations file. A matrix whose
+    // diagonal is not all ones is taken as a covariance matrix and scaled to correlations.
+    public EventSchema withCorrelations(List<String> correlationData) {
+        int noOfRows = Integer.parseInt(correlationData.get(0).trim());
+        if (noOfRows != names.length) {
+            throw new IllegalArgumentException("Mismatch in the number of events and correlation rows.");
+        }
+
+        double[][] matrix = new double[names.length][names.length];
+        for (int i = 0; i < names.length; i++) {
+            String[] rowDetails = correlationData.get(i + 1).trim().split(":");
+            if (!rowDetails[0].equals(names[i])) {
+                throw new IllegalArgumentException("Mismatch in event and correlation names at line " + (i + 2));
+            }
+            if (rowDetails.length != names.length + 1) {
+                throw new IllegalArgumentException("Expected " + names.length + " values for " + names[i] + " at line " + (i + 2));
+            }
+            for (int j = 0; j < names.length; j++) {
+                matrix[i][j] = Double.parseDouble(rowDetails[j + 1]);
+            }
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            if (!(matrix[i][i] > 0)) {
+                throw new IllegalArgumentException("The diagonal entry for " + names[i] + " must be positive");
+            }
+        }
+        double[][] scaled = new double[names.length][names.length];
+        for (int i = 0; i < names.length; i++) {
+            for (int j = 0; j < names.length; j++) {
+                if (Math.abs(matrix[i][j] - matrix[j][i]) > 1e-9 * Math.max(1.0, Math.abs(matrix[i][j]))) {
+                    throw new IllegalArgumentException("Correlations of " + names[i] + " and " + names[j] + " are not symmetric");
+                }
+                scaled[i][j] = i == j ? 1.0 : matrix[i][j] / Math.sqrt(matrix[i][i] * matrix[j][j]);
+                if (Math.abs(scaled[i][j]) > 1.0 + 1e-9) {
+                    throw new IllegalArgumentException("Correlation of " + names[i] + " and " + names[j] + " is outside -1..1");
+                }
+            }
+        }
+        // Fails here, rather than at the first simulation, if no draws can have these correlations
+        DataGenerator.cholesky(scaled);
+        return new EventSchema(names, discrete, minimums, maximums, weights, means, stdDevs, scaled, index);
+    }
+
+    private static List<String> readLines(String filename) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    private static String field(String[] fields, int i) {
+        return i < fields.length ? fields[i] : "";
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int event) {
+        return names[event];
+    }
+
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    // Position of the named event, or -1 if there is no such event
+    public int indexOf(String name) {
+        Integer event = index.get(name);
+        return event == null ? -1 : event;
+    }
+
+    public boolean isDiscrete(int event) {
+        return discrete[event];
+    }
+
+    public char getType(int event) {
+        return discrete[event] ? 'D' : 'C';
+    }
+
+    public double getMinimum(int event) {
+        return minimums[event];
+    }
+
+    public double getMaximum(int event) {
+        return maximums[event];
+    }
+
+    public int getWeight(int event) {
+        return weights[event];
+    }
+
+    public List<Integer> getWeights() {
+        List<Integer> list = new ArrayList<>(weights.length);
+        for (int weight : weights) {
+            list.add(weight);
+        }
+        return list;
+    }
+
+    public boolean hasStats() {
+        return means != null;
+    }
+
+    public boolean hasCorrelations() {
+        return correlations != null;
+    }
+
+    public double getMean(int event) {
+        return stats()[event];
+    }
+
+    public double getStdDev(int event) {
+        stats();
+        return stdDevs[event];
+    }
+
+    // Copies of the per-event columns, in the shape DataGenerator and ScoringKernel take
+
+    public double[] weightArray() {
+        double[] copy = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            copy[i] = weights[i];
+        }
+        return copy;
+    }
+
+    public double[] minimumArray() {
+        return minimums.clone();
+    }
+
+    public double[] maximumArray() {
+        return maximums.clone();
+    }
+
+    public double[] meanArray() {
+        return stats().clone();
+    }
+
+    public double[] stdDevArray() {
+        stats();
+        return stdDevs.clone();
+    }
+
+    // Correlations between events, or null if they are drawn independently
+    public double[][] correlationMatrix() {
+        if (correlations == null) {
+            return null;
+        }
+        double[][] copy = new double[correlations.length][];
+        for (int i = 0; i < correlations.length; i++) {
+            copy[i] = correlations[i].clone();
+        }
+        return copy;
+    }
+
+    public char[] typeArray() {
+        char[] types = new char[names.length];
+        for (int i = 0; i < names.length; i++) {
+            types[i] = getType(i);
+        }
+        return types;
+    }
+
+    private double[] stats() {
+        if (means == null) {
+            throw new IllegalStateException("No Stats file has been compiled into this schema");
+        }
+        return means;
+    }
+
+    // Checks one day of values (starting at offset) against the types and bounds,
+    // throwing IllegalArgumentException naming the first offending event
+    public void validate(double[] values, int offset) {
+        for (int i = 0; i < names.length; i++) {
+            double value = values[offset + i];
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException(names[i] + " must be a finite number");
+            }
+            if (discrete[i] && value != Math.rint(value)) {
+                throw new IllegalArgumentException(names[i] + " must be a whole number");
+            }
+            if (value < minimums[i] || value > maximums[i]) {
+                throw new IllegalArgumentException(names[i] + " must be between " + minimums[i] + " and " + maximums[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+// Describes how much correction ActivityEngine.generateData needed to hit the
+// requested mean and standard deviation
+public class GenerationReport {
+
+    // Correction rounds applied (1 when the first affine correction was enough)
+    public int rounds;
+
+    // Final affine correction: samples were standardised, scaled by scale and shifted to shift
+    public double shift;
+    public double scale;
+
+    // Whether the result is within validateSamples' tolerance; when the bounds make the
+    // target unreachable, the closest attempt is returned instead of retrying forever
+    public boolean converged;
+
+    @Override
+    public String toString() {
+        return String.format("%d correction round(s), shift %.4f, scale %.4f%s",
+                rounds, shift, scale, converged ? "" : " (did not converge)");
+    }
+}
@@ -6,16 +6,26 @@ import java.util.concurrent.TimeUnit;
 public class IDS {
 
     public static void main(String[] args) {
+        // IDS --daemon ... runs headless instead of prompting (see IDSDaemon)
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            IDSDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         try {
             String eventFile;
             String statsFile;
             int days;
+            long seed = new Random().nextLong();
 
-            // Check for command-line arguments
-            if (args.length == 3) {
+            // Check for command-line arguments (an optional fourth argument seeds the simulation)
+            if (args.length == 3 || args.length == 4) {
                 eventFile = args[0];
                 statsFile = args[1];
                 days = validateDays(args[2]);
+                if (args.length == 4) {
+                    seed = Long.parseLong(args[3]);
+                }
             } else {
                 Scanner scanner = new Scanner(System.in);
 
@@ -27,15 +37,20 @@ public class IDS {
                 days = getDaysInput(scanner, "Enter the number of Days: ");
             }
 
-            // Read event and stats files
+            // Read event and stats files; both are parsed once here and shared by every engine
             List<String> eventData = readFile(eventFile);
             List<String> statsData = readFile(statsFile);
+            EventSchema events = EventSchema.parseEvents(eventData);
 
             // Consistency check
             System.out.println("--------------------------------------------------------------------");
             System.out.println("Checking for inconsistencies between " + eventFile + " and " + statsFile + "...");
             System.out.println("--------------------------------------------------------------------");
-            if (!consistencyCheck(eventData, statsData)) {
+            EventSchema schema = consistencyCheck(events, statsData);
+            if (schema != null) {
+                schema = withCorrelations(schema, statsFile);
+            }
+            if (schema == null) {
                 System.err.println("Inconsistencies detected. Exiting.");
                 System.exit(1);
             }
@@ -46,23 +61,30 @@ public class IDS {
             System.out.println("------------------------");
             System.out.println("Processing " + eventFile + "...");
             System.out.println("------------------------");
-            List<Integer> weights = processEvents(eventData);
+            List<Integer> weights = processEvents(schema);
 
             // Process Stats
-            processStats(statsData);
+            processStats(schema);
 
             // Activity Simulation and Logs
-            System.out.println("Simulating activity...");
-            ArrayList<ArrayList<Double>> dataSet = generateValidatedDataSet(days, eventData, statsData);
-            ActivityEngine.simulateActivity("logs.txt", days, new ArrayList<>(eventData), dataSet);
+            System.out.println("Simulating activity (seed " + seed + ")...");
+            double[][] dataSet = generateValidatedDataSet(days, schema, seed);
+            ActivityEngine.simulateActivity("logs.txt", null, days, schema, dataSet);
+            // Past the ids.segment.* limits, the days so far move into a compressed segment
+            try {
+                LogSegments.rollOverIfDue("logs.txt", LogSegments.Policy.fromProperties());
+            } catch (IOException e) {
+                System.err.println("Error rolling over logs.txt: " + e.getMessage());
+            }
             System.out.println("\nActivity simulation completed.\n");
             TimeUnit.SECONDS.sleep(1);
 
             // Analysis Engine
             System.out.println("Starting analysis...");
-            Map<String, List<Double>> logData = AnalysisEngine.readLogs("logs.txt");
-            List<Double> means = AnalysisEngine.calculateMean(logData);
-            List<Double> stddevs = AnalysisEngine.calculateStddev(AnalysisEngine.calculateVariance(logData, means));
+            // logs.txt grows with every run; only the newly simulated days are parsed
+            RunningStats logStats = IncrementalAnalysis.update("logs.txt", 0, null);
+            // Scores by mean, median or Mahalanobis distance as the scoring mode asks
+            ScoringKernel kernel = AnalysisEngine.kernel(logStats, weights);
 
             // Write baseline statistics to baseline.txt
             writeBaselineStatistics(statsData);
@@ -80,8 +102,14 @@ public class IDS {
                 int newDays = getDaysInput(scanner, "Enter the number of Days: ");
 
                 // Read new stats and simulate new activity
-                List<String> newStatsData = readFile(newStatsFile);
-                ArrayList<ArrayList<Double>> newDataSet = generateValidatedDataSet(newDays, eventData, newStatsData);
+                EventSchema newSchema = consistencyCheck(schema, readFile(newStatsFile));
+                if (newSchema != null) {
+                    newSchema = withCorrelations(newSchema, newStatsFile);
+                }
+                if (newSchema == null) {
+                    continue;
+                }
+                double[][] newDataSet = generateValidatedDataSet(newDays, newSchema, seed + logCount);
 
                 // Generate dynamic log file name based on the current date and log count
                 String timestamp = new java.text.SimpleDateFormat("ddMMyyyy").format(new java.util.Date());
@@ -89,25 +117,25 @@ public class IDS {
                 logCount++; // Increment log count after generating the file name
 
                 // Create or overwrite the new log file
-                try (PrintWriter writer = new PrintWriter(newLogsFile)) {
-                    // Clears the file content if it exists
+                try {
+                    LogWriter.truncate(newLogsFile);
                 } catch (IOException e) {
                     System.err.println("Error creating log file: " + newLogsFile + ". Error: " + e.getMessage());
                     break; // Exit loop if log file creation fails
                 }
 
                 // Simulate activity and write logs
-                ActivityEngine.simulateActivity(newLogsFile, newDays, new ArrayList<>(eventData), newDataSet);
+                ActivityEngine.simulateActivity(newLogsFile, null, newDays, newSchema, newDataSet);
 
                 // Read and parse new logs
                 List<List<Double>> parsedNewLogs = AlertEngine.readNewLogs(newLogsFile);
 
                 // Calculate threshold and anomaly counter
                 int threshold = AlertEngine.calculateThreshold(weights);
-                List<Double> dailyAnomalies = AlertEngine.calculateAnomalyCounter(parsedNewLogs, weights, means, stddevs);
+                List<Double> dailyAnomalies = AlertEngine.calculateAnomalyCounter(parsedNewLogs, kernel);
 
                 // Flag anomalies
-                AlertEngine.flagAnomalies(dailyAnomalies, threshold);
+                AlertEngine.flagAnomalies(dailyAnomalies, threshold, parsedNewLogs, kernel, logStats.getEventNames());
 
                 // Notify the user of the log file location
                 System.out.println("New logs written to: " + newLogsFile);
@@ -185,103 +213,50 @@ public class IDS {
         return lines;
     }
 
-    private static boolean consistencyCheck(List<String> eventData, List<String> statsData) {
-        int noOfEvents = Integer.parseInt(eventData.get(0));
-        int noOfStats = Integer.parseInt(statsData.get(0));
-
-        if (noOfEvents != noOfStats) {
-            System.err.println("Mismatch in the number of events and stats.");
-            return false;
-        }
-
-        for (int i = 1; i <= noOfEvents; i++) {
-            String eventName = eventData.get(i).split(":")[0];
-            String statName = statsData.get(i).split(":")[0];
-            if (!eventName.equals(statName)) {
-                System.err.println("Mismatch in event and stat names at line " + (i + 1));
-                return false;
-            }
+    // Attaches the stats to the parsed events, or reports why they do not line up and returns null
+    private static EventSchema consistencyCheck(EventSchema events, List<String> statsData) {
+        try {
+            return events.withStats(statsData);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return null;
         }
-
-        return true;
     }
 
-    private static List<Integer> processEvents(List<String> data) {
-        int noOfEvents = Integer.parseInt(data.get(0));
-        List<Integer> weights = new ArrayList<>();
-
-        for (int i = 1; i <= noOfEvents; i++) {
-            String[] eventDetails = data.get(i).split(":");
-            String eventName = eventDetails[0];
-            String eventType = eventDetails[1];
-
-            String minStr = eventDetails[2].isEmpty() ? "0" : eventDetails[2];
-            String maxStr = eventDetails[3].isEmpty()
-                ? (eventType.equals("D") ? String.valueOf(Integer.MAX_VALUE) : String.valueOf(Double.MAX_VALUE))
-                : eventDetails[3];
-
-            int weight = eventDetails[4].isEmpty() ? 1 : Integer.parseInt(eventDetails[4]);
-
-            double min = Double.parseDouble(minStr);
-            double max = Double.parseDouble(maxStr);
-
-            if (!eventType.equals("D") && !eventType.equals("C")) {
-                throw new IllegalArgumentException("Invalid event type: " + eventType + ". Must be 'D' or 'C'.");
-            }
-
-            System.out.printf("Event: %s, Type: %s, Min: %s, Max: %s, Weight: %d%n", eventName, eventType, min, max, weight);
-            weights.add(weight);
+    // Draws the events together if statsFile has a correlations file next to it; null if that file is invalid
+    private static EventSchema withCorrelations(EventSchema schema, String statsFile) {
+        String correlationsFile = EventSchema.correlationsFile(statsFile);
+        if (!new File(correlationsFile).exists()) {
+            return schema;
+        }
+        try {
+            EventSchema correlated = schema.withCorrelations(readFile(correlationsFile));
+            System.out.println("Using correlations between events from " + correlationsFile);
+            return correlated;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error in " + correlationsFile + ": " + e.getMessage());
+            return null;
         }
-
-        return weights;
     }
 
-    private static void processStats(List<String> data) {
-        int noOfEvents = Integer.parseInt(data.get(0));
-
-        for (int i = 1; i <= noOfEvents; i++) {
-            String[] statDetails = data.get(i).split(":");
-            System.out.printf("Event: %s, Mean: %s, StdDev: %s%n", statDetails[0], statDetails[1], statDetails[2]);
+    private static List<Integer> processEvents(EventSchema schema) {
+        for (int i = 0; i < schema.size(); i++) {
+            System.out.printf("Event: %s, Type: %s, Min: %s, Max: %s, Weight: %d%n", schema.getName(i), schema.getType(i),
+                    schema.getMinimum(i), schema.getMaximum(i), schema.getWeight(i));
         }
+        return schema.getWeights();
     }
 
-    private static ArrayList<ArrayList<Double>> generateValidatedDataSet(int days, List<String> eventData, List<String> statsData) {
-        ArrayList<ArrayList<Double>> dataSet = new ArrayList<>();
-        int noOfEvents = Integer.parseInt(eventData.get(0));
-
-        for (int i = 1; i <= noOfEvents; i++) {
-            String[] eventDetails = eventData.get(i).split(":");
-            String[] statDetails = statsData.get(i).split(":");
-
-            double mean = statDetails[1].isEmpty() ? 0.0
-                : Double.parseDouble(statDetails[1]);
-            double stdDev = statDetails[2].isEmpty() ? 1.0 : Double.parseDouble(statDetails[2]);
-            String eventType = eventDetails[1];
-
-            double min = eventDetails[2].isEmpty() ? 0.0 : Double.parseDouble(eventDetails[2]);
-            double max = eventDetails[3].isEmpty()
-                ? (eventType.equals("D") ? Integer.MAX_VALUE : Double.MAX_VALUE)
-                : Double.parseDouble(eventDetails[3]);
-
-            ArrayList<Double> eventDataForDays = new ArrayList<>();
-            Random random = new Random();
-
-            for (int day = 0; day < days; day++) {
-                double value;
-                do {
-                    value = mean + random.nextGaussian() * stdDev;
-                    if (eventType.equals("D")) {
-                        value = Math.round(value);
-                    }
-                } while (value < min || value > max);
-
-                eventDataForDays.add(value);
-            }
-
-            dataSet.add(eventDataForDays);
+    private static void processStats(EventSchema schema) {
+        for (int i = 0; i < schema.size(); i++) {
+            System.out.printf("Event: %s, Mean: %s, StdDev: %s%n", schema.getName(i), schema.getMean(i), schema.getStdDev(i));
         }
+    }
 
-        return dataSet;
+    private static double[][] generateValidatedDataSet(int days, EventSchema schema, long seed) {
+        return new DataGenerator(seed, Runtime.getRuntime().availableProcessors())
+                .generate(days, schema.meanArray(), schema.stdDevArray(), schema.minimumArray(), schema.maximumArray(),
+                        schema.typeArray(), schema.correlationMatrix());
     }
 
     private static void writeBaselineStatistics(List<String> statsData) {
@@ -0,0 +1,400 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless IDS: watches a directory and scores every Stats or log file that lands in
+// it, with no prompts and no pauses, writing one JSON line per file. A Stats file is
+// simulated like the IDS alert loop does (into the logs directory) and the simulated
+// days are scored (with the correlations in its .correlations.txt, if that was dropped
+// in first); a text or binary log is scored as it is. Scores are taken against
+// the baseline file, which is re-read whenever it changes.
+//
+// Settings come from a properties file (--config) and/or flags of the same name:
+//   watch        directory to watch (required)
+//   events       Events file (default Events.txt)
+//   baseline     baseline statistics (default BaselineStats.txt)
+//   output       results file, appended to (default: standard output)
+//   logs         where simulated logs are written (default simulated)
+//   concurrency  files processed at once (default: available processors)
+//   interval     milliseconds between directory scans (default 1000)
+//   days         days simulated per Stats file (default 30)
+//   seed         base seed for the simulations (default: random)
+//   scoring      mean, robust or mahalanobis (default: -Dids.scoring, else mean; see ScoringMode)
+//   once         process the files already there, then exit (default false)
+public class IDSDaemon {
+
+    private static final String[] KEYS = {
+        "watch", "events", "baseline", "output", "logs", "concurrency", "interval", "days", "seed", "scoring", "once"
+    };
+
+    private final Path watchDir;
+    private final Path logsDir;
+    private final EventSchema schema;
+    private final BaselineCache baselineCache;
+    private final PrintWriter output;
+    private final int days;
+    private final long seed;
+    private final int threshold;
+    private final ScheduledThreadPoolExecutor executor;
+
+    // Size and modification time of each file at the previous scan, and when it was processed
+    private final Map<Path, String> seen = new ConcurrentHashMap<>();
+    private final Map<Path, String> processed = new ConcurrentHashMap<>();
+    private final Set<Path> running = ConcurrentHashMap.newKeySet();
+    private final AtomicLong runs = new AtomicLong();
+
+    // Only touched while holding the lock on this
+    private ScoringKernel kernel;
+    private long kernelVersion = -1;
+
+    IDSDaemon(Properties config) throws IOException {
+        if (config.getProperty("watch") == null) {
+            throw new IllegalArgumentException("No directory to watch (set watch)");
+        }
+        this.watchDir = Paths.get(config.getProperty("watch"));
+        if (!Files.isDirectory(watchDir)) {
+            throw new IOException("Not a directory: " + watchDir);
+        }
+        this.logsDir = Paths.get(config.getProperty("logs", "simulated"));
+        this.schema = EventSchema.fromEventsFile(config.getProperty("events", "Events.txt"));
+        this.baselineCache = new BaselineCache(config.getProperty("baseline", "BaselineStats.txt"));
+        this.days = Integer.parseInt(config.getProperty("days", "30"));
+        this.seed = config.getProperty("seed") == null ? System.nanoTime() : Long.parseLong(config.getProperty("seed"));
+        this.threshold = AlertEngine.calculateThreshold(schema.getWeights());
+
+        String outputFile = config.getProperty("output");
+        this.output = outputFile == null
+                ? new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile, true), StandardCharsets.UTF_8));
+
+        int concurrency = Integer.parseInt(config.getProperty("concurrency",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        if (days <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("days and concurrency must be greater than 0");
+        }
+        this.executor = new ScheduledThreadPoolExecutor(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "ids-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) {
+        Properties config;
+        try {
+            config = parseArgs(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: IDSDaemon [--config <properties file>] [--watch <dir>] [--events <file>]"
+                    + " [--baseline <file>] [--output <file>] [--logs <dir>] [--concurrency N] [--interval MS]"
+                    + " [--days N] [--seed S] [--scoring mean|robust|mahalanobis] [--once]");
+            System.exit(1);
+            return;
+        }
+
+        // The results are the output; the engines' progress messages would only interleave with them
+        Console.setQuiet(true);
+        try {
+            if (config.getProperty("scoring") != null) {
+                ScoringMode.setCurrent(ScoringMode.parse(config.getProperty("scoring")));
+            }
+            IDSDaemon daemon = new IDSDaemon(config);
+            if (Boolean.parseBoolean(config.getProperty("once", "false"))) {
+                daemon.runOnce();
+            } else {
+                daemon.run(Long.parseLong(config.getProperty("interval", "1000")));
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Flags override the properties file, which may be given anywhere on the command line
+    static Properties parseArgs(String[] args) throws IOException {
+        Properties config = new Properties();
+        Properties flags = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i].startsWith("--") ? args[i].substring(2) : null;
+            if ("once".equals(name)) {
+                flags.setProperty("once", "true");
+            } else if ("config".equals(name) && i + 1 < args.length) {
+                try (InputStream in = new FileInputStream(args[++i])) {
+                    config.load(in);
+                }
+            } else if (name != null && isKey(name) && i + 1 < args.length) {
+                flags.setProperty(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unrecognised argument: " + args[i]);
+            }
+        }
+        config.putAll(flags);
+        return config;
+    }
+
+    private static boolean isKey(String name) {
+        for (String key : KEYS) {
+            if (key.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Scans the directory every interval until the process is stopped. A file is only
+    // picked up once its size and modification time have held still for a whole
+    // interval, so files that are still being copied in are left alone.
+    void run(long intervalMillis) throws InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            output.flush();
+        }));
+
+        executor.scheduleWithFixedDelay(() -> scan(true), 0, intervalMillis, TimeUnit.MILLISECONDS);
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    // Processes the files that are in the directory now, then returns
+    void runOnce() throws InterruptedException {
+        scan(false);
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        output.flush();
+    }
+
+    private synchronized void scan(boolean waitForQuiet) {
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(watchDir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                // Sidecars (state, day indexes, write checkpoints, a Stats file's correlations) are read with their file
+                if (name.startsWith(".") || name.endsWith(".tmp") || name.endsWith(".state") || name.endsWith(".idx")
+                        || name.endsWith(LogWriter.CHECKPOINT_EXTENSION) || name.endsWith(".correlations.txt")) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+
+                present.add(file);
+                String key = attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+                String previous = seen.put(file, key);
+                if (key.equals(processed.get(file)) || running.contains(file)
+                        || (waitForQuiet && !key.equals(previous))) {
+                    continue;
+                }
+                running.add(file);
+                executor.execute(() -> {
+                    try {
+                        output(process(file));
+                    } finally {
+                        processed.put(file, key);
+                        running.remove(file);
+                    }
+                });
+            }
+            // Forget files that have gone, so a directory that churns through names does not grow these
+            seen.keySet().retainAll(present);
+            processed.keySet().retainAll(present);
+        } catch (IOException e) {
+            System.err.println("Error scanning " + watchDir + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task it would cancel every later scan
+            System.err.println("Error scanning " + watchDir + ": " + e);
+        }
+    }
+
+    private String process(Path file) {
+        long startTime = System.nanoTime();
+        try {
+            ScoringKernel current = currentKernel();
+            Scored scored = isStatsFile(file) ? simulate(file) : readLog(file);
+            double[] scores = current.score(scored.matrix, scored.days.length);
+            return resultJson(file, scored, scores, System.nanoTime() - startTime);
+        } catch (RuntimeException | IOException e) {
+            return String.format("{\"file\":\"%s\", \"error\":\"%s\"}",
+                    Json.escape(file.toString()), Json.escape(String.valueOf(e.getMessage())));
+        }
+    }
+
+    // Day numbers and a days x events matrix ready for the kernel
+    private static final class Scored {
+        final String kind;
+        final int[] days;
+        final double[] matrix;
+        final String logFile;
+
+        Scored(String kind, int[] days, double[] matrix, String logFile) {
+            this.kind = kind;
+            this.days = days;
+            this.matrix = matrix;
+            this.logFile = logFile;
+        }
+    }
+
+    // Stats files start with the event count; logs start with a Day header, or the
+    // frame line LogWriter puts before it (or are binary)
+    private static boolean isStatsFile(Path file) throws IOException {
+        if (BinaryLog.isBinaryLog(file.toString())) {
+            return false;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(file.toFile()))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    return !line.startsWith("Day");
+                }
+            }
+        }
+        return false;
+    }
+
+    // Simulates the configured number of days for a Stats file, like the IDS alert loop
+    private Scored simulate(Path statsFile) throws IOException {
+        List<String> statsData = new ArrayList<>();
+        for (String line : Files.readAllLines(statsFile, StandardCharsets.UTF_8)) {
+            statsData.add(line.trim());
+        }
+        EventSchema newSchema = schema.withStats(statsData);
+        Path correlationsFile = Paths.get(EventSchema.correlationsFile(statsFile.toString()));
+        if (Files.exists(correlationsFile)) {
+            newSchema = newSchema.withCorrelations(Files.readAllLines(correlationsFile, StandardCharsets.UTF_8));
+        }
+
+        // Each file already has a thread of its own, so generation runs single-threaded
+        double[][] columns = ActivityEngine.generateColumns(days, newSchema, seed + runs.incrementAndGet(), 1);
+
+        Files.createDirectories(logsDir);
+        String name = statsFile.getFileName().toString();
+        Path logFile = logsDir.resolve((name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name) + ".log.txt");
+        Files.deleteIfExists(logFile);
+        ActivityEngine.simulateActivity(logFile.toString(), null, days, newSchema, columns);
+
+        int noOfEvents = schema.size();
+        int[] dayNumbers = new int[days];
+        double[] matrix = new double[days * noOfEvents];
+        for (int i = 0; i < days; i++) {
+            dayNumbers[i] = i + 1;
+            for (int j = 0; j < noOfEvents; j++) {
+                matrix[i * noOfEvents + j] = columns[j][i];
+            }
+        }
+        return new Scored("stats", dayNumbers, matrix, logFile.toString());
+    }
+
+    private Scored readLog(Path logFile) throws IOException {
+        LogReader reader = new LogReader(schema.size());
+        LogParser.parse(logFile.toString(), reader);
+        return new Scored("log", Arrays.copyOf(reader.dayNumbers, reader.count),
+                Arrays.copyOf(reader.matrix, reader.count * schema.size()), null);
+    }
+
+    // Collects every record of a log into a growing days x events matrix
+    private static final class LogReader implements LogParser.Handler {
+        private final int noOfEvents;
+        int[] dayNumbers = new int[1024];
+        double[] matrix;
+        int count;
+
+        LogReader(int noOfEvents) {
+            this.noOfEvents = noOfEvents;
+            this.matrix = new double[dayNumbers.length * noOfEvents];
+        }
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            if (eventNames.length != noOfEvents) {
+                throw new IllegalArgumentException("Log has " + eventNames.length + " events but "
+                        + noOfEvents + " are configured");
+            }
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            if (count == dayNumbers.length) {
+                dayNumbers = Arrays.copyOf(dayNumbers, count * 2);
+                matrix = Arrays.copyOf(matrix, count * 2 * noOfEvents);
+            }
+            dayNumbers[count++] = day;
+        }
+
+        @Override
+        public void value(int event, double value) {
+            if (event < noOfEvents) {
+                matrix[(count - 1) * noOfEvents + event] = value;
+            }
+        }
+    }
+
+    // The kernel for the latest baseline, rebuilt only when the baseline file changes
+    private synchronized ScoringKernel currentKernel() throws IOException {
+        BaselineCache.Snapshot snapshot = baselineCache.get();
+        if (snapshot == null) {
+            throw new IOException("No baseline statistics to score against");
+        }
+        if (!snapshot.eventNames.equals(schema.getNames())) {
+            throw new IllegalArgumentException("The baseline events do not match the Events file");
+        }
+        if (snapshot.version != kernelVersion) {
+            kernel = snapshot.kernel(schema.weightArray());
+            kernelVersion = snapshot.version;
+        }
+        return kernel;
+    }
+
+    private String resultJson(Path file, Scored scored, double[] scores, long nanos) {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format("{\"file\":\"%s\", \"kind\":\"%s\", ", Json.escape(file.toString()), scored.kind));
+        if (scored.logFile != null) {
+            json.append(String.format("\"log\":\"%s\", ", Json.escape(scored.logFile)));
+        }
+        json.append(String.format("\"days\":%d, \"threshold\":%d, \"millis\":%d, \"scores\":[",
+                scored.days.length, threshold, TimeUnit.NANOSECONDS.toMillis(nanos)));
+
+        StringBuilder flagged = new StringBuilder();
+        for (int i = 0; i < scores.length; i++) {
+            json.append(i > 0 ? "," : "").append(Json.number(scores[i]));
+            if (scores[i] >= threshold) {
+                flagged.append(flagged.length() > 0 ? "," : "")
+                        .append(String.format("{\"day\":%d, \"score\":%s}", scored.days[i], Json.number(scores[i])));
+            }
+        }
+        return json.append("], \"flagged\":[").append(flagged).append("]}").toString();
+    }
+
+    private synchronized void output(String line) {
+        output.println(line);
+        output.flush();
+    }
+}
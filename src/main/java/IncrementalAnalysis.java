@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+// Keeps a log's running statistics in a sidecar state file together with the byte
+// offset they cover, so a later analysis only parses what was appended since and
+// merges it in. The state is discarded (and the log read in full) when the log has
+// shrunk or the bytes just before that offset are no longer the ones consumed.
+// Days rolled over into LogSegments are not part of the state; their statistics are
+// merged in from the segments on every update, decayed by the days that followed them
+// when a half-life is set.
+//
+// State file format (<log file>.state):
+//
+//   <bytes consumed>
+//   <CRC32 of the last bytes consumed>
+//   <number of events>
+//   name:weight:mean:m2
+//   ...
+public class IncrementalAnalysis {
+
+    // How many bytes before the consumed offset are checksummed to detect a replaced log
+    private static final int FINGERPRINT_BYTES = 4096;
+
+    public static String stateFile(String logFile) {
+        return logFile + ".state";
+    }
+
+    // Brings the statistics for logFile up to date, reading only the bytes appended
+    // since the last call. With halfLifeDays > 0 the existing statistics are decayed by
+    // 0.5^(new days / halfLifeDays) before the new days are merged, so the baseline
+    // follows slow drift; 0 keeps every day at full weight (identical to streamLogs).
+    // A half-life where it cannot be applied (see checkHalfLife) is rejected.
+    public static RunningStats update(String logFile, double halfLifeDays, AnalysisProgress progress) throws IOException {
+        checkHalfLife(logFile, halfLifeDays);
+        if (BinaryLog.isBinaryLog(logFile)) {
+            // Binary logs are cheap to re-read and have no stable text offsets
+            return AnalysisEngine.streamLogs(logFile, 1, progress);
+        }
+        if (ScoringMode.current() != ScoringMode.MEAN) {
+            // The saved state only holds Welford sums; sketches and co-moments need the whole log
+            return AnalysisEngine.streamLogs(logFile, 1, progress);
+        }
+
+        String stateFile = stateFile(logFile);
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            State state = load(stateFile);
+            if (state != null && (state.offset > size || state.fingerprint != fingerprint(channel, state.offset))) {
+                state = null; // The log was truncated or replaced since the state was saved
+            }
+
+            long start = state == null ? 0 : state.offset;
+            if (progress != null) {
+                progress.setTotalBytes(size - start);
+            }
+
+            // Only a read from the very beginning skips the header record, like streamLogs,
+            // and not once the header record has been rolled over into a segment
+            RunningStats archived = LogSegments.archivedStats(logFile, halfLifeDays);
+            AnalysisEngine.StatsCollector collector = new AnalysisEngine.StatsCollector(start == 0 && archived == null,
+                    progress, start);
+            long end = LogParser.parse(channel, start, size, false, collector);
+            collector.finish(end);
+
+            RunningStats stats = state == null ? null : state.stats;
+            RunningStats tail = collector.stats;
+            if (tail != null && stats != null && !tail.getEventNames().equals(stats.getEventNames())) {
+                throw new IOException("Events in " + logFile + " no longer match " + stateFile + "; delete it to start over");
+            }
+            if (stats == null) {
+                stats = tail;
+            } else if (tail != null) {
+                if (halfLifeDays > 0) {
+                    stats.decay(Math.pow(0.5, tail.getCount(0) / halfLifeDays));
+                }
+                stats.merge(tail);
+            }
+
+            if (stats == null) {
+                if (archived != null) {
+                    return archived;
+                }
+                throw new IOException("No Day records found in " + logFile);
+            }
+            save(stateFile, new State(end, fingerprint(channel, end), stats));
+            if (archived != null && halfLifeDays > 0) {
+                // The saved statistics are decayed, so the active log's days are counted from its index
+                long activeDays = DayIndex.summarize(logFile, Integer.MIN_VALUE, Integer.MAX_VALUE).days;
+                archived.decay(Math.pow(0.5, activeDays / halfLifeDays));
+            }
+            return AnalysisEngine.mergeArchived(archived, stats, logFile);
+        }
+    }
+
+    // Throws IllegalArgumentException unless halfLifeDays is 0 or a half-life update can
+    // decay logFile: only the saved Welford sums of a text log under mean scoring carry
+    // weights from one update to the next, so binary logs and the robust and
+    // Mahalanobis modes (which re-read the whole log) would come back undecayed
+    public static void checkHalfLife(String logFile, double halfLifeDays) {
+        if (!(halfLifeDays >= 0) || Double.isInfinite(halfLifeDays)) {
+            throw new IllegalArgumentException("halfLife must be a positive number of days (or 0 for none)");
+        }
+        if (halfLifeDays == 0) {
+            return;
+        }
+        if (ScoringMode.current() != ScoringMode.MEAN) {
+            throw new IllegalArgumentException("halfLife is only supported with mean scoring, not "
+                    + ScoringMode.current().name().toLowerCase(Locale.ROOT));
+        }
+        if (BinaryLog.isBinaryLog(logFile)) {
+            throw new IllegalArgumentException("halfLife is not supported for binary logs");
+        }
+    }
+
+    private static final class State {
+        final long offset;
+        final long fingerprint;
+        final RunningStats stats;
+
+        State(long offset, long fingerprint, RunningStats stats) {
+            this.offset = offset;
+            this.fingerprint = fingerprint;
+            this.stats = stats;
+        }
+    }
+
+    static long fingerprint(FileChannel channel, long offset) throws IOException {
+        int length = (int) Math.min(FINGERPRINT_BYTES, offset);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset - length + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return crc.getValue();
+    }
+
+    private static State load(String stateFile) throws IOException {
+        if (!new File(stateFile).exists()) {
+            return null;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(stateFile), StandardCharsets.UTF_8);
+            long offset = Long.parseLong(lines.get(0).trim());
+            long fingerprint = Long.parseLong(lines.get(1).trim());
+            int noOfEvents = Integer.parseInt(lines.get(2).trim());
+
+            List<String> names = new ArrayList<>();
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < noOfEvents; i++) {
+                String[] parts = lines.get(i + 3).trim().split(":");
+                names.add(parts[0]);
+                rows.add(parts);
+            }
+
+            RunningStats stats = new RunningStats(names);
+            for (int i = 0; i < noOfEvents; i++) {
+                String[] parts = rows.get(i);
+                stats.set(i, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+            }
+            return new State(offset, fingerprint, stats);
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring unreadable " + stateFile + ": " + e);
+            return null;
+        }
+    }
+
+    private static void save(String stateFile, State state) throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append(state.offset).append('\n').append(state.fingerprint).append('\n').append(state.stats.size());
+        for (int i = 0; i < state.stats.size(); i++) {
+            // Double.toString round-trips exactly, so nothing is lost between runs
+            content.append('\n').append(state.stats.getEventName(i)).append(':').append(state.stats.getWeight(i))
+                    .append(':').append(state.stats.getMean(i)).append(':').append(state.stats.getM2(i));
+        }
+        AnalysisEngine.writeAtomically(stateFile, content.toString());
+    }
+}
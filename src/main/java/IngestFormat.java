@@ -0,0 +1,261 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Decodes POST /ingest bodies into a batch of day records, validated against the
+// event schema. Two encodings are accepted:
+//
+//   NDJSON, one record per line, values either in schema order or by event name:
+//     {"day": 12, "values": [4, 150.5, 12, 11, 9]}
+//     {"day": 13, "values": {"Logins": 4, "Time online": 150.5, ...}}
+//
+//   Binary (application/octet-stream), big-endian:
+//     int record count, int event count, then per record an int day and one double per event
+//
+// Any invalid record rejects the whole batch with an IllegalArgumentException.
+public class IngestFormat {
+
+    public static IngestQueue.Batch parseBinary(byte[] body, EventSchema schema) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        try {
+            int records = buffer.getInt();
+            int noOfEvents = buffer.getInt();
+            if (noOfEvents != schema.size()) {
+                throw new IllegalArgumentException("Expected " + schema.size() + " events per record but got " + noOfEvents);
+            }
+            if (records < 0 || (long) records * (4 + 8L * noOfEvents) != buffer.remaining()) {
+                throw new IllegalArgumentException("Body length does not match " + records + " records");
+            }
+
+            IngestQueue.Batch batch = new IngestQueue.Batch(records, noOfEvents);
+            for (int r = 0; r < records; r++) {
+                int day = buffer.getInt();
+                for (int e = 0; e < noOfEvents; e++) {
+                    batch.values[r * noOfEvents + e] = buffer.getDouble();
+                }
+                add(batch, r, day, schema);
+            }
+            return batch;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Binary body is truncated");
+        }
+    }
+
+    public static IngestQueue.Batch parseNdjson(byte[] body, EventSchema schema) {
+        String text = new String(body, StandardCharsets.UTF_8);
+        int noOfEvents = schema.size();
+
+        int lines = 0;
+        for (int p = 0; p < text.length(); ) {
+            int end = text.indexOf('\n', p);
+            end = end < 0 ? text.length() : end;
+            if (!text.substring(p, end).trim().isEmpty()) {
+                lines++;
+            }
+            p = end + 1;
+        }
+
+        IngestQueue.Batch batch = new IngestQueue.Batch(lines, noOfEvents);
+        int record = 0;
+        for (int p = 0; p < text.length(); ) {
+            int end = text.indexOf('\n', p);
+            end = end < 0 ? text.length() : end;
+            String line = text.substring(p, end).trim();
+            p = end + 1;
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            int day;
+            try {
+                day = new RecordReader(line, schema, batch.values, record * noOfEvents).read();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Record " + (record + 1) + ": " + e.getMessage());
+            }
+            add(batch, record, day, schema);
+            record++;
+        }
+        return batch;
+    }
+
+    private static void add(IngestQueue.Batch batch, int record, int day, EventSchema schema) {
+        if (day <= 0) {
+            throw new IllegalArgumentException("Record " + (record + 1) + ": day must be a positive whole number");
+        }
+        try {
+            schema.validate(batch.values, record * schema.size());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Record " + (record + 1) + ": " + e.getMessage());
+        }
+        batch.days[record] = day;
+    }
+
+    // Just enough of a JSON reader for one record object; unknown keys are skipped
+    private static final class RecordReader {
+        private final String s;
+        private final EventSchema schema;
+        private final double[] values;
+        private final int offset;
+        private int p;
+
+        RecordReader(String s, EventSchema schema, double[] values, int offset) {
+            this.s = s;
+            this.schema = schema;
+            this.values = values;
+            this.offset = offset;
+        }
+
+        int read() {
+            int day = -1;
+            boolean[] seen = new boolean[schema.size()];
+            expect('{');
+            if (!peek('}')) {
+                do {
+                    String key = string();
+                    expect(':');
+                    if (key.equals("day")) {
+                        double value = number();
+                        if (value != Math.rint(value) || value > Integer.MAX_VALUE) {
+                            throw new IllegalArgumentException("day must be a positive whole number");
+                        }
+                        day = (int) value;
+                    } else if (key.equals("values")) {
+                        values(seen);
+                    } else {
+                        skipValue();
+                    }
+                } while (consume(','));
+            }
+            expect('}');
+            skipSpaces();
+            if (p != s.length()) {
+                throw new IllegalArgumentException("unexpected text after the record");
+            }
+
+            for (int i = 0; i < seen.length; i++) {
+                if (!seen[i]) {
+                    throw new IllegalArgumentException("missing a value for " + schema.getName(i));
+                }
+            }
+            return day;
+        }
+
+        private void values(boolean[] seen) {
+            if (consume('[')) {
+                int i = 0;
+                if (!peek(']')) {
+                    do {
+                        if (i >= seen.length) {
+                            throw new IllegalArgumentException("more values than the " + seen.length + " events");
+                        }
+                        values[offset + i] = number();
+                        seen[i++] = true;
+                    } while (consume(','));
+                }
+                expect(']');
+            } else {
+                expect('{');
+                if (!peek('}')) {
+                    do {
+                        String name = string();
+                        expect(':');
+                        int event = schema.indexOf(name);
+                        if (event < 0) {
+                            throw new IllegalArgumentException("unknown event " + name);
+                        }
+                        values[offset + event] = number();
+                        seen[event] = true;
+                    } while (consume(','));
+                }
+                expect('}');
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (p < s.length() && s.charAt(p) != '"') {
+                char c = s.charAt(p++);
+                if (c == '\\' && p < s.length()) {
+                    char escaped = s.charAt(p++);
+                    if (escaped == 'u' && p + 4 <= s.length()) {
+                        out.append((char) Integer.parseInt(s.substring(p, p + 4), 16));
+                        p += 4;
+                    } else {
+                        out.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped == 'r' ? '\r' : escaped);
+                    }
+                } else {
+                    out.append(c);
+                }
+            }
+            expect('"');
+            return out.toString();
+        }
+
+        private double number() {
+            skipSpaces();
+            int start = p;
+            while (p < s.length() && "+-0123456789.eE".indexOf(s.charAt(p)) >= 0) {
+                p++;
+            }
+            try {
+                return Double.parseDouble(s.substring(start, p));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("expected a number at column " + (start + 1));
+            }
+        }
+
+        private void skipValue() {
+            skipSpaces();
+            if (p >= s.length()) {
+                throw new IllegalArgumentException("unexpected end of record");
+            }
+            char c = s.charAt(p);
+            if (c == '"') {
+                string();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                p++;
+                if (!peek(close)) {
+                    do {
+                        if (c == '{') {
+                            string();
+                            expect(':');
+                        }
+                        skipValue();
+                    } while (consume(','));
+                }
+                expect(close);
+            } else {
+                while (p < s.length() && ",}] \t".indexOf(s.charAt(p)) < 0) {
+                    p++; // Number, true, false or null
+                }
+            }
+        }
+
+        private boolean peek(char c) {
+            skipSpaces();
+            return p < s.length() && s.charAt(p) == c;
+        }
+
+        private boolean consume(char c) {
+            if (peek(c)) {
+                p++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("expected '" + c + "' at column " + (p + 1));
+            }
+        }
+
+        private void skipSpaces() {
+            while (p < s.length() && Character.isWhitespace(s.charAt(p))) {
+                p++;
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Appends ingested day records to a log through one writer thread. Whatever batches
+// are waiting when the writer wakes up are committed together: one LogWriter commit
+// (and one fsync, if enabled) for the whole group, after which every record is scored against
+// the current baseline. Submitters that would push the number of waiting records past
+// the limit are turned away instead of queueing without bound. Once the log reaches
+// the segment policy's limits, the writer rolls it over into LogSegments between
+// commits.
+public class IngestQueue implements Closeable {
+
+    // Most batches folded into one commit
+    private static final int MAX_GROUP_BATCHES = 256;
+
+    // Records for one submit: days[r] and values[r * events .. r * events + events)
+    public static final class Batch {
+        public final int size;
+        final int[] days;
+        final double[] values;
+        final CompletableFuture<Result> done = new CompletableFuture<>();
+
+        Batch(int size, int noOfEvents) {
+            this.size = size;
+            this.days = new int[size];
+            this.values = new double[size * noOfEvents];
+        }
+    }
+
+    // Outcome of a committed batch; scores is null when there was no baseline to score against
+    public static final class Result {
+        public final int accepted;
+        public final int[] days;
+        public final double[] scores;
+        public final int threshold;
+
+        Result(int accepted, int[] days, double[] scores, int threshold) {
+            this.accepted = accepted;
+            this.days = days;
+            this.scores = scores;
+            this.threshold = threshold;
+        }
+    }
+
+    private final EventSchema schema;
+    private final BaselineCache baselineCache;
+    private final String logFile;
+    private final int syncRecords;
+    private final LogSegments.Policy segmentPolicy;
+    private final int maxPendingRecords;
+    private final Semaphore capacity;
+    private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final int threshold;
+    private volatile boolean running = true;
+
+    // Only touched by the writer thread (and close, once it has stopped)
+    private LogWriter log;
+    private long activeDays;
+    private ScoringKernel kernel;
+    private long kernelVersion = -1;
+
+    public IngestQueue(String logFile, EventSchema schema, BaselineCache baselineCache, int maxPendingRecords,
+                       boolean sync, LogSegments.Policy segmentPolicy) throws IOException {
+        this.schema = schema;
+        this.baselineCache = baselineCache;
+        this.maxPendingRecords = maxPendingRecords;
+        this.capacity = new Semaphore(maxPendingRecords);
+        this.logFile = logFile;
+        this.syncRecords = sync ? 1 : 0;
+        this.segmentPolicy = segmentPolicy;
+        LogSegments.recover(logFile);
+        this.log = LogWriter.open(logFile, syncRecords);
+        if (segmentPolicy.maxDays > 0 && log.size() > 0) {
+            this.activeDays = DayIndex.summarize(logFile, Integer.MIN_VALUE, Integer.MAX_VALUE).days;
+        }
+        this.threshold = AlertEngine.calculateThreshold(schema.getWeights());
+
+        this.writer = new Thread(this::run, "ingest-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public int getMaxPendingRecords() {
+        return maxPendingRecords;
+    }
+
+    // Queues a batch for the next commit; returns null (and queues nothing) when the
+    // batch does not fit in the remaining capacity
+    public CompletableFuture<Result> submit(Batch batch) {
+        if (!running || !capacity.tryAcquire(batch.size)) {
+            Metrics.INGEST_REJECTED.add(batch.size);
+            return null;
+        }
+        queue.add(batch);
+        return batch.done;
+    }
+
+    private void run() {
+        List<Batch> group = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Batch first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, MAX_GROUP_BATCHES - 1);
+                commit(group);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Throwable t) {
+                // Anything commit did not expect before the group was committed fails this
+                // group only; the writer carries on
+                System.err.println("Error committing ingested records: " + t);
+                try {
+                    log.rollback();
+                } catch (IOException e) {
+                    t.addSuppressed(e);
+                }
+                for (Batch batch : group) {
+                    if (batch.done.completeExceptionally(t)) {
+                        capacity.release(batch.size);
+                    }
+                }
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void commit(List<Batch> group) {
+        long startTime = System.nanoTime();
+        int noOfEvents = schema.size();
+        int records = 0;
+
+        try {
+            StringBuilder text = new StringBuilder();
+            for (Batch batch : group) {
+                for (int r = 0; r < batch.size; r++) {
+                    // Same layout ActivityEngine.simulateActivity writes
+                    text.setLength(0);
+                    text.append("Day ").append(batch.days[r]).append('\n').append(noOfEvents).append('\n');
+                    for (int e = 0; e < noOfEvents; e++) {
+                        text.append(schema.getName(e)).append(':').append(schema.getType(e)).append(':')
+                                .append(batch.values[r * noOfEvents + e]).append(":\n");
+                    }
+                    text.append('\n');
+                    log.append(text);
+                }
+                records += batch.size;
+            }
+            log.commit();
+        } catch (IOException e) {
+            // None of the group may stay in the log once its submitters are told it failed
+            try {
+                log.rollback();
+            } catch (IOException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            for (Batch batch : group) {
+                capacity.release(batch.size);
+                batch.done.completeExceptionally(e);
+            }
+            return;
+        }
+
+        // The records are durable from here on, so a failure to score them must not be
+        // reported as a failed ingest: a client that retries would log them twice
+        ScoringKernel current = currentKernel();
+        for (Batch batch : group) {
+            double[] scores = null;
+            if (current != null) {
+                try {
+                    scores = score(current, batch, noOfEvents);
+                } catch (RuntimeException e) {
+                    System.err.println("Error scoring ingested records: " + e);
+                }
+            }
+            capacity.release(batch.size);
+            batch.done.complete(new Result(batch.size, batch.days, scores, threshold));
+        }
+
+        Metrics.INGESTED_RECORDS.add(records);
+        Metrics.INGEST_COMMIT_SECONDS.record(System.nanoTime() - startTime);
+
+        activeDays += records;
+        if (segmentPolicy.due(log.size(), activeDays)) {
+            rollOver();
+        }
+    }
+
+    // Scores a committed batch and publishes the days at or over the threshold
+    private double[] score(ScoringKernel current, Batch batch, int noOfEvents) {
+        double[] scores = current.score(batch.values, batch.size);
+        for (int r = 0; r < batch.size; r++) {
+            if (scores[r] >= threshold) {
+                AlertEngine.recentAlerts.publish(batch.days[r], scores[r], threshold, current,
+                        schema.getNames(), batch.values, r * noOfEvents);
+            }
+        }
+        return scores;
+    }
+
+    // Closes the log, moves its days into a new segment and reopens it empty
+    private void rollOver() {
+        try {
+            log.close();
+            LogSegments.rollOver(logFile, segmentPolicy);
+            activeDays = 0;
+        } catch (IOException | RuntimeException e) {
+            // The log is reopened below either way
+            System.err.println("Error rolling over " + logFile + ": " + e);
+        }
+        try {
+            log = LogWriter.open(logFile, syncRecords);
+        } catch (IOException e) {
+            // Later commits fail, and their submitters are told so
+            System.err.println("Error reopening " + logFile + ": " + e.getMessage());
+        }
+    }
+
+    // The kernel for the latest baseline, rebuilt only when the baseline version changes;
+    // null when there is none or it cannot be built (e.g. an inverse covariance that is
+    // not positive definite)
+    private ScoringKernel currentKernel() {
+        try {
+            BaselineCache.Snapshot snapshot = baselineCache.get();
+            if (snapshot == null || !snapshot.eventNames.equals(schema.getNames())) {
+                return null;
+            }
+            if (snapshot.version != kernelVersion) {
+                kernel = snapshot.kernel(schema.weightArray());
+                kernelVersion = snapshot.version;
+            }
+            return kernel;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading baseline for ingest scoring: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Stops accepting batches, commits whatever is queued and closes the log
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Locale;
+
+// The few pieces every hand-written JSON response shares (WebServer, IDSDaemon,
+// BaselineCache), so numbers and strings come out the same way everywhere
+public final class Json {
+
+    private Json() {
+    }
+
+    // Two decimals with a '.' whatever the default locale, and null where JSON has no
+    // number (NaN and Infinity, e.g. scores against a zero deviation)
+    public static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    // The text of a JSON string literal, without the surrounding quotes
+    public static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
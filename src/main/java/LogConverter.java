@@ -0,0 +1,114 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// Converts logs between the text Logs.txt format and the binary columnar format.
+// The direction is picked from the input file: text becomes binary and vice versa.
+public class LogConverter {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: LogConverter <input log> <output log>");
+            System.exit(1);
+        }
+
+        try {
+            if (BinaryLog.isBinaryLog(args[0])) {
+                binaryToText(args[0], args[1]);
+            } else {
+                textToBinary(args[0], args[1]);
+            }
+            System.out.println("Converted " + args[0] + " to " + args[1]);
+        } catch (IOException e) {
+            System.err.println("Error converting log: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public static void textToBinary(String textFile, String binaryFile) throws IOException {
+        BinaryLog.Writer[] writer = new BinaryLog.Writer[1];
+
+        try {
+            LogParser.parse(textFile, new LogParser.Handler() {
+                private double[] values;
+                private int day;
+
+                @Override
+                public void schema(String[] eventNames, char[] eventTypes) {
+                    values = new double[eventNames.length];
+                    try {
+                        writer[0] = BinaryLog.Writer.open(binaryFile, eventNames, eventTypes, false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void startDay(int day, long offset) {
+                    this.day = day;
+                }
+
+                @Override
+                public void value(int event, double value) {
+                    values[event] = value;
+                }
+
+                @Override
+                public void endDay() {
+                    try {
+                        writer[0].writeDay(day, values);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (writer[0] != null) {
+                writer[0].close();
+            }
+        }
+    }
+
+    public static void binaryToText(String binaryFile, String textFile) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(textFile), 1 << 16)) {
+            BinaryLog.read(binaryFile, new LogParser.Handler() {
+                private String[] names;
+                private char[] types;
+
+                @Override
+                public void schema(String[] eventNames, char[] eventTypes) {
+                    names = eventNames;
+                    types = eventTypes;
+                }
+
+                @Override
+                public void startDay(int day, long offset) {
+                    write("Day " + day + "\n" + names.length + "\n");
+                }
+
+                @Override
+                public void value(int event, double value) {
+                    write(names[event] + ":" + types[event] + ":" + value + ":\n");
+                }
+
+                @Override
+                public void endDay() {
+                    write("\n");
+                }
+
+                private void write(String text) {
+                    try {
+                        out.write(text);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
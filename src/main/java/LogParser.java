@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// Memory-mapped parser for the Logs.txt format:
+//
+//   Day N            (or "Day N:<user id>" in multi-user logs)
+//   <number of events>
+//   name:type:value:
+//   ...
+//
+// Records are scanned straight from the mapped bytes and values are handed to a
+// Handler as primitives. Files larger than one mapping are processed in segments.
+public class LogParser {
+
+    // Largest window mapped at once; a record never straddles two windows
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Receives the parsed records in file order
+    public interface Handler {
+        // Called once, with the event names and types taken from the first record
+        default void schema(String[] eventNames, char[] eventTypes) {
+        }
+
+        // Called before startDay for records that carry a user id; the id is the
+        // bytes start..end of the buffer, which are only valid during the call
+        default void user(ByteBuffer buffer, int start, int end) {
+        }
+
+        default void startDay(int day, long offset) {
+        }
+
+        void value(int event, double value);
+
+        default void endDay() {
+        }
+    }
+
+    private final Handler handler;
+    private String[] eventNames;
+    private double[] values = new double[16];
+    private boolean truncated;
+    private long records;
+
+    private LogParser(Handler handler) {
+        this.handler = handler;
+    }
+
+    // Parses a whole log file; binary logs are handed to BinaryLog
+    public static void parse(String filename, Handler handler) throws IOException {
+        if (BinaryLog.isBinaryLog(filename)) {
+            BinaryLog.read(filename, handler);
+            return;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+             FileChannel channel = file.getChannel()) {
+            new LogParser(handler).parse(channel, 0, channel.size(), true);
+        }
+    }
+
+    // Parses the complete records found between two byte offsets of an open channel
+    // and returns the offset just after the last complete record. A trailing partial
+    // record is an error when requireComplete is set, unless it runs to the end of the
+    // file: that is a writer that died mid-record, and the record is skipped with a
+    // warning until LogWriter cuts it off. Otherwise the end offset is treated as a
+    // file that is still being written, so an unterminated last line is left unread
+    // along with the rest of its record.
+    public static long parse(FileChannel channel, long start, long end, boolean requireComplete, Handler handler) throws IOException {
+        return new LogParser(handler).parse(channel, start, end, requireComplete);
+    }
+
+    // Parses records held in memory, such as a decompressed archive block, which must end
+    // with a complete record; offsets handed to startDay count from the buffer's start
+    static void parse(ByteBuffer buffer, Handler handler) throws IOException {
+        LogParser parser = new LogParser(handler);
+        int consumed = parser.parseBuffer(buffer, 0, true);
+        if (parser.truncated) {
+            throw new IOException("Truncated Day record at offset " + consumed);
+        }
+    }
+
+    private long parse(FileChannel channel, long start, long end, boolean requireComplete) throws IOException {
+        long startTime = System.nanoTime();
+        long position = start;
+
+        while (position < end) {
+            long length = Math.min(SEGMENT_SIZE, end - position);
+            boolean lastSegment = position + length >= end;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            int consumed = parseBuffer(buffer, position, lastSegment && requireComplete);
+            position += consumed;
+
+            if (lastSegment) {
+                break;
+            }
+            if (consumed == 0) {
+                throw new IOException("Day record at offset " + position + " is larger than the mapping segment");
+            }
+        }
+
+        Metrics.PARSED_BYTES.add(position - start);
+        Metrics.PARSED_DAYS.add(records);
+        Metrics.PARSE_SECONDS.record(System.nanoTime() - startTime);
+
+        if (truncated && requireComplete) {
+            if (end < channel.size()) {
+                throw new IOException("Truncated Day record at offset " + position);
+            }
+            System.err.println("Skipping an incomplete Day record at offset " + position
+                    + " at the end of the log; it is cut off when the log is next opened for writing");
+        }
+        return position;
+    }
+
+    // Parses every complete record in the buffer and returns the number of bytes consumed
+    private int parseBuffer(ByteBuffer buffer, long baseOffset, boolean endOfInput) throws IOException {
+        int limit = buffer.limit();
+        int p = 0;
+
+        while (true) {
+            // Skip blank lines and anything else that is not a Day header
+            int recordStart = -1;
+            while (p < limit) {
+                int lineEnd = lineEnd(buffer, p, limit);
+                if (lineEnd == limit && !endOfInput) {
+                    return p; // Incomplete line, re-read with the next segment
+                }
+                if (startsWithDay(buffer, p, lineEnd)) {
+                    recordStart = p;
+                    break;
+                }
+                p = lineEnd + 1;
+            }
+            if (recordStart < 0) {
+                return limit;
+            }
+
+            int next = parseRecord(buffer, recordStart, limit, baseOffset, endOfInput);
+            if (next < 0) {
+                truncated = endOfInput;
+                return recordStart;
+            }
+            p = next;
+        }
+    }
+
+    // Parses one record starting at a Day header; returns the position after it, or -1 if incomplete
+    private int parseRecord(ByteBuffer buffer, int p, int limit, long baseOffset, boolean endOfInput) throws IOException {
+        int recordStart = p;
+        int lineEnd = lineEnd(buffer, p, limit);
+        int day = (int) parseLong(buffer, skipSpaces(buffer, p + 3, lineEnd), lineEnd);
+        int userStart = indexOf(buffer, ':', p, lineEnd) + 1;
+        int userEnd = trimEnd(buffer, userStart, lineEnd);
+        p = lineEnd + 1;
+
+        if (p >= limit) {
+            return -1;
+        }
+        lineEnd = lineEnd(buffer, p, limit);
+        if (lineEnd == limit && !endOfInput) {
+            return -1;
+        }
+        int noOfEvents = (int) parseLong(buffer, skipSpaces(buffer, p, lineEnd), lineEnd);
+        p = lineEnd + 1;
+
+        if (values.length < noOfEvents) {
+            values = new double[noOfEvents];
+        }
+        boolean first = eventNames == null;
+        String[] names = first ? new String[noOfEvents] : null;
+        char[] types = first ? new char[noOfEvents] : null;
+
+        for (int i = 0; i < noOfEvents; i++) {
+            if (p >= limit) {
+                return -1;
+            }
+            lineEnd = lineEnd(buffer, p, limit);
+            if (lineEnd == limit && !endOfInput) {
+                return -1;
+            }
+
+            int lineStart = skipSpaces(buffer, p, lineEnd);
+            int nameEnd = indexOf(buffer, ':', lineStart, lineEnd);
+            int typeEnd = indexOf(buffer, ':', nameEnd + 1, lineEnd);
+            int valueEnd = indexOf(buffer, ':', typeEnd + 1, lineEnd);
+            // Event lines end with a ':' after the value; an unterminated last line of the
+            // input without it was cut off mid-write
+            if (lineEnd == limit && valueEnd >= lineEnd) {
+                return -1;
+            }
+            if (typeEnd >= lineEnd) {
+                throw new IOException("Malformed event line at offset " + (baseOffset + p));
+            }
+            values[i] = parseDouble(buffer, typeEnd + 1, trimEnd(buffer, typeEnd + 1, valueEnd));
+
+            if (first) {
+                names[i] = decode(buffer, lineStart, nameEnd);
+                types[i] = (char) buffer.get(nameEnd + 1);
+            }
+            p = lineEnd + 1;
+        }
+
+        if (first) {
+            eventNames = names;
+            handler.schema(names, types);
+        }
+        if (userStart <= userEnd && userStart < lineEnd) {
+            handler.user(buffer, userStart, userEnd);
+        }
+        handler.startDay(day, baseOffset + recordStart);
+        for (int i = 0; i < noOfEvents; i++) {
+            handler.value(i, values[i]);
+        }
+        handler.endDay();
+        records++;
+
+        return Math.min(p, limit);
+    }
+
+    private static boolean startsWithDay(ByteBuffer buffer, int p, int lineEnd) {
+        return lineEnd - p >= 3 && buffer.get(p) == 'D' && buffer.get(p + 1) == 'a' && buffer.get(p + 2) == 'y';
+    }
+
+    private static int lineEnd(ByteBuffer buffer, int p, int limit) {
+        while (p < limit && buffer.get(p) != '\n') {
+            p++;
+        }
+        return p;
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int p, int limit) {
+        while (p < limit && buffer.get(p) != c) {
+            p++;
+        }
+        return p;
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int p, int limit) {
+        while (p < limit && buffer.get(p) <= ' ') {
+            p++;
+        }
+        return p;
+    }
+
+    private static int trimEnd(ByteBuffer buffer, int start, int end) {
+        while (end > start && buffer.get(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Parses a (possibly signed) integer without allocating
+    static long parseLong(ByteBuffer buffer, int start, int end) throws IOException {
+        int p = start;
+        boolean negative = p < end && buffer.get(p) == '-';
+        if (negative) {
+            p++;
+        }
+        if (p >= end) {
+            throw new IOException("Expected a number but found an empty field");
+        }
+
+        long result = 0;
+        while (p < end) {
+            int digit = buffer.get(p) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            result = result * 10 + digit;
+            p++;
+        }
+        return negative ? -result : result;
+    }
+
+    // Parses a decimal literal without allocating. Literals whose mantissa and exponent
+    // can be represented exactly (the usual case for logged values) are computed
+    // directly; anything else falls back to Double.parseDouble so results stay identical.
+    static double parseDouble(ByteBuffer buffer, int start, int end) throws IOException {
+        int p = start;
+        boolean negative = false;
+        if (p < end && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+            negative = buffer.get(p) == '-';
+            p++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+
+        for (; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (digits >= 18) {
+                    return fallback(buffer, start, end);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if ((b == 'E' || b == 'e') && seenDigit) {
+                exponent += (int) parseLong(buffer, p + 1 < end && buffer.get(p + 1) == '+' ? p + 2 : p + 1, end);
+                break;
+            } else {
+                return fallback(buffer, start, end);
+            }
+        }
+
+        if (!seenDigit) {
+            return fallback(buffer, start, end);
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+        } else {
+            return fallback(buffer, start, end);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double fallback(ByteBuffer buffer, int start, int end) throws IOException {
+        try {
+            return Double.parseDouble(decode(buffer, start, end));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number: " + decode(buffer, start, end));
+        }
+    }
+}
@@ -0,0 +1,656 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Rolls a text log over into compressed archive segments once it holds too many bytes
+// or days, so the active log (and every re-read of it) stays bounded. A rollover moves
+// the log's complete records into <log>.segments/<sequence>.seg and empties the log.
+//
+// The log is first renamed to <log>.segments/<sequence>.rolling and replaced by an
+// empty file, then archived from there. Readers that have the old log open or mapped
+// keep reading it unchanged, and a crash part way leaves the pending file behind
+// for recover() to archive, or to delete if its segment was already written, so its
+// days are never counted twice.
+//
+// Segment file format:
+//
+//   header   magic, version, sequence, whether the segment starts the log's history
+//   blocks   the raw log bytes of up to DayIndex.BLOCK_DAYS records each, Deflate compressed
+//   footer   event names; days, lowest and highest day; per event the weight, mean
+//            and m2 of every value but the header record's; then per block its offset,
+//            compressed and raw length, CRC32 of the raw bytes, day range and the
+//            per-event count, min, max and sum DayIndex keeps
+//   trailer  footer offset, magic
+//
+// Analysis merges the Welford sums from the footers instead of decompressing
+// anything; only robust and Mahalanobis scoring, which need more than those sums,
+// read the blocks back. The first segment of a log holds its header record (the
+// first Day record, which analysis skips); once a log has segments its active part
+// has no header record and all of it is analysed.
+public class LogSegments {
+
+    public static final String EXTENSION = ".seg";
+    public static final String PENDING_EXTENSION = ".rolling";
+
+    private static final int MAGIC = 0x4944535A; // "IDSZ"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 1;
+    private static final int TRAILER_SIZE = 8 + 4;
+
+    // When to roll a log over and how many segments to keep; 0 turns a limit off
+    public static final class Policy {
+        public final long maxBytes;
+        public final long maxDays;
+        public final int keep;
+
+        public Policy(long maxBytes, long maxDays, int keep) {
+            if (maxBytes < 0 || maxDays < 0 || keep < 0) {
+                throw new IllegalArgumentException("Segment limits must be 0 or more");
+            }
+            this.maxBytes = maxBytes;
+            this.maxDays = maxDays;
+            this.keep = keep;
+        }
+
+        // -Dids.segment.maxBytes, -Dids.segment.maxDays and -Dids.segment.keep; rollover is off by default
+        public static Policy fromProperties() {
+            return new Policy(Long.getLong("ids.segment.maxBytes", 0), Long.getLong("ids.segment.maxDays", 0),
+                    Integer.getInteger("ids.segment.keep", 0));
+        }
+
+        public boolean rollsOver() {
+            return maxBytes > 0 || maxDays > 0;
+        }
+
+        public boolean due(long bytes, long days) {
+            return (maxBytes > 0 && bytes >= maxBytes) || (maxDays > 0 && days >= maxDays);
+        }
+    }
+
+    // One compressed block and where its records sit in the segment
+    static final class Block {
+        final long offset;
+        final int compressedLength;
+        final int rawLength;
+        final int crc;
+        final DayIndex.Block summary;
+
+        Block(long offset, int compressedLength, int rawLength, int crc, DayIndex.Block summary) {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+            this.crc = crc;
+            this.summary = summary;
+        }
+    }
+
+    // A closed segment as described by its footer
+    public static final class Segment {
+        public final Path file;
+        public final int sequence;
+        public final boolean headerRecord;
+        public final String[] eventNames;
+        public final long days;
+        public final int lowestDay;
+        public final int highestDay;
+        public final long rawBytes;
+        public final long compressedBytes;
+        final double[] weights;
+        final double[] means;
+        final double[] m2s;
+        final List<Block> blocks;
+
+        Segment(Path file, int sequence, boolean headerRecord, String[] eventNames, long days, int lowestDay,
+                int highestDay, long rawBytes, long compressedBytes, double[] weights, double[] means, double[] m2s,
+                List<Block> blocks) {
+            this.file = file;
+            this.sequence = sequence;
+            this.headerRecord = headerRecord;
+            this.eventNames = eventNames;
+            this.days = days;
+            this.lowestDay = lowestDay;
+            this.highestDay = highestDay;
+            this.rawBytes = rawBytes;
+            this.compressedBytes = compressedBytes;
+            this.weights = weights;
+            this.means = means;
+            this.m2s = m2s;
+            this.blocks = blocks;
+        }
+
+        // Running statistics of the segment's values, straight from the footer
+        public RunningStats stats() {
+            RunningStats stats = new RunningStats(Arrays.asList(eventNames));
+            for (int e = 0; e < eventNames.length; e++) {
+                stats.set(e, weights[e], means[e], m2s[e]);
+            }
+            return stats;
+        }
+
+        // Per-event count, min, max and sum over every record, header record included
+        public DayIndex.Summary summary() {
+            DayIndex.Summary summary = new DayIndex.Summary(eventNames);
+            for (Block block : blocks) {
+                summary.add(block.summary);
+            }
+            return summary;
+        }
+    }
+
+    public static void main(String[] args) {
+        // Usage: LogSegments <log> [--roll] [--max-bytes N] [--max-days N] [--keep N]
+        // Lists the log's segments; --roll archives the log now, and the limits
+        // (defaulting to the ids.segment.* properties) decide what is kept.
+        if (args.length == 0) {
+            System.err.println("Usage: LogSegments <log> [--roll] [--max-bytes N] [--max-days N] [--keep N]");
+            System.exit(1);
+        }
+
+        try {
+            Policy defaults = Policy.fromProperties();
+            long maxBytes = defaults.maxBytes;
+            long maxDays = defaults.maxDays;
+            int keep = defaults.keep;
+            boolean roll = false;
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--roll")) {
+                    roll = true;
+                } else if (args[i].equals("--max-bytes") && i + 1 < args.length) {
+                    maxBytes = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--max-days") && i + 1 < args.length) {
+                    maxDays = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--keep") && i + 1 < args.length) {
+                    keep = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+
+            String logFile = args[0];
+            Policy policy = new Policy(maxBytes, maxDays, keep);
+            if (roll) {
+                rollOver(logFile, policy);
+            } else {
+                rollOverIfDue(logFile, policy);
+            }
+            retain(logFile, policy.keep);
+
+            List<Segment> segments = list(logFile);
+            System.out.printf("%-10s %10s %12s %12s %14s %14s%n", "Segment", "Days", "Lowest day", "Highest day",
+                    "Raw bytes", "Compressed");
+            for (Segment segment : segments) {
+                System.out.printf("%-10d %10d %12d %12d %14d %14d%n", segment.sequence, segment.days,
+                        segment.lowestDay, segment.highestDay, segment.rawBytes, segment.compressedBytes);
+            }
+            System.out.println(segments.size() + " segment(s); active log " + logFile + " holds "
+                    + new File(logFile).length() + " bytes");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public static String segmentDirectory(String logFile) {
+        return logFile + ".segments";
+    }
+
+    // The log's segments, oldest first
+    public static List<Segment> list(String logFile) throws IOException {
+        Path directory = Paths.get(segmentDirectory(logFile));
+        List<Segment> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                segments.add(open(file));
+            }
+        }
+        segments.sort(Comparator.comparingInt(segment -> segment.sequence));
+        return segments;
+    }
+
+    // Rolls logFile over if the policy says it is due; returns the new segment, or null
+    public static Segment rollOverIfDue(String logFile, Policy policy) throws IOException {
+        recover(logFile);
+        File file = new File(logFile);
+        if (!policy.rollsOver() || !file.exists() || file.length() == 0 || BinaryLog.isBinaryLog(logFile)) {
+            return null;
+        }
+        long days = policy.maxDays > 0 ? DayIndex.summarize(logFile, Integer.MIN_VALUE, Integer.MAX_VALUE).days : 0;
+        return policy.due(file.length(), days) ? rollOver(logFile, policy) : null;
+    }
+
+    // Archives the complete records of logFile as its next segment, empties the log and
+    // drops the oldest segments past policy.keep. Fails if a LogWriter has the log open,
+    // since its later commits would go to the file moved aside. Returns null if the log
+    // held no records.
+    public static synchronized Segment rollOver(String logFile, Policy policy) throws IOException {
+        if (BinaryLog.isBinaryLog(logFile)) {
+            throw new IOException("Binary logs cannot be rolled over: " + logFile);
+        }
+        long startTime = System.nanoTime();
+        recover(logFile);
+        Path log = Paths.get(logFile);
+        if (!Files.exists(log)) {
+            return null;
+        }
+        Path pending;
+        int sequence;
+        try (FileChannel locked = LogWriter.lockExclusively(logFile)) {
+            if (locked.size() == 0) {
+                return null;
+            }
+            List<Segment> segments = list(logFile);
+            sequence = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).sequence + 1;
+            Path directory = Paths.get(segmentDirectory(logFile));
+            Files.createDirectories(directory);
+            pending = directory.resolve(String.format("%08d", sequence) + PENDING_EXTENSION);
+
+            // From here on the log's days are in the pending file until its segment is written
+            Files.deleteIfExists(Paths.get(LogWriter.checkpointFile(logFile)));
+            Files.move(log, pending, StandardCopyOption.ATOMIC_MOVE);
+            replaceLog(logFile);
+        }
+        Segment segment = archive(pending, sequence);
+        if (segment == null) {
+            return null;
+        }
+
+        Console.info(String.format("Rolled %s over into %s: %d days, %d bytes compressed to %d in %.1f ms",
+                logFile, segment.file, segment.days, segment.rawBytes, segment.compressedBytes,
+                (System.nanoTime() - startTime) / 1e6));
+        retain(logFile, policy.keep);
+        return segment;
+    }
+
+    // Finishes rollovers a crash interrupted: puts back the empty log if it was not
+    // replaced yet, then archives each pending file in order, or only deletes it when
+    // its segment was already written. Like rollOver it fails while a LogWriter has
+    // the log open.
+    public static synchronized void recover(String logFile) throws IOException {
+        Path directory = Paths.get(segmentDirectory(logFile));
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> pending = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + PENDING_EXTENSION)) {
+            for (Path file : files) {
+                pending.add(file);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (!Files.exists(Paths.get(logFile))) {
+            replaceLog(logFile);
+        }
+        // Held (not read) until every pending file is archived
+        FileChannel locked = LogWriter.lockExclusively(logFile);
+        try {
+            pending.sort(Comparator.naturalOrder()); // Zero-padded sequences sort as numbers
+            for (Path file : pending) {
+                String name = file.getFileName().toString();
+                int sequence = Integer.parseInt(name.substring(0, name.length() - PENDING_EXTENSION.length()));
+                Segment segment = archive(file, sequence);
+                Console.info("Finished an interrupted rollover of " + logFile + " into "
+                        + (segment == null ? "nothing (it held no records)" : segment.file.toString()));
+            }
+        } finally {
+            locked.close();
+        }
+    }
+
+    // Starts the log afresh once its days have moved to a pending file; the index and
+    // incremental state of the old log go first, so they never describe the new one.
+    // A writer that opened the path meanwhile has already started the new log itself.
+    private static void replaceLog(String logFile) throws IOException {
+        Files.deleteIfExists(Paths.get(DayIndex.indexFile(logFile)));
+        Files.deleteIfExists(Paths.get(IncrementalAnalysis.stateFile(logFile)));
+        try {
+            Files.createFile(Paths.get(logFile));
+        } catch (FileAlreadyExistsException e) {
+            // Keep the writer's log
+        }
+    }
+
+    // Writes the pending file's segment, unless an earlier attempt already did, then
+    // deletes the pending file; null if it held no records
+    private static Segment archive(Path pending, int sequence) throws IOException {
+        Path target = pending.resolveSibling(String.format("%08d", sequence) + EXTENSION);
+        Segment segment = Files.exists(target) ? open(target)
+                : write(pending.toString(), target, sequence, sequence == 1);
+        Files.delete(pending);
+        return segment;
+    }
+
+    // Deletes all but the newest keep segments (none when keep is 0); what they held no
+    // longer counts towards the baseline
+    public static synchronized void retain(String logFile, int keep) throws IOException {
+        List<Segment> segments = list(logFile);
+        for (int i = 0; keep > 0 && i < segments.size() - keep; i++) {
+            Files.delete(segments.get(i).file);
+            Console.info("Deleted " + segments.get(i).file + " (keeping " + keep + " segments)");
+        }
+    }
+
+    // Statistics of every archived segment of logFile merged in order, or null if it has
+    // none. With mean scoring they come from the footers alone; the other modes need
+    // sketches or co-moments the footers do not keep, so their blocks are parsed again.
+    public static RunningStats archivedStats(String logFile) throws IOException {
+        return archivedStats(logFile, 0);
+    }
+
+    // As above, but with halfLifeDays > 0 the statistics so far are decayed by
+    // 0.5^(segment's days / halfLifeDays) before each segment is merged, the same
+    // decay IncrementalAnalysis applies per update
+    public static RunningStats archivedStats(String logFile, double halfLifeDays) throws IOException {
+        if (!Files.isDirectory(Paths.get(segmentDirectory(logFile)))) {
+            return null;
+        }
+        RunningStats stats = null;
+        for (Segment segment : list(logFile)) {
+            RunningStats next;
+            if (ScoringMode.current() == ScoringMode.MEAN) {
+                next = segment.stats();
+            } else {
+                AnalysisEngine.StatsCollector collector = new AnalysisEngine.StatsCollector(segment.headerRecord);
+                read(segment, Integer.MIN_VALUE, Integer.MAX_VALUE, collector);
+                next = collector.stats;
+            }
+            if (stats == null) {
+                stats = next;
+            } else if (next != null) {
+                if (!next.getEventNames().equals(stats.getEventNames())) {
+                    throw new IOException("Events in " + segment.file + " do not match the earlier segments");
+                }
+                if (halfLifeDays > 0) {
+                    stats.decay(Math.pow(0.5, next.getCount(0) / halfLifeDays));
+                }
+                stats.merge(next);
+            }
+        }
+        return stats;
+    }
+
+    // Hands over the records of the segment's blocks that can hold days from..to,
+    // decompressing only those blocks
+    public static void read(Segment segment, int from, int to, LogParser.Handler handler) throws IOException {
+        LogParser.Handler filter = new DayIndex.RangeFilter(from, to, handler);
+        Inflater inflater = new Inflater();
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+            for (Block block : segment.blocks) {
+                if (block.summary.highestDay < from || block.summary.lowestDay > to) {
+                    continue;
+                }
+                ByteBuffer compressed = ByteBuffer.allocate(block.compressedLength);
+                readFully(channel, compressed, block.offset);
+
+                byte[] raw = new byte[block.rawLength];
+                inflater.reset();
+                inflater.setInput(compressed.array());
+                int length = 0;
+                while (length < raw.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, length, raw.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(raw, 0, length);
+                if (length != raw.length || (int) crc.getValue() != block.crc) {
+                    throw new IOException("Corrupt block at offset " + block.offset + " of " + segment.file);
+                }
+                LogParser.parse(ByteBuffer.wrap(raw), filter);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in " + segment.file + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Writes the complete records of logFile to target (through a temporary file) and
+    // returns the segment, or null if there were none
+    private static Segment write(String logFile, Path target, int sequence, boolean headerRecord) throws IOException {
+        Path temp = Paths.get(target + ".tmp");
+        Deflater deflater = new Deflater();
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+             FileChannel log = file.getChannel()) {
+            // One pass over the log finds the blocks, with DayIndex's summaries, and the Welford sums
+            SegmentCollector collector = new SegmentCollector(logFile, headerRecord);
+            long end = LogParser.parse(log, 0, log.size(), false, collector);
+            List<DayIndex.Block> ranges = collector.index.close(end);
+            if (collector.stats == null || ranges.isEmpty()) {
+                return null;
+            }
+
+            List<Block> blocks = new ArrayList<>(ranges.size());
+            long rawBytes = 0;
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putShort(VERSION).putInt(sequence).put((byte) (headerRecord ? 1 : 0)).flip();
+                writeFully(out, header);
+
+                byte[] chunk = new byte[64 * 1024];
+                for (DayIndex.Block range : ranges) {
+                    ByteBuffer raw = ByteBuffer.allocate((int) (range.end - range.start));
+                    readFully(log, raw, range.start);
+                    CRC32 crc = new CRC32();
+                    crc.update(raw.array(), 0, raw.capacity());
+
+                    long offset = out.position();
+                    deflater.reset();
+                    deflater.setInput(raw.array());
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int length = deflater.deflate(chunk);
+                        writeFully(out, ByteBuffer.wrap(chunk, 0, length));
+                    }
+                    blocks.add(new Block(offset, (int) (out.position() - offset), raw.capacity(), (int) crc.getValue(), range));
+                    rawBytes += raw.capacity();
+                }
+
+                long footerOffset = out.position();
+                writeFully(out, ByteBuffer.wrap(footer(collector, blocks, rawBytes)));
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+                trailer.putLong(footerOffset).putInt(MAGIC).flip();
+                writeFully(out, trailer);
+                out.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return open(target);
+        } finally {
+            deflater.end();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte[] footer(SegmentCollector collector, List<Block> blocks, long rawBytes) throws IOException {
+        RunningStats stats = collector.stats;
+        int noOfEvents = stats.size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + blocks.size() * (48 + 32 * noOfEvents));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(noOfEvents);
+            for (int e = 0; e < noOfEvents; e++) {
+                out.writeUTF(stats.getEventName(e));
+            }
+            out.writeLong(collector.days);
+            out.writeInt(collector.lowestDay);
+            out.writeInt(collector.highestDay);
+            out.writeLong(rawBytes);
+            for (int e = 0; e < noOfEvents; e++) {
+                out.writeDouble(stats.getWeight(e));
+                out.writeDouble(stats.getMean(e));
+                out.writeDouble(stats.getM2(e));
+            }
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                DayIndex.Block summary = block.summary;
+                out.writeLong(block.offset);
+                out.writeInt(block.compressedLength);
+                out.writeInt(block.rawLength);
+                out.writeInt(block.crc);
+                out.writeInt(summary.lowestDay);
+                out.writeInt(summary.highestDay);
+                out.writeInt(summary.days);
+                for (int e = 0; e < noOfEvents; e++) {
+                    out.writeLong(summary.counts[e]);
+                    out.writeDouble(summary.minimums[e]);
+                    out.writeDouble(summary.maximums[e]);
+                    out.writeDouble(summary.sums[e]);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // Reads a segment's header and footer
+    static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException(file + " is not a log segment");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, size - TRAILER_SIZE);
+            trailer.flip();
+            long footerOffset = trailer.getLong();
+            if (header.getInt() != MAGIC || trailer.getInt() != MAGIC || footerOffset < HEADER_SIZE
+                    || footerOffset > size - TRAILER_SIZE) {
+                throw new IOException(file + " is not a log segment");
+            }
+            if (header.getShort() != VERSION) {
+                throw new IOException(file + " has an unsupported segment version");
+            }
+            int sequence = header.getInt();
+            boolean headerRecord = header.get() != 0;
+
+            ByteBuffer footer = ByteBuffer.allocate((int) (size - TRAILER_SIZE - footerOffset));
+            readFully(channel, footer, footerOffset);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer.array()))) {
+                String[] eventNames = new String[in.readInt()];
+                for (int e = 0; e < eventNames.length; e++) {
+                    eventNames[e] = in.readUTF();
+                }
+                long days = in.readLong();
+                int lowestDay = in.readInt();
+                int highestDay = in.readInt();
+                long rawBytes = in.readLong();
+                double[] weights = new double[eventNames.length];
+                double[] means = new double[eventNames.length];
+                double[] m2s = new double[eventNames.length];
+                for (int e = 0; e < eventNames.length; e++) {
+                    weights[e] = in.readDouble();
+                    means[e] = in.readDouble();
+                    m2s[e] = in.readDouble();
+                }
+
+                int noOfBlocks = in.readInt();
+                List<Block> blocks = new ArrayList<>(noOfBlocks);
+                for (int b = 0; b < noOfBlocks; b++) {
+                    long offset = in.readLong();
+                    int compressedLength = in.readInt();
+                    int rawLength = in.readInt();
+                    int crc = in.readInt();
+                    DayIndex.Block summary = new DayIndex.Block(0, eventNames.length);
+                    summary.lowestDay = in.readInt();
+                    summary.highestDay = in.readInt();
+                    summary.days = in.readInt();
+                    for (int e = 0; e < eventNames.length; e++) {
+                        summary.counts[e] = in.readLong();
+                        summary.minimums[e] = in.readDouble();
+                        summary.maximums[e] = in.readDouble();
+                        summary.sums[e] = in.readDouble();
+                    }
+                    blocks.add(new Block(offset, compressedLength, rawLength, crc, summary));
+                }
+                return new Segment(file, sequence, headerRecord, eventNames, days, lowestDay, highestDay, rawBytes,
+                        size, weights, means, m2s, blocks);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Builds the block ranges and summaries (through DayIndex) and the Welford sums,
+    // leaving the header record out of the sums when the segment holds it
+    private static final class SegmentCollector implements LogParser.Handler {
+        final DayIndex.Builder index;
+        private boolean skipRecord;
+        RunningStats stats;
+        long days;
+        int lowestDay = Integer.MAX_VALUE;
+        int highestDay = Integer.MIN_VALUE;
+
+        SegmentCollector(String logFile, boolean headerRecord) {
+            this.index = new DayIndex.Builder(logFile, null, new ArrayList<>());
+            this.skipRecord = headerRecord;
+        }
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            index.schema(eventNames, eventTypes);
+            stats = new RunningStats(Arrays.asList(eventNames));
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            index.startDay(day, offset);
+            days++;
+            lowestDay = Math.min(lowestDay, day);
+            highestDay = Math.max(highestDay, day);
+        }
+
+        @Override
+        public void value(int event, double value) {
+            index.value(event, value);
+            if (!skipRecord) {
+                stats.add(event, value);
+            }
+        }
+
+        @Override
+        public void endDay() {
+            skipRecord = false;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Crash-safe appender for text logs. Every Day record goes out with a frame line in
+// front of it:
+//
+//   #<record length, 8 hex digits>:<CRC32 of the record, 8 hex digits>
+//   Day N
+//   ...
+//
+// Readers skip lines that are not Day headers, so framed logs parse as before.
+// Records are gathered in memory and written with one channel write per group;
+// every syncRecords records the group is also forced to disk and the synced
+// length is checkpointed in <log>.ckpt. A group that fails part way, or is rolled
+// back, is cut off again, so the log only ever grows by whole commits.
+//
+// Opening a log takes an exclusive lock on it and recovers it: frames after the
+// checkpoint are checked and the log is cut back to the end of the last whole
+// record. Until then a crash mid-write can leave a torn last record, which readers
+// skip (see LogParser.parse).
+public class LogWriter implements Closeable {
+
+    public static final String CHECKPOINT_EXTENSION = ".ckpt";
+
+    // Records between fsyncs (-Dids.log.syncRecords); 0 syncs only on close
+    public static final int SYNC_RECORDS = Integer.getInteger("ids.log.syncRecords", 0);
+
+    // Bytes gathered before a group is written
+    private static final int GROUP_BYTES = 1 << 20;
+    // '#', 8 hex digits, ':', 8 hex digits, '\n'
+    static final int FRAME_SIZE = 19;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel channel;
+    private final FileChannel checkpoint;
+    private final int syncRecords;
+    private final CRC32 crc = new CRC32();
+
+    private byte[] group = new byte[GROUP_BYTES];
+    private int groupLength;
+    private char[] chars = new char[256];
+    // Log length once the gathered group is written
+    private long size;
+    private long written;
+    // Log length at the last commit, which failed and rolled back groups return to
+    private long committed;
+    private int unsyncedRecords;
+    // Records not yet synced as of the last commit, restored along with it
+    private int committedUnsynced;
+
+    private LogWriter(FileChannel channel, FileChannel checkpoint, int syncRecords) throws IOException {
+        this.channel = channel;
+        this.checkpoint = checkpoint;
+        this.syncRecords = syncRecords;
+        this.written = channel.size();
+        this.size = written;
+        this.committed = written;
+    }
+
+    // Recovers the log (creating it if needed) and opens it for appending
+    public static LogWriter open(String logFile) throws IOException {
+        return open(logFile, SYNC_RECORDS);
+    }
+
+    public static LogWriter open(String logFile, int syncRecords) throws IOException {
+        if (syncRecords < 0) {
+            throw new IllegalArgumentException("Sync interval must be 0 or more records: " + syncRecords);
+        }
+        FileChannel channel = FileChannel.open(Paths.get(logFile), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel checkpoint = null;
+        try {
+            if (tryLock(channel) == null) {
+                throw new IOException(logFile + " is already open for writing elsewhere");
+            }
+            checkpoint = FileChannel.open(Paths.get(checkpointFile(logFile)), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long end = recover(logFile, channel, checkpoint);
+            channel.position(end);
+            LogWriter writer = new LogWriter(channel, checkpoint, syncRecords);
+            writer.saveCheckpoint();
+            return writer;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            throw e;
+        }
+    }
+
+    // Null when another process holds the lock; another writer in this JVM counts too
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // Opens the log (creating it if needed) under the lock a writer holds, for whoever
+    // moves or replaces it; fails while a writer has it open, and keeps writers out
+    // until the returned channel is closed
+    static FileChannel lockExclusively(String logFile) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(logFile), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (tryLock(channel) == null) {
+                throw new IOException(logFile + " is open for writing; close its writer first");
+            }
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Empties a log (creating it if needed) along with its checkpoint. The log is
+    // replaced by a new empty file rather than truncated in place, so readers that
+    // still have the old one open or mapped see it unchanged instead of faulting on
+    // pages that are gone.
+    public static void truncate(String logFile) throws IOException {
+        Files.deleteIfExists(Paths.get(checkpointFile(logFile)));
+        Path empty = Paths.get(logFile + ".new");
+        try (FileChannel channel = FileChannel.open(empty, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.force(true);
+        }
+        Files.move(empty, Paths.get(logFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static String checkpointFile(String logFile) {
+        return logFile + CHECKPOINT_EXTENSION;
+    }
+
+    // Log length including records not yet written; the offset the next record's frame starts at
+    public long size() {
+        return size;
+    }
+
+    // Adds one whole Day record (ending in a newline) to the current group and returns
+    // the offset its Day header will have in the log. A large group is written as it
+    // grows, but stays uncommitted until commit.
+    public long append(CharSequence text) throws IOException {
+        int chars = text.length();
+        // Room for the longest UTF-8 encoding; the record is written straight into the group
+        if (groupLength + FRAME_SIZE + 3L * chars > group.length) {
+            writeGroup();
+            if (FRAME_SIZE + 3 * chars > group.length) {
+                group = new byte[FRAME_SIZE + 3 * chars];
+            }
+        }
+        int p = groupLength;
+        int length = encode(text, chars, group, p + FRAME_SIZE);
+        crc.reset();
+        crc.update(group, p + FRAME_SIZE, length);
+
+        group[p] = '#';
+        putHex(group, p + 1, length);
+        group[p + 9] = ':';
+        putHex(group, p + 10, (int) crc.getValue());
+        group[p + 18] = '\n';
+        groupLength += FRAME_SIZE + length;
+
+        long offset = size + FRAME_SIZE;
+        size += FRAME_SIZE + length;
+        unsyncedRecords++;
+        return offset;
+    }
+
+    // Writes the gathered group, and syncs it once syncRecords records are waiting for that
+    public void commit() throws IOException {
+        writeGroup();
+        committed = written;
+        committedUnsynced = unsyncedRecords;
+        if (syncRecords > 0 && unsyncedRecords >= syncRecords) {
+            sync();
+        }
+    }
+
+    // Writes and syncs everything appended so far, committing it
+    public void sync() throws IOException {
+        writeGroup();
+        committed = written;
+        channel.force(false);
+        unsyncedRecords = 0;
+        committedUnsynced = 0;
+        saveCheckpoint();
+    }
+
+    // Drops every record appended since the last commit, including any already written
+    public void rollback() throws IOException {
+        groupLength = 0;
+        cutBack();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+            checkpoint.close();
+        }
+    }
+
+    // A group that cannot be written whole is dropped, along with everything since the
+    // last commit that reached the log
+    private void writeGroup() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(group, 0, groupLength);
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            written += groupLength;
+        } catch (IOException e) {
+            try {
+                cutBack();
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+            }
+            throw e;
+        } finally {
+            groupLength = 0;
+        }
+    }
+
+    private void cutBack() throws IOException {
+        size = committed;
+        written = committed;
+        unsyncedRecords = committedUnsynced;
+        channel.truncate(committed);
+        channel.position(committed);
+    }
+
+    // Synced length and its fingerprint, overwritten in place; a torn checkpoint does
+    // not match the log and only means recovery checks the whole log
+    private void saveCheckpoint() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putLong(written).putLong(IncrementalAnalysis.fingerprint(channel, written)).flip();
+        while (bytes.hasRemaining()) {
+            checkpoint.write(bytes, bytes.position());
+        }
+    }
+
+    // Writes the UTF-8 bytes of the record at out[at] and returns how many there are.
+    // Day records are almost always ASCII, which is checked and narrowed in two plain
+    // loops over a copy of the chars.
+    private int encode(CharSequence text, int length, byte[] out, int at) {
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        String string = null;
+        if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(0, length, chars, 0);
+        } else {
+            string = text.toString();
+            string.getChars(0, length, chars, 0);
+        }
+
+        int bits = 0;
+        for (int i = 0; i < length; i++) {
+            bits |= chars[i];
+        }
+        if (bits < 0x80) {
+            for (int i = 0; i < length; i++) {
+                out[at + i] = (byte) chars[i];
+            }
+            return length;
+        }
+
+        byte[] bytes = (string != null ? string : text.toString()).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, out, at, bytes.length);
+        return bytes.length;
+    }
+
+    private static void putHex(byte[] bytes, int at, int value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[at + i] = HEX[value & 0xF];
+            value >>>= 4;
+        }
+    }
+
+    // Cuts the log back to the end of its last whole record and returns that length
+    static long recover(String logFile, FileChannel channel, FileChannel checkpoint) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        if (checkpoint.size() >= 16) {
+            ByteBuffer bytes = ByteBuffer.allocate(16);
+            while (bytes.hasRemaining()) {
+                if (checkpoint.read(bytes, bytes.position()) < 0) {
+                    break;
+                }
+            }
+            bytes.flip();
+            long synced = bytes.getLong();
+            long fingerprint = bytes.getLong();
+            if (synced >= 0 && synced <= size && IncrementalAnalysis.fingerprint(channel, synced) == fingerprint) {
+                start = synced;
+            }
+        }
+
+        long end = checkFrames(channel, start, size);
+        if (end < size) {
+            System.err.println("Recovered " + logFile + ": dropped " + (size - end)
+                    + " bytes of an incomplete record at offset " + end);
+            channel.truncate(end);
+            channel.force(true);
+        }
+        return end;
+    }
+
+    // Offset just after the last whole record from start on. Framed records must be
+    // complete and match their checksums; unframed text (logs written before frames
+    // were added, or by other tools) is checked by parsing it.
+    private static long checkFrames(FileChannel channel, long start, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        long position = start;
+        while (position < size) {
+            long length = Math.min(LogParser.SEGMENT_SIZE, size - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int p = 0;
+            while (p < length) {
+                if (buffer.get(p) != '#') {
+                    return LogParser.parse(channel, position + p, size, false, (event, value) -> {
+                    });
+                }
+                if (p + FRAME_SIZE > length) {
+                    break;
+                }
+                long recordLength = parseHex(buffer, p + 1);
+                long checksum = parseHex(buffer, p + 10);
+                if (recordLength < 0 || checksum < 0 || buffer.get(p + 9) != ':' || buffer.get(p + 18) != '\n') {
+                    return position + p; // Not a frame; a torn one or something else
+                }
+                if (p + FRAME_SIZE + recordLength > length) {
+                    break;
+                }
+                ByteBuffer body = buffer.duplicate();
+                body.limit(p + FRAME_SIZE + (int) recordLength).position(p + FRAME_SIZE);
+                crc.reset();
+                crc.update(body);
+                if (crc.getValue() != checksum) {
+                    return position + p;
+                }
+                p += FRAME_SIZE + (int) recordLength;
+            }
+            if (position + length >= size) {
+                return position + p; // The last frame runs past the end of the log
+            }
+            if (p == 0) {
+                throw new IOException("Day record at offset " + position + " is larger than the mapping segment");
+            }
+            position += p;
+        }
+        return position;
+    }
+
+    // Eight lowercase hex digits, or -1 if they are not
+    private static long parseHex(ByteBuffer buffer, int at) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            int c = buffer.get(at + i);
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// Scores days by weighted Mahalanobis distance from the baseline means:
+//
+//   score = sqrt(d^T W P W d),  d = x - mean, P = inverse covariance, W = diag(weights)
+//
+// Events that normally rise and fall together add up to much less than their
+// separate z-scores would, while a day that breaks their usual relation scores more.
+// For a single event moving on its own with no correlations the score is its weighted
+// z-score, as in ScoringKernel, but over many events it is the length of the weighted
+// z-scores rather than their sum, so AlertEngine.calculateThreshold sets a lower,
+// chi-based threshold in this mode.
+//
+// W P W is factored once as L L^T, so a score is the length of L^T d. Batches are
+// scored BLOCK_DAYS at a time: the block is transposed to one row of deviations per
+// event and L^T is applied as multiply-adds across the days, loops with no dependence
+// between iterations that the JIT can vectorise. A day costs about n^2 / 2 multiply-adds
+// (5,000 at 100 events), so large batches are also split into runs of whole blocks
+// scored on the common fork/join pool, one core per run.
+public class MahalanobisKernel extends ScoringKernel {
+
+    // Days scored together; the block's deviations (events x BLOCK_DAYS) stay in cache
+    static final int BLOCK_DAYS = 128;
+
+    // Multiply-adds a batch needs before splitting it across cores pays for the tasks
+    private static final long TASK_WORK = 1 << 21;
+
+    private final int noOfEvents;
+    private final double[] means;
+    // W P W, row-major
+    private final double[] weightedPrecision;
+    // L^T, row-major; row k is zero before column k
+    private final double[] upper;
+
+    public MahalanobisKernel(double[] weights, double[] means, double[] stdDevs, double[] precision) {
+        super(weights, means, stdDevs);
+        int n = means.length;
+        if (precision.length != n * n) {
+            throw new IllegalArgumentException("Inverse covariance must be " + n + " x " + n);
+        }
+
+        this.noOfEvents = n;
+        this.means = means.clone();
+        this.weightedPrecision = new double[n * n];
+        double[][] matrix = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                // Averaged with its mirror, so rounding in the file cannot make it asymmetric
+                double value = weights[i] * weights[j] * (precision[i * n + j] + precision[j * n + i]) / 2;
+                weightedPrecision[i * n + j] = value;
+                matrix[i][j] = value;
+            }
+        }
+
+        double[][] factor = Matrices.cholesky(matrix, "Inverse covariance");
+        this.upper = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k <= i; k++) {
+                upper[k * n + i] = factor[i][k];
+            }
+        }
+    }
+
+    @Override
+    void scoreRows(double[] matrix, int days, double[] totals) {
+        if (Runtime.getRuntime().availableProcessors() > 1 && work(days) >= 2 * TASK_WORK) {
+            new BlocksTask(matrix, 0, days, totals).invoke();
+        } else {
+            scoreBlocks(matrix, 0, days, totals);
+        }
+    }
+
+    private long work(int days) {
+        return (long) days * noOfEvents * noOfEvents / 2;
+    }
+
+    // Scores days from..to (exclusive) a block at a time
+    private void scoreBlocks(double[] matrix, int from, int to, double[] totals) {
+        int n = noOfEvents;
+        double[] deviations = new double[n * BLOCK_DAYS];
+        double[] whitened0 = new double[BLOCK_DAYS];
+        double[] whitened1 = new double[BLOCK_DAYS];
+        double[] squares = new double[BLOCK_DAYS];
+
+        for (int first = from; first < to; first += BLOCK_DAYS) {
+            int count = Math.min(BLOCK_DAYS, to - first);
+            for (int e = 0; e < n; e++) {
+                double mean = means[e];
+                int base = e * BLOCK_DAYS;
+                for (int b = 0, at = first * n + e; b < count; b++, at += n) {
+                    deviations[base + b] = matrix[at] - mean;
+                }
+            }
+
+            Arrays.fill(squares, 0, count, 0.0);
+            // Rows k and k+1 of L^T at a time, over pairs of events, so every deviation
+            // loaded feeds two multiply-adds and every partial sum stored takes two
+            int k = 0;
+            for (; k + 1 < n; k += 2) {
+                int row0 = k * n;
+                int row1 = row0 + n;
+                double u00 = upper[row0 + k];
+                double u01 = upper[row0 + k + 1];
+                double u11 = upper[row1 + k + 1];
+                int base0 = k * BLOCK_DAYS;
+                int base1 = base0 + BLOCK_DAYS;
+                for (int b = 0; b < count; b++) {
+                    double x0 = deviations[base0 + b];
+                    double x1 = deviations[base1 + b];
+                    whitened0[b] = u00 * x0 + u01 * x1;
+                    whitened1[b] = u11 * x1;
+                }
+
+                int i = k + 2;
+                for (; i + 1 < n; i += 2) {
+                    double a0 = upper[row0 + i];
+                    double a1 = upper[row0 + i + 1];
+                    double c0 = upper[row1 + i];
+                    double c1 = upper[row1 + i + 1];
+                    int source0 = i * BLOCK_DAYS;
+                    int source1 = source0 + BLOCK_DAYS;
+                    for (int b = 0; b < count; b++) {
+                        double x0 = deviations[source0 + b];
+                        double x1 = deviations[source1 + b];
+                        whitened0[b] += a0 * x0 + a1 * x1;
+                        whitened1[b] += c0 * x0 + c1 * x1;
+                    }
+                }
+                if (i < n) {
+                    double a0 = upper[row0 + i];
+                    double c0 = upper[row1 + i];
+                    int source = i * BLOCK_DAYS;
+                    for (int b = 0; b < count; b++) {
+                        double x = deviations[source + b];
+                        whitened0[b] += a0 * x;
+                        whitened1[b] += c0 * x;
+                    }
+                }
+
+                for (int b = 0; b < count; b++) {
+                    squares[b] += whitened0[b] * whitened0[b] + whitened1[b] * whitened1[b];
+                }
+            }
+            if (k < n) {
+                // The last row of L^T only has its diagonal
+                double diagonal = upper[k * n + k];
+                int base = k * BLOCK_DAYS;
+                for (int b = 0; b < count; b++) {
+                    double whitened = diagonal * deviations[base + b];
+                    squares[b] += whitened * whitened;
+                }
+            }
+
+            for (int b = 0; b < count; b++) {
+                totals[first + b] = Math.sqrt(squares[b]);
+            }
+        }
+    }
+
+    // Halves a run of days on block boundaries until each half is worth a task of its own
+    private class BlocksTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[] matrix;
+        private final int from;
+        private final int to;
+        private final double[] totals;
+
+        BlocksTask(double[] matrix, int from, int to, double[] totals) {
+            this.matrix = matrix;
+            this.from = from;
+            this.to = to;
+            this.totals = totals;
+        }
+
+        @Override
+        protected void compute() {
+            int days = to - from;
+            if (days <= BLOCK_DAYS || work(days) < 2 * TASK_WORK) {
+                scoreBlocks(matrix, from, to, totals);
+                return;
+            }
+            int middle = from + (days / 2 + BLOCK_DAYS - 1) / BLOCK_DAYS * BLOCK_DAYS;
+            invokeAll(new BlocksTask(matrix, from, middle, totals), new BlocksTask(matrix, middle, to, totals));
+        }
+    }
+
+    @Override
+    public double scoreDay(double[] values, int offset) {
+        int n = noOfEvents;
+        double sum = 0.0;
+        for (int k = 0; k < n; k++) {
+            int rowK = k * n;
+            double whitened = 0.0;
+            for (int i = k; i < n; i++) {
+                whitened += upper[rowK + i] * (values[offset + i] - means[i]);
+            }
+            sum += whitened * whitened;
+        }
+        return Math.sqrt(sum);
+    }
+
+    // Event i's share is d_i (W P W d)_i / score. The shares add up to the score; an
+    // event can have a negative share when its deviation is what its correlations
+    // with the others predict.
+    @Override
+    public double[] contributions(double[] values, int offset, double[] out) {
+        int n = noOfEvents;
+        double squared = 0.0;
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            double product = 0.0;
+            for (int j = 0; j < n; j++) {
+                product += weightedPrecision[row + j] * (values[offset + j] - means[j]);
+            }
+            out[i] = (values[offset + i] - means[i]) * product;
+            squared += out[i];
+        }
+
+        double score = Math.sqrt(Math.max(0.0, squared));
+        for (int i = 0; i < n; i++) {
+            out[i] = score > 0 ? out[i] / score : 0.0;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,78 @@
+// Small dense linear algebra on symmetric matrices held as double[row][column]:
+// enough for correlated simulation (DataGenerator) and Mahalanobis scoring
+// (AnalysisEngine, MahalanobisKernel), with no library behind it.
+final class Matrices {
+
+    // A pivot this small relative to its diagonal entry is rounding error on a
+    // singular matrix and is taken as zero
+    private static final double PIVOT_EPSILON = 1e-10;
+
+    private Matrices() {
+    }
+
+    // Lower triangular L with L * L^T = matrix. A positive semi-definite matrix that is
+    // singular (e.g. two events that always move together) gets zero columns where it
+    // has no more rank; anything else throws IllegalArgumentException, naming the matrix.
+    static double[][] cholesky(double[][] matrix, String name) {
+        int n = matrix.length;
+        double[][] factor = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            if (matrix[i].length != n) {
+                throw new IllegalArgumentException(name + " must be square");
+            }
+            for (int j = 0; j <= i; j++) {
+                double sum = matrix[i][j];
+                for (int k = 0; k < j; k++) {
+                    sum -= factor[i][k] * factor[j][k];
+                }
+                if (i == j) {
+                    double scale = Math.max(Math.abs(matrix[i][i]), Double.MIN_NORMAL);
+                    if (sum < -1e-8 * scale) {
+                        throw new IllegalArgumentException(name + " is not positive semi-definite");
+                    }
+                    factor[i][i] = sum > PIVOT_EPSILON * scale ? Math.sqrt(sum) : 0.0;
+                } else {
+                    factor[i][j] = factor[j][j] > 0 ? sum / factor[j][j] : 0.0;
+                }
+            }
+        }
+        return factor;
+    }
+
+    // Inverse of a symmetric positive definite matrix, through its Cholesky factor
+    static double[][] invert(double[][] matrix, String name) {
+        int n = matrix.length;
+        double[][] factor = cholesky(matrix, name);
+        for (int i = 0; i < n; i++) {
+            if (factor[i][i] == 0.0) {
+                throw new IllegalArgumentException(name + " is singular");
+            }
+        }
+
+        // Invert L by forward substitution, then inverse = L^-T * L^-1
+        double[][] lowerInverse = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            lowerInverse[i][i] = 1.0 / factor[i][i];
+            for (int j = 0; j < i; j++) {
+                double sum = 0.0;
+                for (int k = j; k < i; k++) {
+                    sum -= factor[i][k] * lowerInverse[k][j];
+                }
+                lowerInverse[i][j] = sum / factor[i][i];
+            }
+        }
+
+        double[][] inverse = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = 0.0;
+                for (int k = i; k < n; k++) {
+                    sum += lowerInverse[k][i] * lowerInverse[k][j];
+                }
+                inverse[i][j] = sum;
+                inverse[j][i] = sum;
+            }
+        }
+        return inverse;
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms for the IDS pipeline, exported in the
+// Prometheus text format. Recording is a LongAdder or AtomicLongArray increment, so
+// hot loops add to them once per batch rather than once per value.
+public class Metrics {
+
+    private static final List<Counter> counters = new ArrayList<>();
+    private static final List<Histogram> histograms = new ArrayList<>();
+
+    public static final Counter PARSED_BYTES = counter("ids_parsed_bytes_total", "Bytes of text or binary log parsed");
+    public static final Counter PARSED_DAYS = counter("ids_parsed_days_total", "Day records parsed");
+    public static final Histogram PARSE_SECONDS = histogram("ids_parse_seconds", "Time to parse one log range");
+    public static final Counter GENERATED_EVENTS = counter("ids_generated_events_total",
+            "Event columns generated by the activity simulation");
+    public static final Counter GENERATION_CORRECTION_ROUNDS = counter("ids_generation_correction_rounds_total",
+            "Correction rounds needed to bring generated samples within tolerance");
+    public static final Counter GENERATION_UNCONVERGED = counter("ids_generation_unconverged_total",
+            "Generated event columns that settled for their closest attempt");
+    public static final Counter SCORED_DAYS = counter("ids_scored_days_total", "Days scored against a baseline");
+    public static final Histogram SCORE_DAY_SECONDS = histogram("ids_score_day_seconds", "Time to score one day");
+    public static final Counter ALERTS = counter("ids_alerts_total", "Days flagged as anomalous");
+    public static final Counter INGESTED_RECORDS = counter("ids_ingested_records_total",
+            "Day records appended through POST /ingest");
+    public static final Counter INGEST_REJECTED = counter("ids_ingest_rejected_records_total",
+            "Day records turned away because the ingest queue was full");
+    public static final Histogram INGEST_COMMIT_SECONDS = histogram("ids_ingest_commit_seconds",
+            "Time to write, sync and score one ingest group");
+
+    // When set (-Dids.metrics.console=true) the metrics are printed to stderr on exit
+    static {
+        if (Boolean.getBoolean("ids.metrics.console")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(prometheus())));
+        }
+    }
+
+    public static final class Counter {
+        final String name;
+        final String help;
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // Log-linear histogram of nanosecond values in the style of HdrHistogram: every
+    // power of two is split into SUB_BUCKETS linear buckets, so a recorded value is
+    // off by at most 1/SUB_BUCKETS (about 3%) whatever its magnitude
+    public static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        final String name;
+        final String help;
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) << SUB_BITS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        Histogram(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public void record(long nanos) {
+            record(nanos, 1);
+        }
+
+        // Records the same value several times, e.g. the per-day average of a batch
+        public void record(long nanos, long times) {
+            long value = Math.max(0, nanos);
+            buckets.addAndGet(index(value), times);
+            count.add(times);
+            sum.add(value * times);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        // Upper bound of the bucket holding the given quantile, in nanoseconds
+        public long valueAtQuantile(double quantile) {
+            long[] snapshot = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return lowest(i + 1) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return ((shift + 1) << SUB_BITS) + sub;
+        }
+
+        static long lowest(int index) {
+            int bucket = index >>> SUB_BITS;
+            int sub = index & (SUB_BUCKETS - 1);
+            return bucket == 0 ? sub : (long) (SUB_BUCKETS + sub) << (bucket - 1);
+        }
+    }
+
+    public static synchronized Counter counter(String name, String help) {
+        Counter counter = new Counter(name, help);
+        counters.add(counter);
+        return counter;
+    }
+
+    public static synchronized Histogram histogram(String name, String help) {
+        Histogram histogram = new Histogram(name, help);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    // All metrics in the Prometheus text exposition format; histograms are exported as
+    // summaries with a few fixed quantiles, in seconds
+    public static synchronized String prometheus() {
+        StringBuilder out = new StringBuilder();
+        for (Counter counter : counters) {
+            out.append("# HELP ").append(counter.name).append(' ').append(counter.help).append('\n');
+            out.append("# TYPE ").append(counter.name).append(" counter\n");
+            out.append(counter.name).append(' ').append(counter.get()).append('\n');
+        }
+        for (Histogram histogram : histograms) {
+            out.append("# HELP ").append(histogram.name).append(' ').append(histogram.help).append('\n');
+            out.append("# TYPE ").append(histogram.name).append(" summary\n");
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                out.append(String.format(Locale.ROOT, "%s{quantile=\"%s\"} %.9g\n",
+                        histogram.name, quantile, histogram.valueAtQuantile(quantile) / 1e9));
+            }
+            out.append(String.format(Locale.ROOT, "%s_sum %.9g\n", histogram.name, histogram.sum.sum() / 1e9));
+            out.append(histogram.name).append("_count ").append(histogram.getCount()).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Multi-user pipeline: logs whose Day records carry a user id ("Day N:<user>")
+// are folded into per-user baselines and scored for every user in one pass
+public class MultiUserEngine {
+
+    // One entry of a top-N ranking
+    public static class UserScore {
+        public final String user;
+        public final double score;
+
+        UserScore(String user, double score) {
+            this.user = user;
+            this.score = score;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: MultiUserEngine <user log file> <day> [top N] [events file]");
+            System.exit(1);
+        }
+
+        try {
+            UserBaselines baselines = buildBaselines(args[0]);
+            int day = Integer.parseInt(args[1]);
+            int n = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            List<Integer> weights = args.length > 3
+                    ? StreamingAlertEngine.readWeights(args[3])
+                    : StreamingAlertEngine.defaultWeights(baselines.getEventCount());
+
+            System.out.println("Baselines built for " + baselines.getUsers().size() + " users.\n");
+            for (UserScore score : topAnomalous(args[0], baselines, weights, day, n)) {
+                System.out.printf("%s anomaly count = %.2f%n", score.user, score.score);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Builds a baseline per user from every record of a multi-user log
+    public static UserBaselines buildBaselines(String filename) throws IOException {
+        UserDictionary users = new UserDictionary();
+        UserBaselines[] baselines = new UserBaselines[1];
+
+        LogParser.parse(filename, new UserRecordHandler(users, true) {
+            @Override
+            public void schema(String[] eventNames, char[] eventTypes) {
+                super.schema(eventNames, eventTypes);
+                baselines[0] = new UserBaselines(users, Arrays.asList(eventNames));
+            }
+
+            @Override
+            void record(int user, int day, double[] values) {
+                baselines[0].add(user, values, 0);
+            }
+        });
+
+        if (baselines[0] == null) {
+            throw new IOException("No Day records found in " + filename);
+        }
+        return baselines[0];
+    }
+
+    // Scores every user's record for the given day in a single pass and returns the
+    // n highest totals, highest first. Users without a baseline are skipped.
+    public static List<UserScore> topAnomalous(String filename, UserBaselines baselines, List<Integer> weights,
+                                               int day, int n) throws IOException {
+        double[] eventWeights = new double[weights.size()];
+        for (int i = 0; i < eventWeights.length; i++) {
+            eventWeights[i] = weights.get(i);
+        }
+        baselines.prepareScoring(eventWeights);
+
+        // Min-heap of the best n scores so far, kept in primitive arrays
+        double[] heapScores = new double[n];
+        int[] heapUsers = new int[n];
+        int[] heapSize = new int[1];
+
+        LogParser.parse(filename, new UserRecordHandler(baselines.getUsers(), false) {
+            @Override
+            void record(int user, int recordDay, double[] values) {
+                if (recordDay != day || user < 0) {
+                    return;
+                }
+                double score = baselines.score(user, values, 0);
+                if (Double.isNaN(score) || n == 0) {
+                    return;
+                }
+                if (heapSize[0] < n) {
+                    heapScores[heapSize[0]] = score;
+                    heapUsers[heapSize[0]] = user;
+                    siftUp(heapScores, heapUsers, heapSize[0]++);
+                } else if (score > heapScores[0]) {
+                    heapScores[0] = score;
+                    heapUsers[0] = user;
+                    siftDown(heapScores, heapUsers, heapSize[0]);
+                }
+            }
+        });
+
+        List<UserScore> top = new ArrayList<>();
+        while (heapSize[0] > 0) {
+            top.add(new UserScore(baselines.getUsers().name(heapUsers[0]), heapScores[0]));
+            int last = --heapSize[0];
+            heapScores[0] = heapScores[last];
+            heapUsers[0] = heapUsers[last];
+            siftDown(heapScores, heapUsers, last);
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    private static void siftUp(double[] scores, int[] users, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (scores[parent] <= scores[i]) {
+                break;
+            }
+            swap(scores, users, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(double[] scores, int[] users, int size) {
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && scores[left] < scores[smallest]) {
+                smallest = left;
+            }
+            if (right < size && scores[right] < scores[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(scores, users, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(double[] scores, int[] users, int a, int b) {
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        int user = users[a];
+        users[a] = users[b];
+        users[b] = user;
+    }
+
+    // Collects each record's values and resolves its user id to a dictionary index
+    // (-1 for users that are not in the dictionary when addUsers is false)
+    private abstract static class UserRecordHandler implements LogParser.Handler {
+        private final UserDictionary users;
+        private final boolean addUsers;
+        private double[] values;
+        private boolean hasUser;
+        private int user;
+        private int day;
+
+        UserRecordHandler(UserDictionary users, boolean addUsers) {
+            this.users = users;
+            this.addUsers = addUsers;
+        }
+
+        @Override
+        public void schema(String[] eventNames, char[] eventTypes) {
+            values = new double[eventNames.length];
+        }
+
+        @Override
+        public void user(ByteBuffer buffer, int start, int end) {
+            user = addUsers ? users.intern(buffer, start, end) : users.indexOf(buffer, start, end);
+            hasUser = true;
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            this.day = day;
+        }
+
+        @Override
+        public void value(int event, double value) {
+            values[event] = value;
+        }
+
+        @Override
+        public void endDay() {
+            if (!hasUser) {
+                throw new IllegalStateException("Day " + day + " record has no user id");
+            }
+            record(user, day, values);
+            hasUser = false;
+        }
+
+        abstract void record(int user, int day, double[] values);
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Splits a log file at Day record boundaries and aggregates the chunks on a
+// ForkJoinPool, merging the per-event partial statistics at the end
+public class ParallelAnalysis {
+
+    // Chunks smaller than this are not worth a task of their own
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    // Extra chunks per thread so uneven chunks still balance out
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // Bytes read to check that a line starting with "Day" is a record header
+    private static final int HEADER_CHECK_BYTES = 4096;
+
+    public static RunningStats analyze(String filename, int parallelism) throws IOException {
+        return analyze(filename, parallelism, null);
+    }
+
+    // As above, reporting bytes and days consumed to progress (which may be null)
+    public static RunningStats analyze(String filename, int parallelism, AnalysisProgress progress) throws IOException {
+        return analyze(filename, parallelism, progress, true);
+    }
+
+    // As above; headerRecord says whether the log's first record only supplies the event
+    // names (it does not once earlier records were rolled over into LogSegments)
+    static RunningStats analyze(String filename, int parallelism, AnalysisProgress progress, boolean headerRecord) throws IOException {
+        // The thread count can come from a request; more threads than cores only cost memory
+        parallelism = Math.max(1, Math.min(parallelism, Runtime.getRuntime().availableProcessors()));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+             FileChannel channel = file.getChannel()) {
+            List<Long> boundaries = findBoundaries(channel, parallelism * CHUNKS_PER_THREAD);
+            RunningStats stats = pool.invoke(
+                    new ChunkTask(channel, boundaries, 0, boundaries.size() - 1, progress, headerRecord));
+
+            if (stats == null) {
+                throw new IOException("No Day records found in " + filename);
+            }
+            return stats;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Picks chunk start offsets, each moved forward to the next Day header
+    static List<Long> findBoundaries(FileChannel channel, int chunks) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, size / Math.max(1, chunks));
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        for (long target = chunkSize; target < size; target += chunkSize) {
+            long boundary = nextDayRecord(channel, target, size);
+            if (boundary > boundaries.get(boundaries.size() - 1) && boundary < size) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    private static long nextDayRecord(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_CHECK_BYTES);
+        long position = from - 1; // Include the preceding byte so a boundary on a line start is found
+        byte[] window = new byte[4];
+        int filled = 0;
+
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                // Slide a four byte window looking for "\nDay", then make sure the line is a
+                // header and not an event whose name starts with "Day"
+                window[0] = window[1];
+                window[1] = window[2];
+                window[2] = window[3];
+                window[3] = buffer.get(i);
+                if (++filled >= 4 && window[0] == '\n' && window[1] == 'D' && window[2] == 'a' && window[3] == 'y') {
+                    long candidate = position + i - 2;
+                    header.clear();
+                    channel.read(header, candidate);
+                    header.flip();
+                    if (isDayHeader(header)) {
+                        return candidate;
+                    }
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // Whether the buffer starts with a "Day N" or "Day N:<user id>" line followed by a
+    // line holding only the event count
+    static boolean isDayHeader(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int p = 3;
+        if (p >= limit || buffer.get(p) != ' ') {
+            return false;
+        }
+        while (p < limit && buffer.get(p) == ' ') {
+            p++;
+        }
+        int digits = p;
+        while (p < limit && isDigit(buffer.get(p))) {
+            p++;
+        }
+        if (p == digits) {
+            return false;
+        }
+        if (p < limit && buffer.get(p) == ':') {
+            while (p < limit && buffer.get(p) != '\n') {
+                p++;
+            }
+        }
+        p = lineBreak(buffer, p, limit);
+        if (p < 0) {
+            return false;
+        }
+
+        while (p < limit && buffer.get(p) == ' ') {
+            p++;
+        }
+        digits = p;
+        while (p < limit && isDigit(buffer.get(p))) {
+            p++;
+        }
+        return p > digits && lineBreak(buffer, p, limit) >= 0;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // The position after the line break (optionally preceded by spaces or '\r') at p, or -1
+    private static int lineBreak(ByteBuffer buffer, int p, int limit) {
+        while (p < limit && (buffer.get(p) == ' ' || buffer.get(p) == '\r')) {
+            p++;
+        }
+        return p < limit && buffer.get(p) == '\n' ? p + 1 : -1;
+    }
+
+    private static class ChunkTask extends RecursiveTask<RunningStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final List<Long> boundaries;
+        private final int from;
+        private final int to;
+        private final AnalysisProgress progress;
+        private final boolean headerRecord;
+
+        ChunkTask(FileChannel channel, List<Long> boundaries, int from, int to, AnalysisProgress progress,
+                  boolean headerRecord) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+            this.progress = progress;
+            this.headerRecord = headerRecord;
+        }
+
+        @Override
+        protected RunningStats compute() {
+            if (to - from == 1) {
+                return parseChunk();
+            }
+
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, boundaries, from, middle, progress, headerRecord);
+            ChunkTask right = new ChunkTask(channel, boundaries, middle, to, progress, headerRecord);
+            left.fork();
+            RunningStats rightStats = right.compute();
+            RunningStats leftStats = left.join();
+
+            if (leftStats == null) {
+                return rightStats;
+            }
+            if (rightStats != null) {
+                leftStats.merge(rightStats);
+            }
+            return leftStats;
+        }
+
+        private RunningStats parseChunk() {
+            // Only the first chunk holds the header record that readLogs skips
+            AnalysisEngine.StatsCollector collector = new AnalysisEngine.StatsCollector(from == 0 && headerRecord, progress,
+                    boundaries.get(from));
+            try {
+                LogParser.parse(channel, boundaries.get(from), boundaries.get(to), true, collector);
+                collector.finish(boundaries.get(to));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return collector.stats;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+// Streaming quantile sketch in the style of KLL (Karnin, Lang and Liberty): values go
+// into a stack of compactors, and a compactor that fills up is sorted and every other
+// item is promoted to the level above with twice the weight. Higher levels are given
+// geometrically more room, so a sketch holds a few times k values however many it has
+// seen, ranks are off by about 1/k of the count, and two sketches merge by
+// concatenating their levels. Until the first compaction it is exact.
+public class QuantileSketch {
+
+    static final int DEFAULT_K = 200;
+
+    // Each level down gets this fraction of the room of the level above
+    private static final double SHRINK = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 8;
+
+    private final int k;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private int retained;
+    private int capacity;
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    // Alternates which half survives a compaction; deterministic so runs are reproducible
+    private boolean keepOdd;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    public QuantileSketch(int k) {
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY);
+        }
+        this.k = k;
+        this.levels[0] = new double[k];
+        this.capacity = k;
+    }
+
+    public void add(double value) {
+        if (count++ == 0) {
+            min = value;
+            max = value;
+        } else if (value < min) {
+            min = value;
+        } else if (value > max) {
+            max = value;
+        }
+
+        if (sizes[0] == levels[0].length) {
+            levels[0] = Arrays.copyOf(levels[0], levels[0].length * 2);
+        }
+        levels[0][sizes[0]++] = value;
+        if (++retained > capacity) {
+            compress();
+        }
+    }
+
+    // Folds another sketch into this one; the other sketch is left unchanged
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+
+        while (levels.length < other.levels.length) {
+            grow();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            int needed = sizes[h] + other.sizes[h];
+            if (levels[h].length < needed) {
+                levels[h] = Arrays.copyOf(levels[h], Math.max(needed, levels[h].length * 2));
+            }
+            System.arraycopy(other.levels[h], 0, levels[h], sizes[h], other.sizes[h]);
+            sizes[h] = needed;
+            retained += other.sizes[h];
+        }
+        while (retained > capacity) {
+            compress();
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    // Approximate value at quantile q (0..1); NaN for an empty sketch
+    public double quantile(double q) {
+        return sorted().quantile(q);
+    }
+
+    // Sorted, weighted copy of the retained values, for reading several quantiles at once
+    public Weighted sorted() {
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n++] = 1L << h;
+            }
+        }
+        return Weighted.of(values, weights);
+    }
+
+    // Values with integer weights, sorted by value
+    public static final class Weighted {
+        final double[] values;
+        final long[] weights;
+        final long total;
+
+        private Weighted(double[] values, long[] weights, long total) {
+            this.values = values;
+            this.weights = weights;
+            this.total = total;
+        }
+
+        static Weighted of(double[] values, long[] weights) {
+            Integer[] order = new Integer[values.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+            double[] sortedValues = new double[values.length];
+            long[] sortedWeights = new long[values.length];
+            long total = 0;
+            for (int i = 0; i < order.length; i++) {
+                sortedValues[i] = values[order[i]];
+                sortedWeights[i] = weights[order[i]];
+                total += sortedWeights[i];
+            }
+            return new Weighted(sortedValues, sortedWeights, total);
+        }
+
+        // The smallest value whose cumulative weight reaches q of the total
+        public double quantile(double q) {
+            if (total == 0) {
+                return Double.NaN;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(1.0, Math.max(0.0, q)) * total));
+            long seen = 0;
+            for (int i = 0; i < values.length; i++) {
+                seen += weights[i];
+                if (seen >= rank) {
+                    return values[i];
+                }
+            }
+            return values[values.length - 1];
+        }
+
+        // Median absolute deviation from centre, read off the same weighted values
+        public double mad(double centre) {
+            double[] deviations = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                deviations[i] = Math.abs(values[i] - centre);
+            }
+            return of(deviations, weights).quantile(0.5);
+        }
+    }
+
+    // Halves the lowest level that is over its share of the room
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] >= levelCapacity(h)) {
+                if (h + 1 == levels.length) {
+                    grow();
+                }
+                compact(h);
+                return;
+            }
+        }
+    }
+
+    private void compact(int h) {
+        double[] level = levels[h];
+        int size = sizes[h];
+        // An odd item out stays behind so the promoted items pair up exactly
+        int pairs = size / 2;
+        Arrays.sort(level, 0, size);
+
+        int above = sizes[h + 1];
+        if (levels[h + 1].length < above + pairs) {
+            levels[h + 1] = Arrays.copyOf(levels[h + 1], Math.max(above + pairs, levels[h + 1].length * 2));
+        }
+        int offset = keepOdd ? 1 : 0;
+        keepOdd = !keepOdd;
+        for (int i = 0; i < pairs; i++) {
+            levels[h + 1][above + i] = level[2 * i + offset];
+        }
+        sizes[h + 1] = above + pairs;
+
+        if (size % 2 == 1) {
+            level[0] = level[size - 1];
+            sizes[h] = 1;
+        } else {
+            sizes[h] = 0;
+        }
+        retained -= pairs;
+    }
+
+    private void grow() {
+        int height = levels.length + 1;
+        levels = Arrays.copyOf(levels, height);
+        sizes = Arrays.copyOf(sizes, height);
+        levels[height - 1] = new double[levelCapacity(height - 1)];
+
+        capacity = 0;
+        for (int h = 0; h < height; h++) {
+            capacity += levelCapacity(h);
+        }
+    }
+
+    // The top level gets k; each level below gets SHRINK times the room of the one above
+    private int levelCapacity(int h) {
+        int depth = levels.length - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(SHRINK, depth)));
+    }
+}
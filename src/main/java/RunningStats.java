@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Per-event running statistics (Welford) held in primitive arrays, so memory
+// stays constant no matter how many days are folded in. Counts are kept as
+// weights so older data can be decayed; they stay exact whole numbers otherwise.
+// With robust set, every event also gets a QuantileSketch for median, MAD and
+// percentiles, which keeps memory bounded as well. With covariance set, whole days
+// (addDay) also update a matrix of co-moments, the multivariate form of the same
+// update, for Mahalanobis scoring.
+public class RunningStats {
+
+    private final String[] eventNames;
+    private final double[] count;
+    private final double[] mean;
+    private final double[] m2;
+    private final QuantileSketch[] sketches;
+
+    // Days behind the co-moments, their per-event means and the upper triangle of the
+    // sums of products of deviations (row-major, n x n); all null without covariance
+    private double dayCount;
+    private final double[] dayMean;
+    private final double[] comoments;
+    private final double[] delta;
+
+    public RunningStats(List<String> eventNames) {
+        this(eventNames, false);
+    }
+
+    public RunningStats(List<String> eventNames, boolean robust) {
+        this(eventNames, robust, false);
+    }
+
+    public RunningStats(List<String> eventNames, boolean robust, boolean covariance) {
+        int noOfEvents = eventNames.size();
+        this.eventNames = eventNames.toArray(new String[0]);
+        this.count = new double[noOfEvents];
+        this.mean = new double[noOfEvents];
+        this.m2 = new double[noOfEvents];
+        this.sketches = robust ? new QuantileSketch[noOfEvents] : null;
+        if (robust) {
+            for (int i = 0; i < noOfEvents; i++) {
+                sketches[i] = new QuantileSketch();
+            }
+        }
+        this.dayMean = covariance ? new double[noOfEvents] : null;
+        this.comoments = covariance ? new double[noOfEvents * noOfEvents] : null;
+        this.delta = covariance ? new double[noOfEvents] : null;
+    }
+
+    // Folds one value into the running mean and sum of squared deviations
+    public void add(int event, double value) {
+        double n = ++count[event];
+        double delta = value - mean[event];
+        mean[event] += delta / n;
+        m2[event] += delta * (value - mean[event]);
+        if (sketches != null) {
+            sketches[event].add(value);
+        }
+    }
+
+    // Folds one whole day (one value per event) into the co-moments; the per-event
+    // statistics still come from add
+    public void addDay(double[] values) {
+        int n = size();
+        double days = ++dayCount;
+        for (int i = 0; i < n; i++) {
+            delta[i] = values[i] - dayMean[i];
+            dayMean[i] += delta[i] / days;
+        }
+        // C += (x - old mean)(x - new mean)^T, upper triangle only
+        for (int i = 0; i < n; i++) {
+            double deltaI = delta[i];
+            int row = i * n;
+            for (int j = i; j < n; j++) {
+                comoments[row + j] += deltaI * (values[j] - dayMean[j]);
+            }
+        }
+    }
+
+    // Merges another partial result into this one (Chan et al. pairwise update)
+    public void merge(RunningStats other) {
+        if (other.size() != size()) {
+            throw new IllegalArgumentException("Cannot merge statistics for " + other.size() + " events into " + size());
+        }
+        if (comoments != null && other.comoments != null) {
+            mergeComoments(other);
+        }
+        if (sketches != null && other.sketches != null) {
+            for (int i = 0; i < size(); i++) {
+                sketches[i].merge(other.sketches[i]);
+            }
+        }
+
+        for (int i = 0; i < size(); i++) {
+            double n = count[i] + other.count[i];
+            if (other.count[i] == 0) {
+                continue;
+            }
+            if (count[i] == 0) {
+                count[i] = other.count[i];
+                mean[i] = other.mean[i];
+                m2[i] = other.m2[i];
+                continue;
+            }
+
+            double delta = other.mean[i] - mean[i];
+            mean[i] += delta * other.count[i] / n;
+            m2[i] += other.m2[i] + delta * delta * (count[i] * other.count[i] / n);
+            count[i] = n;
+        }
+    }
+
+    private void mergeComoments(RunningStats other) {
+        int n = size();
+        double days = dayCount + other.dayCount;
+        if (other.dayCount == 0) {
+            return;
+        }
+        if (dayCount == 0) {
+            dayCount = other.dayCount;
+            System.arraycopy(other.dayMean, 0, dayMean, 0, n);
+            System.arraycopy(other.comoments, 0, comoments, 0, comoments.length);
+            return;
+        }
+
+        double scale = dayCount * other.dayCount / days;
+        for (int i = 0; i < n; i++) {
+            delta[i] = other.dayMean[i] - dayMean[i];
+        }
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            double deltaI = delta[i] * scale;
+            for (int j = i; j < n; j++) {
+                comoments[row + j] += other.comoments[row + j] + deltaI * delta[j];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            dayMean[i] += delta[i] * other.dayCount / days;
+        }
+        dayCount = days;
+    }
+
+    // Scales the weight of everything folded in so far (0 < factor <= 1), leaving the
+    // mean and variance as they are but letting newer data count for more. Sketches
+    // have no notion of weight and are left alone.
+    public void decay(double factor) {
+        for (int i = 0; i < size(); i++) {
+            count[i] *= factor;
+            m2[i] *= factor;
+        }
+        if (comoments != null) {
+            dayCount *= factor;
+            for (int i = 0; i < comoments.length; i++) {
+                comoments[i] *= factor;
+            }
+        }
+    }
+
+    // Restores one event's state, e.g. from a persisted baseline
+    void set(int event, double weight, double mean, double m2) {
+        this.count[event] = weight;
+        this.mean[event] = mean;
+        this.m2[event] = m2;
+    }
+
+    public int size() {
+        return eventNames.length;
+    }
+
+    public List<String> getEventNames() {
+        List<String> names = new ArrayList<>(eventNames.length);
+        for (String name : eventNames) {
+            names.add(name);
+        }
+        return names;
+    }
+
+    public String getEventName(int event) {
+        return eventNames[event];
+    }
+
+    public long getCount(int event) {
+        return Math.round(count[event]);
+    }
+
+    // The (possibly decayed) number of values behind this event's statistics
+    public double getWeight(int event) {
+        return count[event];
+    }
+
+    public double getMean(int event) {
+        return mean[event];
+    }
+
+    public double getM2(int event) {
+        return m2[event];
+    }
+
+    public boolean isRobust() {
+        return sketches != null;
+    }
+
+    // The event's quantile sketch, or null unless the statistics are robust
+    public QuantileSketch getSketch(int event) {
+        return sketches == null ? null : sketches[event];
+    }
+
+    public boolean hasCovariance() {
+        return comoments != null;
+    }
+
+    // Population covariance of two events over the days given to addDay
+    public double getCovariance(int first, int second) {
+        if (dayCount == 0) {
+            return Double.NaN;
+        }
+        int i = Math.min(first, second);
+        int j = Math.max(first, second);
+        return comoments[i * size() + j] / dayCount;
+    }
+
+    // Population variance measured around an arbitrary centre (e.g. the rounded mean)
+    public double getVariance(int event, double centre) {
+        if (count[event] == 0) {
+            return Double.NaN;
+        }
+        double shift = mean[event] - centre;
+        return m2[event] / count[event] + shift * shift;
+    }
+}
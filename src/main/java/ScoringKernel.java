@@ -0,0 +1,127 @@
+import java.util.List;
+
+// Scores day x event matrices against a baseline. The per-event weight / stddev
+// factor is computed once, and rows are scored in an allocation-free loop that
+// keeps four independent partial sums so the JIT can pipeline (and, where it is
+// able, vectorise) the arithmetic. The means and standard deviations can equally be
+// medians and robust scales (see ScoringMode); only the centre and spread matter.
+public class ScoringKernel {
+
+    // MAD times this estimates the standard deviation of normally distributed data
+    static final double MAD_TO_STDDEV = 1.4826;
+
+    // Width of the p1..p99 range of a normal distribution, in standard deviations
+    private static final double P1_P99_WIDTH = 4.6527;
+
+    private final int noOfEvents;
+    private final double[] means;
+    private final double[] factors;
+
+    public ScoringKernel(double[] weights, double[] means, double[] stdDevs) {
+        if (weights.length != means.length || means.length != stdDevs.length) {
+            throw new IllegalArgumentException("Weights, means and standard deviations must have the same length");
+        }
+
+        this.noOfEvents = means.length;
+        this.means = means.clone();
+        this.factors = new double[noOfEvents];
+        for (int i = 0; i < noOfEvents; i++) {
+            factors[i] = factor(weights[i], stdDevs[i]);
+        }
+    }
+
+    // Multiplier applied to |x - mean|. An event that never varied (or has no data) has
+    // no spread to divide by; its deviations are counted in its own units rather than
+    // as Infinity or NaN.
+    static double factor(double weight, double stdDev) {
+        return stdDev > 0 ? weight / stdDev : weight;
+    }
+
+    // Standard-deviation-like scale from MAD, falling back to the p1..p99 range for
+    // events that are constant on more than half of the days
+    static double robustScale(double mad, double p1, double p99) {
+        double scale = mad * MAD_TO_STDDEV;
+        return scale > 0 ? scale : (p99 - p1) / P1_P99_WIDTH;
+    }
+
+    public static ScoringKernel of(List<Integer> weights, List<Double> means, List<Double> stdDevs) {
+        double[] w = new double[weights.size()];
+        double[] m = new double[means.size()];
+        double[] s = new double[stdDevs.size()];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = weights.get(i);
+        }
+        for (int i = 0; i < m.length; i++) {
+            m[i] = means.get(i);
+        }
+        for (int i = 0; i < s.length; i++) {
+            s[i] = stdDevs.get(i);
+        }
+        return new ScoringKernel(w, m, s);
+    }
+
+    public int getEventCount() {
+        return noOfEvents;
+    }
+
+    // The value an event scores nothing at: its mean, or median under robust scoring
+    public double getCentre(int event) {
+        return means[event];
+    }
+
+    // Scores a row-major matrix of days x events and returns the daily totals
+    public double[] score(double[] matrix, int days) {
+        return score(matrix, days, new double[days]);
+    }
+
+    // Scores into a caller-supplied totals array so repeated calls allocate nothing
+    public double[] score(double[] matrix, int days, double[] totals) {
+        if (matrix.length < days * noOfEvents) {
+            throw new IllegalArgumentException("Matrix holds fewer than " + days + " days of " + noOfEvents + " events");
+        }
+        long startTime = System.nanoTime();
+        scoreRows(matrix, days, totals);
+        if (days > 0) {
+            // One clock read per batch; each day is recorded at the batch average
+            Metrics.SCORE_DAY_SECONDS.record((System.nanoTime() - startTime) / days, days);
+            Metrics.SCORED_DAYS.add(days);
+        }
+        return totals;
+    }
+
+    // The scoring loop itself, for kernels that score many days better together
+    void scoreRows(double[] matrix, int days, double[] totals) {
+        for (int day = 0; day < days; day++) {
+            totals[day] = scoreDay(matrix, day * noOfEvents);
+        }
+    }
+
+    // Scores the single day whose values start at offset
+    public double scoreDay(double[] values, int offset) {
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        double sum3 = 0.0;
+
+        int i = 0;
+        for (int end = noOfEvents - 3; i < end; i += 4) {
+            sum0 += Math.abs(values[offset + i] - means[i]) * factors[i];
+            sum1 += Math.abs(values[offset + i + 1] - means[i + 1]) * factors[i + 1];
+            sum2 += Math.abs(values[offset + i + 2] - means[i + 2]) * factors[i + 2];
+            sum3 += Math.abs(values[offset + i + 3] - means[i + 3]) * factors[i + 3];
+        }
+        for (; i < noOfEvents; i++) {
+            sum0 += Math.abs(values[offset + i] - means[i]) * factors[i];
+        }
+
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    // Writes each event's share of the day's score into out, for explaining alerts
+    public double[] contributions(double[] values, int offset, double[] out) {
+        for (int i = 0; i < noOfEvents; i++) {
+            out[i] = Math.abs(values[offset + i] - means[i]) * factors[i];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,33 @@
+// How a day is scored against the baseline, chosen per deployment with
+// -Dids.scoring=mean|robust|mahalanobis (or setCurrent, e.g. from a --scoring flag).
+//
+//   MEAN         |x - mean| / stddev, as AlertEngine has always scored
+//   ROBUST       |x - median| / (1.4826 * MAD), which single outlier days cannot drag
+//                around; the analysis then also sketches median, MAD, p1 and p99
+//   MAHALANOBIS  distance from the means under the events' covariance, so events that
+//                normally rise together are not counted once each; the analysis then
+//                also learns the covariance and stores its inverse (see MahalanobisKernel)
+public enum ScoringMode {
+    MEAN,
+    ROBUST,
+    MAHALANOBIS;
+
+    private static volatile ScoringMode current = parse(System.getProperty("ids.scoring", "mean"));
+
+    public static ScoringMode current() {
+        return current;
+    }
+
+    public static void setCurrent(ScoringMode mode) {
+        current = mode;
+    }
+
+    public static ScoringMode parse(String name) {
+        for (ScoringMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown scoring mode: " + name + ". Must be 'mean', 'robust' or 'mahalanobis'.");
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+// Follows a growing log file and scores each Day record as soon as it is complete,
+// instead of waiting for the whole simulation to be written
+public class StreamingAlertEngine implements Closeable {
+
+    // Fallback poll interval in case the file system does not deliver watch events
+    private static final long POLL_INTERVAL_MS = 250;
+
+    // Receives every scored day as soon as its record is complete
+    public interface Listener {
+        void dayScored(int day, double total, int threshold, boolean flagged);
+    }
+
+    private final Path logFile;
+    private final ScoringKernel kernel;
+    private final int threshold;
+    private final Listener listener;
+    private final WatchService watchService;
+    private volatile boolean running = true;
+    private long offset;
+    // The log read up to offset: its file key (null where the file system has none) and
+    // a fingerprint of the bytes before offset, -1 until the first poll has taken one
+    private Object fileKey;
+    private long fingerprint = -1;
+
+    public StreamingAlertEngine(String logFile, List<Integer> weights, List<Double> means, List<Double> stdDevs,
+                                long startOffset, Listener listener) throws IOException {
+        this(logFile, weights, AlertEngine.meanKernel(weights, means, stdDevs), startOffset, listener);
+    }
+
+    // Scores with any kernel, e.g. one from readKernel for the current scoring mode
+    public StreamingAlertEngine(String logFile, List<Integer> weights, ScoringKernel kernel,
+                                long startOffset, Listener listener) throws IOException {
+        this.logFile = Paths.get(logFile).toAbsolutePath();
+        this.kernel = kernel;
+        this.threshold = AlertEngine.calculateThreshold(weights);
+        this.offset = startOffset;
+        this.listener = listener;
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.logFile.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: StreamingAlertEngine <log file> <baseline stats file> [events file] [--tail]");
+            System.exit(1);
+        }
+
+        try {
+            BaselineCache.Snapshot baseline = readBaseline(args[1]);
+            List<Integer> weights = args.length > 2 && !args[2].equals("--tail")
+                    ? readWeights(args[2]) : defaultWeights(baseline.eventNames.size());
+            ScoringKernel kernel = baseline.kernel(weightArray(weights));
+            boolean tail = args[args.length - 1].equals("--tail");
+            long startOffset = tail && Paths.get(args[0]).toFile().exists() ? Paths.get(args[0]).toFile().length() : 0;
+
+            try (StreamingAlertEngine engine = new StreamingAlertEngine(args[0], weights, kernel, startOffset,
+                    (day, total, threshold, flagged) -> System.out.printf("Day %d anomaly count = %.2f %s%n",
+                            day, total, flagged ? "--- FLAGGED" : ""))) {
+                System.out.println("Following " + args[0] + " (threshold " + engine.threshold + ")...");
+                engine.follow();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Blocks, scoring new records as they are appended, until close() is called
+    public void follow() throws IOException, InterruptedException {
+        poll();
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (ClosedWatchServiceException e) {
+                break;
+            }
+
+            if (key != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // Drain the events; any change in the directory triggers a read below
+                    event.kind();
+                }
+                key.reset();
+            }
+            poll();
+        }
+    }
+
+    // Reads whatever complete records were appended since the last call and scores them
+    public synchronized int poll() throws IOException {
+        if (!logFile.toFile().exists()) {
+            return 0;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(logFile.toFile(), "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            Object key = Files.readAttributes(logFile, BasicFileAttributes.class).fileKey();
+            if (size < offset || replaced(channel, key)) {
+                offset = 0; // The log was truncated or replaced, start again
+            }
+            fileKey = key;
+
+            int scored = 0;
+            if (size > offset) {
+                DayScorer scorer = new DayScorer();
+                offset = LogParser.parse(channel, offset, size, false, scorer);
+                scored = scorer.scored;
+            }
+            fingerprint = IncrementalAnalysis.fingerprint(channel, offset);
+            return scored;
+        }
+    }
+
+    // Whether the log is no longer the one read up to offset, as IncrementalAnalysis
+    // checks its saved state: a new file in its place (e.g. after a rollover), or one
+    // rewritten to at least the old length, which a size check alone would read on from
+    // the middle of
+    private boolean replaced(FileChannel channel, Object key) throws IOException {
+        if (fingerprint < 0) {
+            return false; // Nothing read yet; a --tail start offset is taken as it is
+        }
+        return !Objects.equals(key, fileKey) || fingerprint != IncrementalAnalysis.fingerprint(channel, offset);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        watchService.close();
+    }
+
+    // Scores one record at a time with the calculateAnomalyCounter weighting
+    private class DayScorer implements LogParser.Handler {
+        private final double[] row = new double[kernel.getEventCount()];
+        private List<String> eventNames = new ArrayList<>();
+        private int day;
+        int scored;
+
+        @Override
+        public void schema(String[] names, char[] types) {
+            eventNames = Arrays.asList(names);
+        }
+
+        @Override
+        public void startDay(int day, long offset) {
+            this.day = day;
+        }
+
+        @Override
+        public void value(int event, double value) {
+            row[event] = value;
+        }
+
+        @Override
+        public void endDay() {
+            long startTime = System.nanoTime();
+            double counter = kernel.scoreDay(row, 0);
+            Metrics.SCORE_DAY_SECONDS.record(System.nanoTime() - startTime);
+            Metrics.SCORED_DAYS.increment();
+            scored++;
+            if (counter >= threshold) {
+                AlertEngine.recentAlerts.publish(day, counter, threshold, kernel, eventNames, row, 0);
+            }
+            listener.dayScored(day, counter, threshold, counter >= threshold);
+        }
+    }
+
+    // Reads a file written by AnalysisEngine.outputData; its kernel method scores against
+    // means, medians or the inverse covariance, as the current scoring mode asks for
+    static BaselineCache.Snapshot readBaseline(String filename) throws IOException {
+        BaselineCache.Snapshot snapshot = new BaselineCache(filename).reload();
+        if (snapshot == null) {
+            throw new FileNotFoundException(filename);
+        }
+        return snapshot;
+    }
+
+    static double[] weightArray(List<Integer> weights) {
+        double[] array = new double[weights.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = weights.get(i);
+        }
+        return array;
+    }
+
+    // Reads the weight column of an Events file, defaulting to 1 like IDS.processEvents
+    static List<Integer> readWeights(String filename) throws IOException {
+        return EventSchema.fromEventsFile(filename).getWeights();
+    }
+
+    static List<Integer> defaultWeights(int noOfEvents) {
+        List<Integer> weights = new ArrayList<>();
+        for (int i = 0; i < noOfEvents; i++) {
+            weights.add(1);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,89 @@
+// Normal distribution truncated to [minimum, maximum], sampled by inverting the
+// CDF so every draw costs the same no matter how tight the bounds are
+public class TruncatedNormal {
+
+    private final double mean;
+    private final double standardDeviation;
+    private final double lowerCdf;
+    private final double cdfWidth;
+    private final double minimum;
+    private final double maximum;
+
+    public TruncatedNormal(double mean, double standardDeviation, double minimum, double maximum) {
+        if (minimum > maximum) {
+            throw new IllegalArgumentException("Minimum " + minimum + " is greater than maximum " + maximum);
+        }
+        this.mean = mean;
+        this.standardDeviation = standardDeviation;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.lowerCdf = standardDeviation > 0 ? cdf((minimum - mean) / standardDeviation) : 0.0;
+        this.cdfWidth = standardDeviation > 0 ? cdf((maximum - mean) / standardDeviation) - lowerCdf : 0.0;
+    }
+
+    // Maps a uniform draw in [0, 1) to a sample from the truncated distribution
+    public double fromUniform(double u) {
+        double sample;
+        if (cdfWidth > 1e-12) {
+            sample = mean + standardDeviation * inverseCdf(lowerCdf + u * cdfWidth);
+        } else if (standardDeviation > 0 && minimum > Double.NEGATIVE_INFINITY && maximum < Double.POSITIVE_INFINITY) {
+            // The bounds sit far out in one tail; the distribution is effectively uniform there
+            sample = minimum + u * (maximum - minimum);
+        } else {
+            sample = mean;
+        }
+        return Math.min(maximum, Math.max(minimum, sample));
+    }
+
+    // Maps a standard normal draw to a sample of the same rank from the truncated
+    // distribution; bounds more than about six deviations out change nothing, and the
+    // draw is only scaled and clamped
+    public double fromStandardNormal(double z) {
+        if (cdfWidth > 1.0 - 1e-9) {
+            return Math.min(maximum, Math.max(minimum, mean + standardDeviation * z));
+        }
+        return fromUniform(cdf(z));
+    }
+
+    // Standard normal CDF (Abramowitz & Stegun 7.1.26, |error| < 1.5e-7)
+    public static double cdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2.0);
+        double t = 1.0 / (1.0 + 0.3275911 * x);
+        double erf = 1.0 - ((((1.061405429 * t - 1.453152027) * t + 1.421413741) * t - 0.284496736) * t + 0.254829592)
+                * t * Math.exp(-x * x);
+        return z >= 0 ? 0.5 * (1.0 + erf) : 0.5 * (1.0 - erf);
+    }
+
+    // Standard normal quantile (Acklam's rational approximation, relative error < 1.2e-9)
+    public static double inverseCdf(double p) {
+        if (p <= 0.0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (p >= 1.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        final double pLow = 0.02425;
+        if (p < pLow) {
+            double q = Math.sqrt(-2.0 * Math.log(p));
+            return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q
+                    - 2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+                    / ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q
+                    + 3.754408661907416e+00) * q + 1.0);
+        }
+        if (p > 1.0 - pLow) {
+            double q = Math.sqrt(-2.0 * Math.log(1.0 - p));
+            return -(((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q
+                    - 2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+                    / ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q
+                    + 3.754408661907416e+00) * q + 1.0);
+        }
+
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r - 2.759285104469687e+02) * r
+                + 1.383577518672690e+02) * r - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q
+                / (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) * r
+                + 6.680131310015683e+01) * r - 1.328068155288201e+01) * r + 1.0);
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import java.util.List;
+
+// Per-user running statistics for every event, flattened into primitive arrays
+// indexed by [user * noOfEvents + event]. Users get their index from a shared
+// UserDictionary, so 100k users x 50 events is a handful of arrays rather than
+// a map of boxed lists per user.
+public class UserBaselines {
+
+    private final UserDictionary users;
+    private final String[] eventNames;
+    private final int noOfEvents;
+    private int[] days;
+    private double[] mean;
+    private double[] m2;
+    private double[] factors;
+    private double[] weights;
+
+    public UserBaselines(UserDictionary users, List<String> eventNames) {
+        this.users = users;
+        this.eventNames = eventNames.toArray(new String[0]);
+        this.noOfEvents = this.eventNames.length;
+        this.days = new int[16];
+        this.mean = new double[16 * noOfEvents];
+        this.m2 = new double[16 * noOfEvents];
+    }
+
+    public UserDictionary getUsers() {
+        return users;
+    }
+
+    public int getEventCount() {
+        return noOfEvents;
+    }
+
+    public List<String> getEventNames() {
+        return Arrays.asList(eventNames.clone());
+    }
+
+    public int getDays(int user) {
+        return user < days.length ? days[user] : 0;
+    }
+
+    public double getMean(int user, int event) {
+        return mean[user * noOfEvents + event];
+    }
+
+    public double getStddev(int user, int event) {
+        return Math.sqrt(m2[user * noOfEvents + event] / days[user]);
+    }
+
+    // Folds one day of values (in event order, starting at offset) into a user's baseline
+    public void add(int user, double[] values, int offset) {
+        ensureCapacity(user + 1);
+        int n = ++days[user];
+        int base = user * noOfEvents;
+        for (int i = 0; i < noOfEvents; i++) {
+            double delta = values[offset + i] - mean[base + i];
+            mean[base + i] += delta / n;
+            m2[base + i] += delta * (values[offset + i] - mean[base + i]);
+        }
+        factors = null;
+    }
+
+    // Precomputes weight / stddev for every user and event before scoring; an event a
+    // user never varied is scored like the shared baseline's (see ScoringKernel.factor)
+    public void prepareScoring(double[] eventWeights) {
+        if (eventWeights.length != noOfEvents) {
+            throw new IllegalArgumentException("Expected " + noOfEvents + " weights but got " + eventWeights.length);
+        }
+        weights = eventWeights.clone();
+        factors = new double[users.size() * noOfEvents];
+        for (int user = 0; user < users.size() && user < days.length; user++) {
+            int base = user * noOfEvents;
+            for (int i = 0; i < noOfEvents; i++) {
+                double stddev = days[user] == 0 ? 0.0 : Math.sqrt(m2[base + i] / days[user]);
+                factors[base + i] = ScoringKernel.factor(weights[i], stddev);
+            }
+        }
+    }
+
+    // Weighted deviation total for one user-day, or NaN if the user has no baseline
+    public double score(int user, double[] values, int offset) {
+        if (factors == null) {
+            throw new IllegalStateException("prepareScoring must be called before scoring");
+        }
+        if (user >= days.length || days[user] == 0 || (user + 1) * noOfEvents > factors.length) {
+            return Double.NaN;
+        }
+
+        int base = user * noOfEvents;
+        double total = 0.0;
+        for (int i = 0; i < noOfEvents; i++) {
+            total += Math.abs(values[offset + i] - mean[base + i]) * factors[base + i];
+        }
+        return total;
+    }
+
+    private void ensureCapacity(int noOfUsers) {
+        if (noOfUsers <= days.length) {
+            return;
+        }
+        int capacity = Math.max(noOfUsers, days.length * 2);
+        days = Arrays.copyOf(days, capacity);
+        mean = Arrays.copyOf(mean, capacity * noOfEvents);
+        m2 = Arrays.copyOf(m2, capacity * noOfEvents);
+    }
+}
@@ -0,0 +1,109 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Assigns dense int indexes to user ids. Lookups hash the raw log bytes, so a
+// String is only created the first time a user is seen.
+public class UserDictionary {
+
+    private byte[][] keys = new byte[16][];
+    private String[] names = new String[16];
+    private int[] slots = new int[32]; // index + 1, 0 for empty
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public String name(int user) {
+        return names[user];
+    }
+
+    // Returns the index for the user id held in buffer[start, end), adding it if new
+    public int intern(ByteBuffer buffer, int start, int end) {
+        int slot = find(buffer, start, end);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+
+        byte[] key = new byte[end - start];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = buffer.get(start + i);
+        }
+        return add(slot, key);
+    }
+
+    public int intern(String user) {
+        byte[] key = user.getBytes(StandardCharsets.UTF_8);
+        return intern(ByteBuffer.wrap(key), 0, key.length);
+    }
+
+    // Returns the index for the user id held in buffer[start, end), or -1 if it has never been seen
+    public int indexOf(ByteBuffer buffer, int start, int end) {
+        return slots[find(buffer, start, end)] - 1;
+    }
+
+    public int indexOf(String user) {
+        byte[] key = user.getBytes(StandardCharsets.UTF_8);
+        return indexOf(ByteBuffer.wrap(key), 0, key.length);
+    }
+
+    // Returns the slot holding the key, or the empty slot where it would go
+    private int find(ByteBuffer buffer, int start, int end) {
+        int mask = slots.length - 1;
+        for (int slot = hash(buffer, start, end) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0 || matches(keys[entry - 1], buffer, start, end)) {
+                return slot;
+            }
+        }
+    }
+
+    private int add(int slot, byte[] key) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        keys[size] = key;
+        names[size] = new String(key, StandardCharsets.UTF_8);
+        slots[slot] = ++size;
+
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int user = 0; user < size; user++) {
+            ByteBuffer key = ByteBuffer.wrap(keys[user]);
+            int slot = hash(key, 0, keys[user].length) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = user + 1;
+        }
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        int hash = 0x811c9dc5; // FNV-1a
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ buffer.get(i)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -2,59 +2,488 @@ import static spark.Spark.*;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.servlet.http.HttpServletResponse;
 
 public class WebServer {
+    private static final String USER_LOGS = "UserLogs.txt";
+    private static final String EVENTS_FILE = "Events.txt";
+    private static final String BASELINE_FILE = "BaselineStats.txt";
+    private static final String LOG_FILE = "Logs.txt";
+
+    // Largest range /days will return day by day; summaries alone may span any range
+    private static final int MAX_DAYS_WITH_VALUES = 1000;
+
+    // Most users /users/top will rank in one request
+    private static final int MAX_TOP_USERS = 1000;
+
+    // Parsed and serialised BASELINE_FILE, shared by every /baseline request
+    private static final BaselineCache baselineCache = new BaselineCache(BASELINE_FILE);
+
+    // Background analyses: one at a time, with a short queue behind it
+    private static final AnalysisJobs analysisJobs = new AnalysisJobs(1, 8, BASELINE_FILE, baselineCache);
+
+    // Each open /alerts/stream holds a Jetty thread, so only this many may be open at once
+    private static final Semaphore alertStreams = new Semaphore(16);
+    private static final long STREAM_POLL_MS = 500;
+    private static final long STREAM_KEEPALIVE_MS = 15000;
+
+    // Records POST /ingest may have waiting for the log writer before it answers 429
+    private static final int MAX_PENDING_INGEST_RECORDS = 1 << 17;
+
+    // Appends pushed records to Logs.txt; created on the first /ingest from EVENTS_FILE
+    private static IngestQueue ingestQueue;
+    private static EventSchema ingestSchema;
+
+    // Per-user baselines for USER_LOGS, built on first use and rebuilt by POST /users/analyze
+    private static UserBaselines userBaselines;
+
+    // Usage: WebServer [--follow <log file>] to score a growing log against the baseline
+    // and feed its flagged days to /alerts
     public static void main(String[] args) {
         port(4567);
 
+        if (args.length == 2 && args[0].equals("--follow")) {
+            followLog(args[1]);
+        }
+
         // Allow CORS for React to call this
         before((req, res) -> {
             res.header("Access-Control-Allow-Origin", "*");
             res.header("Access-Control-Allow-Methods", "GET,POST");
+            res.header("Access-Control-Expose-Headers", "ETag,X-Baseline-Version,Location");
         });
 
-        // Analyze Logs.txt and return basic stats
+        // Queue an analysis of the days appended to Logs.txt since the last one
+        // (?halfLife=DAYS decays older days; ?full=true re-reads the whole log, with
+        // ?parallelism=N splitting the work across threads). Returns the job straight
+        // away; poll /jobs/{id} for progress and the baseline.
         post("/analyze", (req, res) -> {
             try {
-                Map<String, List<Double>> eventData = AnalysisEngine.readLogs("Logs.txt");
+                String parallelismParam = req.queryParams("parallelism");
+                String halfLifeParam = req.queryParams("halfLife");
+                int parallelism = parallelismParam == null ? 1 : Integer.parseInt(parallelismParam);
+                double halfLifeDays = halfLifeParam == null ? 0 : Double.parseDouble(halfLifeParam);
+                boolean full = "true".equals(req.queryParams("full"));
+                AnalysisJobs.Job job = analysisJobs.submit("Logs.txt", parallelism, full, halfLifeDays);
+
+                res.status(202);
+                res.header("Location", "/jobs/" + job.id);
+                res.type("application/json");
+                return jobJson(job);
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "parallelism and halfLife must be numbers";
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return e.getMessage();
+            } catch (RejectedExecutionException e) {
+                res.status(503);
+                res.header("Retry-After", "5");
+                return "Too many analyses queued, try again shortly";
+            }
+        });
+
+        // Status, progress and (once done) the resulting baseline of an analysis job
+        get("/jobs/:id", (req, res) -> {
+            AnalysisJobs.Job job;
+            try {
+                job = analysisJobs.get(Long.parseLong(req.params("id")));
+            } catch (NumberFormatException e) {
+                job = null;
+            }
+            if (job == null) {
+                res.status(404);
+                return "No such job";
+            }
+
+            res.type("application/json");
+            return jobJson(job);
+        });
+
+        // Append a batch of day records to Logs.txt and score them against the current
+        // baseline. Bodies are NDJSON or, as application/octet-stream, the binary layout
+        // described in IngestFormat.
+        post("/ingest", (req, res) -> {
+            IngestQueue queue;
+            try {
+                queue = ingestQueue();
+            } catch (IOException | RuntimeException e) {
+                res.status(503);
+                return "Ingest is unavailable: " + e.getMessage();
+            }
+
+            IngestQueue.Batch batch;
+            try {
+                String contentType = req.contentType();
+                batch = contentType != null && contentType.startsWith("application/octet-stream")
+                        ? IngestFormat.parseBinary(req.bodyAsBytes(), ingestSchema)
+                        : IngestFormat.parseNdjson(req.bodyAsBytes(), ingestSchema);
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return e.getMessage();
+            }
+            if (batch.size > queue.getMaxPendingRecords()) {
+                res.status(413);
+                return "Batches are limited to " + queue.getMaxPendingRecords() + " records";
+            }
+
+            CompletableFuture<IngestQueue.Result> committed = queue.submit(batch);
+            if (committed == null) {
+                res.status(429);
+                res.header("Retry-After", "1");
+                return "Ingest queue is full, try again shortly";
+            }
+
+            IngestQueue.Result result;
+            try {
+                result = committed.get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                res.status(500);
+                return "Error writing records: " + e.getCause().getMessage();
+            } catch (TimeoutException e) {
+                // Still queued behind a slow commit; the writer may yet append it
+                res.status(202);
+                return "Records were queued but not committed within 30 seconds; they may still be committed";
+            }
+
+            StringBuilder flagged = new StringBuilder();
+            if (result.scores != null) {
+                for (int r = 0; r < result.accepted; r++) {
+                    if (result.scores[r] >= result.threshold) {
+                        flagged.append(flagged.length() > 0 ? "," : "")
+                                .append(String.format("{\"day\":%d, \"score\":%s}", result.days[r], Json.number(result.scores[r])));
+                    }
+                }
+            }
+            res.type("application/json");
+            return String.format("{\"accepted\":%d, \"scored\":%b, \"threshold\":%d, \"flagged\":[%s]}",
+                    result.accepted, result.scores != null, result.threshold, flagged);
+        });
+
+        // Rebuild per-user baselines from UserLogs.txt
+        post("/users/analyze", (req, res) -> {
+            try {
+                UserBaselines baselines = rebuildUserBaselines();
+                return "Baselines built for " + baselines.getUsers().size() + " users.";
+            } catch (Exception e) {
+                res.status(500);
+                return "Error during user analysis: " + e.getMessage();
+            }
+        });
 
-                List<String> eventNames = new ArrayList<>(eventData.keySet());
-                String outputFile = "BaselineStats.txt";
+        // Top-N most anomalous users for one day of UserLogs.txt (?day=N&n=10)
+        get("/users/top", (req, res) -> {
+            try {
+                int day = Integer.parseInt(req.queryParams("day"));
+                String nParam = req.queryParams("n");
+                int n = nParam == null ? 10 : Integer.parseInt(nParam);
+                if (n < 1 || n > MAX_TOP_USERS) {
+                    res.status(400);
+                    return "n must be between 1 and " + MAX_TOP_USERS;
+                }
 
-                AnalysisEngine.outputData(eventData, eventNames, outputFile);
+                List<MultiUserEngine.UserScore> top;
+                synchronized (WebServer.class) {
+                    UserBaselines baselines = userBaselines != null ? userBaselines : rebuildUserBaselines();
+                    List<Integer> weights = new File(EVENTS_FILE).exists()
+                            ? StreamingAlertEngine.readWeights(EVENTS_FILE)
+                            : StreamingAlertEngine.defaultWeights(baselines.getEventCount());
+                    top = MultiUserEngine.topAnomalous(USER_LOGS, baselines, weights, day, n);
+                }
 
-                return "Analysis complete. Baseline written to BaselineStats.txt.";
+                res.type("application/json");
+                return top.stream()
+                        .map(score -> String.format("{\"user\":\"%s\", \"score\":%s}", Json.escape(score.user), Json.number(score.score)))
+                        .collect(Collectors.joining(",", "[", "]"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "day and n must be whole numbers";
             } catch (Exception e) {
                 res.status(500);
-                return "Error during analysis: " + e.getMessage();
+                return "Error scoring users: " + e.getMessage();
+            }
+        });
+
+        // Days from..to of Logs.txt with per-event count, min, max and mean over the window,
+        // read through the log's day index (?from=N&to=M, &values=false for the summary only)
+        get("/days", (req, res) -> {
+            int from;
+            int to;
+            try {
+                from = Integer.parseInt(req.queryParams("from"));
+                to = Integer.parseInt(req.queryParams("to"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "from and to must be whole numbers";
+            }
+            boolean values = !"false".equalsIgnoreCase(req.queryParams("values"));
+            if (to < from) {
+                res.status(400);
+                return "to must not be before from";
+            }
+            if (values && (long) to - from >= MAX_DAYS_WITH_VALUES) {
+                res.status(400);
+                return "At most " + MAX_DAYS_WITH_VALUES + " days can be returned with values; pass values=false for a summary";
+            }
+            if (!new File(LOG_FILE).exists()) {
+                res.status(404);
+                return LOG_FILE + " not found";
+            }
+
+            try {
+                StringBuilder json = new StringBuilder("{\"from\":").append(from).append(", \"to\":").append(to);
+                if (values) {
+                    json.append(", \"days\":[");
+                    DayIndex.readDays(LOG_FILE, from, to, new LogParser.Handler() {
+                        private boolean first = true;
+                        private boolean firstValue;
+
+                        @Override
+                        public void startDay(int day, long offset) {
+                            json.append(first ? "" : ",").append("{\"day\":").append(day).append(", \"values\":[");
+                            first = false;
+                            firstValue = true;
+                        }
+
+                        @Override
+                        public void value(int event, double value) {
+                            json.append(firstValue ? "" : ",").append(value);
+                            firstValue = false;
+                        }
+
+                        @Override
+                        public void endDay() {
+                            json.append("]}");
+                        }
+                    });
+                    json.append("]");
+                }
+
+                DayIndex.Summary summary = DayIndex.summarize(LOG_FILE, from, to);
+                json.append(", \"summary\":{\"days\":").append(summary == null ? 0 : summary.days).append(", \"events\":[");
+                for (int e = 0; summary != null && e < summary.eventNames.length; e++) {
+                    json.append(e == 0 ? "" : ",");
+                    json.append(String.format("{\"name\":\"%s\", \"count\":%d", Json.escape(summary.eventNames[e]), summary.counts[e]));
+                    if (summary.counts[e] > 0) {
+                        json.append(String.format(", \"min\":%s, \"max\":%s, \"mean\":%s",
+                                summary.minimums[e], summary.maximums[e], summary.getMean(e)));
+                    }
+                    json.append("}");
+                }
+                json.append("]}}");
+
+                res.type("application/json");
+                return json.toString();
+            } catch (IOException e) {
+                res.status(500);
+                return "Error reading " + LOG_FILE + ": " + e.getMessage();
+            }
+        });
+
+        // Segments Logs.txt has been rolled over into, oldest first, each with its day range,
+        // sizes and per-event summary, all read from the segment footers
+        get("/segments", (req, res) -> {
+            try {
+                StringBuilder json = new StringBuilder("[");
+                List<LogSegments.Segment> segments = LogSegments.list(LOG_FILE);
+                for (int i = 0; i < segments.size(); i++) {
+                    LogSegments.Segment segment = segments.get(i);
+                    json.append(i == 0 ? "" : ",");
+                    json.append(String.format("{\"sequence\":%d, \"days\":%d, \"lowestDay\":%d, \"highestDay\":%d, "
+                                    + "\"rawBytes\":%d, \"compressedBytes\":%d, \"events\":[", segment.sequence, segment.days,
+                            segment.lowestDay, segment.highestDay, segment.rawBytes, segment.compressedBytes));
+                    DayIndex.Summary summary = segment.summary();
+                    for (int e = 0; e < summary.eventNames.length; e++) {
+                        json.append(e == 0 ? "" : ",");
+                        json.append(String.format("{\"name\":\"%s\", \"count\":%d", Json.escape(summary.eventNames[e]),
+                                summary.counts[e]));
+                        if (summary.counts[e] > 0) {
+                            json.append(String.format(", \"min\":%s, \"max\":%s, \"mean\":%s",
+                                    summary.minimums[e], summary.maximums[e], summary.getMean(e)));
+                        }
+                        json.append("}");
+                    }
+                    json.append("]}");
+                }
+                json.append("]");
+
+                res.type("application/json");
+                return json.toString();
+            } catch (IOException e) {
+                res.status(500);
+                return "Error listing segments of " + LOG_FILE + ": " + e.getMessage();
             }
         });
 
-        // Just a placeholder for alerts
+        // Recent alerts oldest first; pass the returned nextCursor as ?cursor= to page on
         get("/alerts", (req, res) -> {
-            return "No alert system available yet. Placeholder route.";
+            try {
+                String cursorParam = req.queryParams("cursor");
+                String limitParam = req.queryParams("limit");
+                long cursor = cursorParam == null ? 0 : Long.parseLong(cursorParam);
+                int limit = limitParam == null ? 100 : Math.max(1, Math.min(1000, Integer.parseInt(limitParam)));
+
+                AlertBuffer.Page page = AlertEngine.recentAlerts.after(cursor, limit);
+                res.type("application/json");
+                return page.alerts.stream()
+                        .map(WebServer::alertJson)
+                        .collect(Collectors.joining(",", "{\"alerts\":[",
+                                String.format("], \"nextCursor\":%d, \"dropped\":%d}", page.nextCursor, page.dropped)));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "cursor and limit must be whole numbers";
+            }
+        });
+
+        // Server-Sent Events: pushes each new alert as it is raised. Reconnecting clients
+        // resume from Last-Event-ID; new clients only see alerts raised after they connect.
+        get("/alerts/stream", (req, res) -> {
+            if (!alertStreams.tryAcquire()) {
+                res.status(503);
+                return "Too many alert streams open";
+            }
+
+            try {
+                String lastEventId = req.headers("Last-Event-ID");
+                long cursor = lastEventId != null ? Long.parseLong(lastEventId.trim())
+                        : AlertEngine.recentAlerts.lastSequence();
+
+                HttpServletResponse raw = res.raw();
+                raw.setContentType("text/event-stream");
+                raw.setCharacterEncoding("UTF-8");
+                raw.setHeader("Cache-Control", "no-cache");
+                OutputStream out = raw.getOutputStream();
+                out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                long lastWrite = System.currentTimeMillis();
+                while (!Thread.currentThread().isInterrupted()) {
+                    AlertBuffer.Page page = AlertEngine.recentAlerts.after(cursor, 100);
+                    StringBuilder events = new StringBuilder();
+                    if (page.dropped > 0) {
+                        events.append("event: dropped\ndata: ").append(page.dropped).append("\n\n");
+                    }
+                    for (AlertBuffer.Alert alert : page.alerts) {
+                        events.append("id: ").append(alert.sequence)
+                                .append("\nevent: alert\ndata: ").append(alertJson(alert)).append("\n\n");
+                    }
+                    cursor = page.nextCursor;
+
+                    long now = System.currentTimeMillis();
+                    if (events.length() == 0 && now - lastWrite >= STREAM_KEEPALIVE_MS) {
+                        events.append(": keepalive\n\n");
+                    }
+                    if (events.length() > 0) {
+                        out.write(events.toString().getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        lastWrite = now;
+                    }
+                    if (page.alerts.size() < 100) {
+                        Thread.sleep(STREAM_POLL_MS);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "Last-Event-ID must be a whole number";
+            } catch (IOException e) {
+                // The client disconnected
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                alertStreams.release();
+            }
+            return "";
         });
 
         get("/status", (req, res) -> "IDS is running");
+
+        // Counters and latency summaries in the Prometheus text format
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return Metrics.prometheus();
+        });
+        // Served from the cached snapshot; clients can revalidate with If-None-Match
         get("/baseline", (req, res) -> {
-    File file = new File("BaselineStats.txt");
-    if (!file.exists()) return "BaselineStats.txt not found";
-
-    List<String> lines = new ArrayList<>();
-    try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-        String line;
-        while ((line = br.readLine()) != null) {
-            lines.add(line.trim());
+            BaselineCache.Snapshot snapshot = baselineCache.get();
+            if (snapshot == null) return "BaselineStats.txt not found";
+
+            res.header("ETag", snapshot.etag);
+            res.header("X-Baseline-Version", Long.toString(snapshot.version));
+            if (snapshot.etag.equals(req.headers("If-None-Match"))) {
+                res.status(304);
+                return "";
+            }
+            return snapshot.json;
+        });
+
+    }
+
+    private static void followLog(String logFile) {
+        Thread follower = new Thread(() -> {
+            try {
+                BaselineCache.Snapshot baseline = StreamingAlertEngine.readBaseline(BASELINE_FILE);
+                List<Integer> weights = new File(EVENTS_FILE).exists()
+                        ? StreamingAlertEngine.readWeights(EVENTS_FILE)
+                        : StreamingAlertEngine.defaultWeights(baseline.eventNames.size());
+                ScoringKernel kernel = baseline.kernel(StreamingAlertEngine.weightArray(weights));
+
+                try (StreamingAlertEngine engine = new StreamingAlertEngine(logFile, weights, kernel, 0,
+                        (day, total, threshold, flagged) -> { })) {
+                    engine.follow();
+                }
+            } catch (IOException e) {
+                System.err.println("Error following " + logFile + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "alert-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    private static synchronized IngestQueue ingestQueue() throws IOException {
+        if (ingestQueue == null) {
+            ingestSchema = EventSchema.fromEventsFile(EVENTS_FILE);
+            ingestQueue = new IngestQueue("Logs.txt", ingestSchema, baselineCache, MAX_PENDING_INGEST_RECORDS, true,
+                    LogSegments.Policy.fromProperties());
         }
+        return ingestQueue;
     }
 
-    return lines.stream().skip(1)  // Skip event count
-            .map(line -> {
-                String[] parts = line.split(":");
-                return String.format("{\"event\":\"%s\", \"mean\":%s, \"stddev\":%s}", parts[0], parts[1], parts[2]);
-            })
-            .collect(Collectors.joining(",", "[", "]"));
-});
+    private static synchronized UserBaselines rebuildUserBaselines() throws IOException {
+        userBaselines = MultiUserEngine.buildBaselines(USER_LOGS);
+        return userBaselines;
+    }
+
+    private static String alertJson(AlertBuffer.Alert alert) {
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < alert.topEvents.length; i++) {
+            events.append(i > 0 ? "," : "").append(String.format("{\"event\":\"%s\", \"contribution\":%s}",
+                    Json.escape(alert.topEvents[i]), Json.number(alert.topContributions[i])));
+        }
+        return String.format("{\"cursor\":%d, \"timestamp\":%d, \"day\":%d, \"score\":%s, \"threshold\":%d, \"topEvents\":[%s]}",
+                alert.sequence, alert.timestamp, alert.day, Json.number(alert.score), alert.threshold, events);
+    }
 
+    private static String jobJson(AnalysisJobs.Job job) {
+        AnalysisJobs.Status status = job.getStatus();
+        StringBuilder json = new StringBuilder(String.format(
+                "{\"id\":%d, \"status\":\"%s\", \"bytesProcessed\":%d, \"totalBytes\":%d, \"daysProcessed\":%d",
+                job.id, status, job.progress.getBytesProcessed(), job.progress.getTotalBytes(),
+                job.progress.getDaysProcessed()));
+        if (status == AnalysisJobs.Status.FAILED) {
+            json.append(", \"error\":\"").append(Json.escape(job.getError())).append('"');
+        }
+        if (status == AnalysisJobs.Status.DONE && job.getResult() != null) {
+            json.append(", \"baseline\":").append(new String(job.getResult().json, StandardCharsets.UTF_8));
+        }
+        return json.append('}').toString();
     }
 }
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The spacing guess in Backtest.passed must always land on the linear count
+class BacktestTest {
+
+    private static int linear(double[] thresholds, double total) {
+        int passed = 0;
+        for (double threshold : thresholds) {
+            if (threshold <= total) {
+                passed++;
+            }
+        }
+        return passed;
+    }
+
+    private static void assertPassed(double[] thresholds, double total) {
+        double first = thresholds[0];
+        double span = thresholds[thresholds.length - 1] - first;
+        double inverseStep = span > 0 ? (thresholds.length - 1) / span : 0;
+        assertEquals(linear(thresholds, total), Backtest.passed(thresholds, first, inverseStep, total),
+                "total " + total);
+    }
+
+    @Test
+    void evenlySpacedThresholds() {
+        double[] thresholds = new double[41];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = 5 + i * 0.5;
+        }
+        for (double total = 0; total <= 30; total += 0.25) {
+            assertPassed(thresholds, total); // Includes totals landing exactly on a threshold
+        }
+        assertPassed(thresholds, Double.POSITIVE_INFINITY);
+        assertPassed(thresholds, Double.NEGATIVE_INFINITY);
+    }
+
+    @Test
+    void unevenAndRepeatedThresholds() {
+        Random random = new Random(3);
+        double[][] sets = {
+            {1, 1.1, 1.2, 8, 9, 50},
+            {4, 4, 4, 6, 6, 10},
+            {7},
+            {2, 2},
+        };
+        for (double[] thresholds : sets) {
+            for (double threshold : thresholds) {
+                assertPassed(thresholds, threshold);
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertPassed(thresholds, random.nextDouble() * 60 - 5);
+            }
+        }
+    }
+}
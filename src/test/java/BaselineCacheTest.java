@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Reloading the baseline file into snapshots, their JSON and their ETags
+class BaselineCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private static RunningStats stats(String... names) {
+        RunningStats stats = new RunningStats(Arrays.asList(names));
+        for (int day = 0; day < 10; day++) {
+            for (int e = 0; e < names.length; e++) {
+                stats.add(e, (e + 1) * 2 + day % 3);
+            }
+        }
+        return stats;
+    }
+
+    private void write(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void reloadPublishesNewVersionsAndEtags() throws IOException {
+        Path file = dir.resolve("baseline.txt");
+        BaselineCache cache = new BaselineCache(file.toString());
+        assertNull(cache.get());
+
+        write(file, "2\nLogins:3.00:1.50\nTime online:120.25:10.00");
+        BaselineCache.Snapshot first = cache.reload();
+        assertEquals(Arrays.asList("Logins", "Time online"), first.eventNames);
+        assertArrayEquals(new double[] {3.0, 120.25}, first.means);
+        assertArrayEquals(new double[] {1.5, 10.0}, first.stdDevs);
+        assertEquals("[{\"event\":\"Logins\", \"mean\":3.00, \"stddev\":1.50},"
+                + "{\"event\":\"Time online\", \"mean\":120.25, \"stddev\":10.00}]",
+                new String(first.json, StandardCharsets.UTF_8));
+        assertSame(first, cache.get());
+
+        // Same content, same ETag; new content, new ETag
+        BaselineCache.Snapshot same = cache.reload();
+        assertTrue(same.version > first.version);
+        assertEquals(first.etag, same.etag);
+
+        write(file, "2\nLogins:4.00:1.50\nTime online:120.25:10.00");
+        BaselineCache.Snapshot changed = cache.reload();
+        assertNotEquals(first.etag, changed.etag);
+        assertEquals(4.0, changed.means[0]);
+    }
+
+    @Test
+    void malformedFileKeepsThePreviousSnapshot() throws IOException {
+        Path file = dir.resolve("baseline.txt");
+        BaselineCache cache = new BaselineCache(file.toString());
+        write(file, "1\nLogins:3.00:1.50");
+        BaselineCache.Snapshot good = cache.reload();
+
+        write(file, "1\nLogins:3,00:1,50");
+        assertThrows(IOException.class, cache::reload);
+        write(file, "2\nLogins:3.00:1.50");
+        assertThrows(IOException.class, cache::reload);
+        assertSame(good, cache.get());
+    }
+
+    @Test
+    void baselineWrittenUnderAnotherLocaleReadsBack() throws IOException {
+        String file = dir.resolve("baseline.txt").toString();
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            AnalysisEngine.outputData(stats("Logins", "Time \"online\""), file);
+        } finally {
+            Locale.setDefault(locale);
+        }
+
+        BaselineCache.Snapshot snapshot = new BaselineCache(file).reload();
+        assertEquals(2.9, snapshot.means[0], 1e-9);
+        String json = new String(snapshot.json, StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"event\":\"Time \\\"online\\\"\""), json);
+    }
+}
@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Range reads and summaries through the index, and its file format
+class DayIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private String log(int days) throws IOException {
+        String log = dir.resolve("log.txt").toString();
+        LogWriterTest.write(log, 1, days);
+        return log;
+    }
+
+    private static List<Integer> readDays(String log, int from, int to) throws IOException {
+        List<Integer> days = new ArrayList<>();
+        DayIndex.readDays(log, from, to, new LogParser.Handler() {
+            @Override
+            public void startDay(int day, long offset) {
+                days.add(day);
+            }
+
+            @Override
+            public void value(int event, double value) {
+            }
+        });
+        return days;
+    }
+
+    @Test
+    void readsOnlyTheDaysAskedFor() throws IOException {
+        String log = log(3000);
+        assertEquals(LogWriterTest.range(1000, 1100), readDays(log, 1000, 1100));
+        assertEquals(LogWriterTest.range(2990, 3000), readDays(log, 2990, 5000));
+    }
+
+    @Test
+    void summaryMatchesTheValues() throws IOException {
+        String log = log(3000);
+        DayIndex.Summary summary = DayIndex.summarize(log, 10, 2500);
+
+        double sum = 0;
+        for (int day = 10; day <= 2500; day++) {
+            sum += day * 1.5;
+        }
+        assertEquals(2491, summary.days);
+        assertEquals(2491, summary.counts[1]);
+        assertEquals(15.0, summary.minimums[1]);
+        assertEquals(3750.0, summary.maximums[1]);
+        assertEquals(sum, summary.sums[1], 1e-6);
+        assertEquals(0.0, summary.minimums[0]);
+        assertEquals(4.0, summary.maximums[0]);
+    }
+
+    @Test
+    void indexFollowsAppendedAndReplacedLogs() throws IOException {
+        String log = log(3000);
+        assertEquals(3000, DayIndex.summarize(log, Integer.MIN_VALUE, Integer.MAX_VALUE).days);
+
+        LogWriterTest.write(log, 3001, 3500);
+        assertEquals(3500, DayIndex.summarize(log, Integer.MIN_VALUE, Integer.MAX_VALUE).days);
+
+        LogWriter.truncate(log);
+        LogWriterTest.write(log, 1, 20);
+        assertEquals(20, DayIndex.summarize(log, Integer.MIN_VALUE, Integer.MAX_VALUE).days);
+    }
+
+    @Test
+    void indexFileLayout() throws IOException {
+        String log = log(2500);
+        DayIndex.summarize(log, 1, 1);
+
+        byte[] bytes = Files.readAllBytes(Paths.get(DayIndex.indexFile(log)));
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            assertEquals(0x49445358, in.readInt()); // "IDSX"
+            assertEquals(1, in.readShort());
+            assertEquals(Files.size(Paths.get(log)), in.readLong());
+            in.readLong(); // Fingerprint
+            assertEquals(2, in.readInt());
+            assertEquals("Logins", in.readUTF());
+            assertEquals("Time online", in.readUTF());
+
+            int blocks = in.readInt();
+            assertEquals(3, blocks);
+            long end = 0;
+            int days = 0;
+            for (int b = 0; b < blocks; b++) {
+                long start = in.readLong();
+                // Each block starts at its first Day line, after the first record's frame
+                assertEquals(b == 0 ? LogWriter.FRAME_SIZE : end, start);
+                end = in.readLong();
+                int lowestDay = in.readInt();
+                int highestDay = in.readInt();
+                int count = in.readInt();
+                assertEquals(b * DayIndex.BLOCK_DAYS + 1, lowestDay);
+                assertEquals(lowestDay + count - 1, highestDay);
+                days += count;
+                for (int e = 0; e < 2; e++) {
+                    assertEquals(count, in.readLong());
+                    in.readDouble();
+                    in.readDouble();
+                    in.readDouble();
+                }
+            }
+            assertEquals(Files.size(Paths.get(log)), end);
+            assertEquals(2500, days);
+            assertEquals(-1, in.read());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Updates from the appended tail must match a full read, and a half-life must either
+// decay the baseline or be turned away
+class IncrementalAnalysisTest {
+
+    @TempDir
+    Path dir;
+
+    private String log() {
+        return dir.resolve("log.txt").toString();
+    }
+
+    @Test
+    void updatesMatchAFullRead() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 500);
+        IncrementalAnalysis.update(log, 0, null);
+        LogWriterTest.write(log, 501, 800);
+        RunningStats updated = IncrementalAnalysis.update(log, 0, null);
+        RunningStats full = AnalysisEngine.streamLogs(log);
+
+        for (int e = 0; e < full.size(); e++) {
+            assertEquals(full.getCount(e), updated.getCount(e));
+            assertEquals(full.getMean(e), updated.getMean(e), 1e-9 * Math.abs(full.getMean(e)));
+            assertEquals(full.getM2(e), updated.getM2(e), 1e-9 * full.getM2(e));
+        }
+    }
+
+    @Test
+    void halfLifeDecaysEarlierDays() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 101); // The first record is the header record
+        IncrementalAnalysis.update(log, 50, null);
+        LogWriterTest.write(log, 102, 151);
+
+        // 100 days decayed by one half-life, then 50 new ones
+        assertEquals(100, IncrementalAnalysis.update(log, 50, null).getWeight(0), 1e-9);
+    }
+
+    @Test
+    void halfLifeIsRejectedWhereItCannotApply() {
+        String log = log();
+        assertThrows(IllegalArgumentException.class, () -> IncrementalAnalysis.checkHalfLife(log, -1));
+        assertThrows(IllegalArgumentException.class, () -> IncrementalAnalysis.checkHalfLife(log, Double.NaN));
+        assertThrows(IllegalArgumentException.class,
+                () -> IncrementalAnalysis.checkHalfLife(dir.resolve("log" + BinaryLog.EXTENSION).toString(), 30));
+        IncrementalAnalysis.checkHalfLife(log, 30);
+
+        ScoringMode mode = ScoringMode.current();
+        try {
+            for (ScoringMode other : new ScoringMode[] {ScoringMode.ROBUST, ScoringMode.MAHALANOBIS}) {
+                ScoringMode.setCurrent(other);
+                assertThrows(IllegalArgumentException.class, () -> IncrementalAnalysis.update(log, 30, null));
+                IncrementalAnalysis.checkHalfLife(log, 0);
+            }
+        } finally {
+            ScoringMode.setCurrent(mode);
+        }
+
+        AnalysisJobs jobs = new AnalysisJobs(1, 1, dir.resolve("baseline.txt").toString(), null);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> jobs.submit(log, 1, true, 30));
+        } finally {
+            jobs.shutdown();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+// Decoding /ingest bodies, and the records that reject a whole batch
+class IngestFormatTest {
+
+    static final EventSchema SCHEMA = EventSchema.parseEvents(
+            Arrays.asList("2", "Logins:D:0:100:1", "Time online:C:0:1000:2"));
+
+    private static IngestQueue.Batch ndjson(String text) {
+        return IngestFormat.parseNdjson(text.getBytes(StandardCharsets.UTF_8), SCHEMA);
+    }
+
+    private static String rejection(String text) {
+        return assertThrows(IllegalArgumentException.class, () -> ndjson(text)).getMessage();
+    }
+
+    @Test
+    void ndjsonTakesValuesInOrderOrByName() {
+        IngestQueue.Batch batch = ndjson("{\"day\": 12, \"values\": [4, 150.5]}\n"
+                + "\n"
+                + "{\"note\": {\"a\": [1, \"x\"]}, \"values\": {\"Time online\": 99, \"Logins\": 2}, \"day\": 13}\n");
+        assertEquals(2, batch.size);
+        assertArrayEquals(new int[] {12, 13}, batch.days);
+        assertArrayEquals(new double[] {4, 150.5, 2, 99}, batch.values);
+    }
+
+    @Test
+    void ndjsonRejectsInvalidRecords() {
+        String good = "{\"day\": 1, \"values\": [1, 2]}\n";
+        assertTrue(rejection(good + "{\"day\": 0, \"values\": [1, 2]}").startsWith("Record 2: day"));
+        assertTrue(rejection(good + "{\"day\": 2.5, \"values\": [1, 2]}").startsWith("Record 2: day"));
+        assertEquals("Record 1: missing a value for Time online", rejection("{\"day\": 1, \"values\": [1]}"));
+        assertEquals("Record 1: more values than the 2 events", rejection("{\"day\": 1, \"values\": [1, 2, 3]}"));
+        assertEquals("Record 1: unknown event Logouts",
+                rejection("{\"day\": 1, \"values\": {\"Logins\": 1, \"Logouts\": 2}}"));
+        assertEquals("Record 1: Logins must be a whole number", rejection("{\"day\": 1, \"values\": [1.5, 2]}"));
+        assertTrue(rejection("{\"day\": 1, \"values\": [1, 2000]}").startsWith("Record 1: Time online must be between"));
+        assertTrue(rejection("{\"day\": 1, \"values\": [1, 1e999]}").contains("must be a finite number"));
+        assertTrue(rejection("{\"day\": 1, \"values\": [1, 2]} x").contains("unexpected text"));
+        assertTrue(rejection("{\"day\": 1, \"values\": [1, 2]").contains("expected '}'"));
+    }
+
+    private static byte[] binary(int records, int events, int bodyRecords) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bodyRecords * (4 + 8 * events));
+        buffer.putInt(records).putInt(events);
+        for (int r = 0; r < bodyRecords; r++) {
+            buffer.putInt(r + 1);
+            for (int e = 0; e < events; e++) {
+                buffer.putDouble(r + e);
+            }
+        }
+        return buffer.array();
+    }
+
+    @Test
+    void binaryBodies() {
+        IngestQueue.Batch batch = IngestFormat.parseBinary(binary(2, 2, 2), SCHEMA);
+        assertArrayEquals(new int[] {1, 2}, batch.days);
+        assertArrayEquals(new double[] {0, 1, 1, 2}, batch.values);
+
+        assertThrows(IllegalArgumentException.class, () -> IngestFormat.parseBinary(binary(2, 3, 2), SCHEMA));
+        assertThrows(IllegalArgumentException.class, () -> IngestFormat.parseBinary(binary(3, 2, 2), SCHEMA));
+        assertThrows(IllegalArgumentException.class, () -> IngestFormat.parseBinary(new byte[6], SCHEMA));
+    }
+}
@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Group commit of ingested batches, and what their submitters are told
+class IngestQueueTest {
+
+    @TempDir
+    Path dir;
+
+    private IngestQueue.Result ingest(BaselineCache baseline, String log) throws Exception {
+        try (IngestQueue queue = new IngestQueue(log, IngestFormatTest.SCHEMA, baseline, 100, false,
+                new LogSegments.Policy(0, 0, 0))) {
+            IngestQueue.Batch batch = IngestFormat.parseNdjson(("{\"day\": 1, \"values\": [3, 120]}\n"
+                    + "{\"day\": 2, \"values\": [40, 900]}").getBytes(StandardCharsets.UTF_8), IngestFormatTest.SCHEMA);
+            return queue.submit(batch).get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void committedBatchesAreScored() throws Exception {
+        Path baseline = dir.resolve("baseline.txt");
+        Files.write(baseline, "2\nLogins:3.00:1.50\nTime online:120.00:10.00".getBytes(StandardCharsets.UTF_8));
+        String log = dir.resolve("log.txt").toString();
+
+        IngestQueue.Result result = ingest(new BaselineCache(baseline.toString()), log);
+        assertEquals(2, result.accepted);
+        assertNotNull(result.scores);
+        assertEquals(0, result.scores[0], 1e-9);
+        assertEquals(Arrays.asList(1, 2), LogWriterTest.days(log));
+    }
+
+    @Test
+    void aBaselineThatCannotScoreDoesNotFailTheIngest() throws Exception {
+        // Weighted, this inverse covariance is not positive definite, so no kernel can be built
+        Path baseline = dir.resolve("baseline.txt");
+        Files.write(baseline, ("2\nLogins:3.00:1.50\nTime online:120.00:10.00\n"
+                + BaselineCache.PRECISION_SECTION + "\nLogins:1:2\nTime online:2:1").getBytes(StandardCharsets.UTF_8));
+        String log = dir.resolve("log.txt").toString();
+
+        ScoringMode mode = ScoringMode.current();
+        ScoringMode.setCurrent(ScoringMode.MAHALANOBIS);
+        try {
+            IngestQueue.Result result = ingest(new BaselineCache(baseline.toString()), log);
+            assertEquals(2, result.accepted);
+            assertArrayEquals(new int[] {1, 2}, result.days);
+            assertNull(result.scores);
+        } finally {
+            ScoringMode.setCurrent(mode);
+        }
+        assertEquals(Arrays.asList(1, 2), LogWriterTest.days(log));
+    }
+}
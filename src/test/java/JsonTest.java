@@ -0,0 +1,30 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+class JsonTest {
+
+    @Test
+    void numbersIgnoreTheDefaultLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            assertEquals("3.14", Json.number(3.14159));
+            assertEquals("-0.50", Json.number(-0.5));
+            assertEquals("null", Json.number(Double.NaN));
+            assertEquals("null", Json.number(Double.POSITIVE_INFINITY));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    void stringsAreEscaped() {
+        assertEquals("Time \\\"online\\\"", Json.escape("Time \"online\""));
+        assertEquals("C:\\\\logs\\nnext\\ttab", Json.escape("C:\\logs\nnext\ttab"));
+        assertEquals("bell\\u0007", Json.escape("bell\u0007"));
+        assertEquals("Zeit f\u00fcr Logins", Json.escape("Zeit f\u00fcr Logins"));
+    }
+}
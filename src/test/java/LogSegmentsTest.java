@@ -0,0 +1,241 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Rollover into segments, reading them back, and the segment file format
+class LogSegmentsTest {
+
+    private static final LogSegments.Policy KEEP_ALL = new LogSegments.Policy(0, 0, 0);
+
+    @TempDir
+    Path dir;
+
+    private String log() {
+        return dir.resolve("log.txt").toString();
+    }
+
+    private static List<Integer> read(LogSegments.Segment segment, int from, int to) throws IOException {
+        List<Integer> days = new ArrayList<>();
+        LogSegments.read(segment, from, to, new LogParser.Handler() {
+            @Override
+            public void startDay(int day, long offset) {
+                days.add(day);
+            }
+
+            @Override
+            public void value(int event, double value) {
+            }
+        });
+        return days;
+    }
+
+    @Test
+    void rollOverArchivesTheLogAndEmptiesIt() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 3000);
+
+        LogSegments.Segment segment = LogSegments.rollOver(log, KEEP_ALL);
+        assertEquals(0, Files.size(dir.resolve("log.txt")));
+        assertEquals(1, segment.sequence);
+        assertTrue(segment.headerRecord);
+        assertEquals(3000, segment.days);
+        assertEquals(1, segment.lowestDay);
+        assertEquals(3000, segment.highestDay);
+        assertEquals(3, segment.blocks.size());
+        assertTrue(segment.compressedBytes < segment.rawBytes);
+
+        assertEquals(LogWriterTest.range(1000, 1100), read(segment, 1000, 1100));
+        assertEquals(LogWriterTest.range(1, 3000), read(segment, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(3000, segment.summary().counts[0]);
+    }
+
+    @Test
+    void analysisOverSegmentsMatchesAFullScan() throws IOException {
+        String whole = dir.resolve("whole.txt").toString();
+        LogWriterTest.write(whole, 1, 3000);
+        RunningStats expected = AnalysisEngine.streamLogs(whole);
+
+        String log = log();
+        LogWriterTest.write(log, 1, 1200);
+        LogSegments.rollOver(log, KEEP_ALL);
+        LogWriterTest.write(log, 1201, 2500);
+        LogSegments.rollOver(log, KEEP_ALL);
+        LogWriterTest.write(log, 2501, 3000);
+        RunningStats actual = AnalysisEngine.streamLogs(log);
+
+        for (int e = 0; e < expected.size(); e++) {
+            assertEquals(expected.getWeight(e), actual.getWeight(e));
+            assertEquals(expected.getMean(e), actual.getMean(e), 1e-9);
+            assertEquals(expected.getM2(e), actual.getM2(e), 1e-6 * expected.getM2(e));
+        }
+    }
+
+    @Test
+    void rolloverInterruptedBeforeArchivingIsFinished() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 100);
+
+        // A crash just after the log was moved aside
+        Path directory = dir.resolve("log.txt.segments");
+        Files.createDirectories(directory);
+        Files.move(dir.resolve("log.txt"), directory.resolve("00000001" + LogSegments.PENDING_EXTENSION));
+
+        LogSegments.recover(log);
+        assertTrue(Files.exists(dir.resolve("log.txt")));
+        assertEquals(0, Files.size(dir.resolve("log.txt")));
+        List<LogSegments.Segment> segments = LogSegments.list(log);
+        assertEquals(1, segments.size());
+        assertEquals(100, segments.get(0).days);
+        assertTrue(segments.get(0).headerRecord);
+        assertFalse(Files.exists(directory.resolve("00000001" + LogSegments.PENDING_EXTENSION)));
+    }
+
+    @Test
+    void rolloverInterruptedAfterArchivingCountsDaysOnce() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 100);
+        LogSegments.rollOver(log, KEEP_ALL);
+        LogWriterTest.write(log, 101, 150);
+
+        // A crash after the segment was written, before its pending file was deleted
+        Path directory = dir.resolve("log.txt.segments");
+        LogWriterTest.write(dir.resolve("copy.txt").toString(), 1, 100);
+        Files.move(dir.resolve("copy.txt"), directory.resolve("00000001" + LogSegments.PENDING_EXTENSION));
+
+        LogSegments.Segment segment = LogSegments.rollOver(log, KEEP_ALL);
+        assertEquals(2, segment.sequence);
+        assertEquals(101, segment.lowestDay);
+        assertEquals(2, LogSegments.list(log).size());
+        assertEquals(149, LogSegments.archivedStats(log).getCount(0)); // The header record is not counted
+    }
+
+    @Test
+    void rollOverIsRefusedWhileAWriterHasTheLogOpen() throws IOException {
+        String log = log();
+        try (LogWriter writer = LogWriter.open(log, 1)) {
+            for (int day = 1; day <= 50; day++) {
+                writer.append(LogWriterTest.record(day));
+            }
+            writer.commit();
+
+            assertThrows(IOException.class, () -> LogSegments.rollOver(log, KEEP_ALL));
+            assertTrue(LogSegments.list(log).isEmpty());
+
+            for (int day = 51; day <= 80; day++) {
+                writer.append(LogWriterTest.record(day));
+            }
+            writer.commit();
+        }
+        assertEquals(LogWriterTest.range(1, 80), LogWriterTest.days(log));
+
+        assertEquals(80, LogSegments.rollOver(log, KEEP_ALL).days);
+        assertEquals(0, Files.size(dir.resolve("log.txt")));
+    }
+
+    @Test
+    void readersOfTheOldLogAreUnaffected() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 100);
+        long size = Files.size(dir.resolve("log.txt"));
+        try (FileChannel channel = FileChannel.open(dir.resolve("log.txt"), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            LogSegments.rollOver(log, KEEP_ALL);
+
+            assertEquals(size, channel.size());
+            assertEquals('\n', mapped.get((int) size - 1));
+        }
+    }
+
+    @Test
+    void halfLifeDecaysOlderSegments() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 101);
+        LogSegments.rollOver(log, KEEP_ALL);
+        LogWriterTest.write(log, 102, 201);
+        LogSegments.rollOver(log, KEEP_ALL);
+
+        assertEquals(200, LogSegments.archivedStats(log).getWeight(0), 1e-9);
+        // The first segment's 100 days are followed by 100 more: one half-life
+        assertEquals(150, LogSegments.archivedStats(log, 100).getWeight(0), 1e-9);
+
+        // The active log's days decay both segments once more
+        LogWriterTest.write(log, 202, 301);
+        IncrementalAnalysis.update(log, 100, null);
+        // An update with nothing new to read must not decay anything again
+        assertEquals(175, IncrementalAnalysis.update(log, 100, null).getWeight(0), 1e-9);
+    }
+
+    @Test
+    void retainKeepsTheNewestSegments() throws IOException {
+        String log = log();
+        for (int i = 0; i < 3; i++) {
+            LogWriterTest.write(log, i * 10 + 1, i * 10 + 10);
+            LogSegments.rollOver(log, new LogSegments.Policy(0, 0, 2));
+        }
+        List<LogSegments.Segment> segments = LogSegments.list(log);
+        assertEquals(2, segments.size());
+        assertEquals(2, segments.get(0).sequence);
+        assertEquals(3, segments.get(1).sequence);
+        assertEquals(21, segments.get(1).lowestDay);
+    }
+
+    @Test
+    void segmentFileLayout() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 100);
+        LogSegments.Segment segment = LogSegments.rollOver(log, KEEP_ALL);
+
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(11);
+            channel.read(header, 0);
+            header.flip();
+            assertEquals(0x4944535A, header.getInt()); // "IDSZ"
+            assertEquals(1, header.getShort());
+            assertEquals(1, header.getInt());
+            assertEquals(1, header.get());
+
+            ByteBuffer trailer = ByteBuffer.allocate(12);
+            channel.read(trailer, channel.size() - 12);
+            trailer.flip();
+            long footerOffset = trailer.getLong();
+            assertEquals(0x4944535A, trailer.getInt());
+            LogSegments.Block block = segment.blocks.get(0);
+            assertEquals(11, block.offset);
+            assertEquals(block.offset + block.compressedLength, footerOffset);
+        }
+        assertEquals(Files.size(segment.file), segment.compressedBytes);
+        assertEquals(LogSegments.open(segment.file).days, segment.days);
+    }
+
+    @Test
+    void corruptBlockIsDetected() throws IOException {
+        String log = log();
+        LogWriterTest.write(log, 1, 100);
+        LogSegments.Segment segment = LogSegments.rollOver(log, KEEP_ALL);
+
+        LogSegments.Block block = segment.blocks.get(0);
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(1);
+            long at = block.offset + block.compressedLength / 2;
+            channel.read(bytes, at);
+            bytes.put(0, (byte) (bytes.get(0) ^ 0x55));
+            bytes.rewind();
+            channel.write(bytes, at);
+        }
+        assertThrows(IOException.class, () -> read(segment, 1, 100));
+    }
+}
@@ -0,0 +1,213 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Recovery of logs cut short mid-write, with and without frames
+class LogWriterTest {
+
+    @TempDir
+    Path dir;
+
+    static String record(int day) {
+        return "Day " + day + "\n2\nLogins:D:" + day % 5 + ":\nTime online:C:" + day * 1.5 + ":\n\n";
+    }
+
+    static void write(String log, int from, int to) throws IOException {
+        try (LogWriter writer = LogWriter.open(log)) {
+            for (int day = from; day <= to; day++) {
+                writer.append(record(day));
+            }
+        }
+    }
+
+    static List<Integer> days(String log) throws IOException {
+        List<Integer> days = new ArrayList<>();
+        LogParser.parse(log, new LogParser.Handler() {
+            @Override
+            public void startDay(int day, long offset) {
+                days.add(day);
+            }
+
+            @Override
+            public void value(int event, double value) {
+            }
+        });
+        return days;
+    }
+
+    static List<Integer> range(int from, int to) {
+        List<Integer> days = new ArrayList<>();
+        for (int day = from; day <= to; day++) {
+            days.add(day);
+        }
+        return days;
+    }
+
+    private String log() {
+        return dir.resolve("log.txt").toString();
+    }
+
+    private static long size(String log) throws IOException {
+        return Files.size(Paths.get(log));
+    }
+
+    private static void appendBytes(String log, byte[] bytes) throws IOException {
+        Files.write(Paths.get(log), bytes, StandardOpenOption.APPEND);
+    }
+
+    private static void truncate(String log, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(log), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    @Test
+    void tornFrameIsCutOffOnOpen() throws IOException {
+        String log = log();
+        write(log, 1, 10);
+        long whole = size(log);
+        write(log, 11, 11);
+        truncate(log, whole + LogWriter.FRAME_SIZE + 5);
+
+        try (LogWriter writer = LogWriter.open(log)) {
+            assertEquals(whole, writer.size());
+            writer.append(record(11));
+        }
+        assertEquals(range(1, 11), days(log));
+    }
+
+    @Test
+    void recordWithBadChecksumIsCutOff() throws IOException {
+        String log = log();
+        write(log, 1, 9);
+        long whole = size(log);
+        write(log, 10, 10);
+
+        // "Day 10" becomes "Day 90": still a record, but not the one that was framed
+        try (FileChannel channel = FileChannel.open(Paths.get(log), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'9'}), whole + LogWriter.FRAME_SIZE + 4);
+        }
+        Files.delete(Paths.get(LogWriter.checkpointFile(log)));
+
+        try (LogWriter writer = LogWriter.open(log)) {
+            assertEquals(whole, writer.size());
+        }
+        assertEquals(range(1, 9), days(log));
+    }
+
+    @Test
+    void zeroFilledTailIsCutOff() throws IOException {
+        String log = log();
+        write(log, 1, 10);
+        long whole = size(log);
+        appendBytes(log, new byte[4096]);
+
+        try (LogWriter writer = LogWriter.open(log)) {
+            assertEquals(whole, writer.size());
+        }
+        assertEquals(whole, size(log));
+        assertEquals(range(1, 10), days(log));
+    }
+
+    @Test
+    void legacyUnframedLogIsKeptAndItsTornTailDropped() throws IOException {
+        String log = log();
+        StringBuilder text = new StringBuilder();
+        for (int day = 1; day <= 5; day++) {
+            text.append(record(day));
+        }
+        long whole = text.length();
+        text.append("Day 6\n2\nLogins:D:");
+        Files.write(Paths.get(log), text.toString().getBytes(StandardCharsets.US_ASCII));
+
+        try (LogWriter writer = LogWriter.open(log)) {
+            assertEquals(whole, writer.size());
+        }
+        assertEquals(range(1, 5), days(log));
+        assertTrue(new String(Files.readAllBytes(Paths.get(log)), StandardCharsets.US_ASCII).startsWith("Day 1\n"));
+    }
+
+    @Test
+    void unframedLogFollowedByFramedRecords() throws IOException {
+        String log = log();
+        StringBuilder text = new StringBuilder();
+        for (int day = 1; day <= 5; day++) {
+            text.append(record(day));
+        }
+        Files.write(Paths.get(log), text.toString().getBytes(StandardCharsets.US_ASCII));
+        write(log, 6, 10);
+        long whole = size(log);
+
+        // Without the checkpoint the whole log is checked: the text part by parsing, the rest by frame
+        Files.delete(Paths.get(LogWriter.checkpointFile(log)));
+        appendBytes(log, "#0000002a:0000".getBytes(StandardCharsets.US_ASCII));
+        try (LogWriter writer = LogWriter.open(log)) {
+            assertEquals(whole, writer.size());
+        }
+        assertEquals(range(1, 10), days(log));
+    }
+
+    @Test
+    void readersSkipATornLastRecord() throws IOException {
+        String log = log();
+        write(log, 1, 10);
+        truncate(log, size(log) - 12);
+
+        assertEquals(range(1, 9), days(log));
+        assertEquals(8, AnalysisEngine.streamLogs(log, 2).getCount(0)); // The header record is not counted
+    }
+
+    @Test
+    void rolledBackGroupLeavesNothingBehind() throws IOException {
+        String log = log();
+        StringBuilder large = new StringBuilder("Day 99\n2\nLogins:D:1:\nTime online:C:");
+        for (int i = 0; i < 400_000; i++) {
+            large.append('1');
+        }
+        large.append(":\n\n");
+
+        try (LogWriter writer = LogWriter.open(log)) {
+            for (int day = 1; day <= 3; day++) {
+                writer.append(record(day));
+            }
+            writer.commit();
+            long committed = size(log);
+
+            // Past the group size these are written before commit
+            for (int i = 0; i < 4; i++) {
+                writer.append(large);
+            }
+            assertTrue(size(log) > committed);
+            writer.rollback();
+            assertEquals(committed, size(log));
+            assertEquals(committed, writer.size());
+
+            writer.append(record(4));
+        }
+        assertEquals(range(1, 4), days(log));
+    }
+
+    @Test
+    void secondWriterIsRefused() throws IOException {
+        String log = log();
+        try (LogWriter writer = LogWriter.open(log)) {
+            writer.append(record(1));
+            assertThrows(IOException.class, () -> LogWriter.open(log));
+        }
+        LogWriter.open(log).close();
+    }
+}
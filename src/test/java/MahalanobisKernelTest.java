@@ -0,0 +1,109 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Cholesky factors of known matrices, and Mahalanobis scores against sqrt(d^T W P W d)
+class MahalanobisKernelTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void choleskyOfKnownMatrices() {
+        double[][] factor = Matrices.cholesky(new double[][] {{4, 12, -16}, {12, 37, -43}, {-16, -43, 98}}, "A");
+        assertArrayEquals(new double[] {2, 0, 0}, factor[0], 1e-12);
+        assertArrayEquals(new double[] {6, 1, 0}, factor[1], 1e-12);
+        assertArrayEquals(new double[] {-8, 5, 3}, factor[2], 1e-12);
+
+        // Singular but positive semi-definite: no rank left for the second column
+        factor = Matrices.cholesky(new double[][] {{1, 1}, {1, 1}}, "B");
+        assertArrayEquals(new double[] {1, 0}, factor[0], 1e-12);
+        assertArrayEquals(new double[] {1, 0}, factor[1], 1e-12);
+
+        assertEquals("C is not positive semi-definite", assertThrows(IllegalArgumentException.class,
+                () -> Matrices.cholesky(new double[][] {{1, 2}, {2, 1}}, "C")).getMessage());
+        assertThrows(IllegalArgumentException.class, () -> Matrices.invert(new double[][] {{1, 1}, {1, 1}}, "B"));
+    }
+
+    @Test
+    void inverseOfAKnownMatrix() {
+        double[][] inverse = Matrices.invert(new double[][] {{4, 2}, {2, 3}}, "A");
+        assertArrayEquals(new double[] {0.375, -0.25}, inverse[0], 1e-12);
+        assertArrayEquals(new double[] {-0.25, 0.5}, inverse[1], 1e-12);
+    }
+
+    @Test
+    void scoresMatchTheQuadraticForm() {
+        int n = 5;
+        int days = 3 * MahalanobisKernel.BLOCK_DAYS + 7; // Whole blocks and a partial one
+        Random random = new Random(11);
+        double[][] a = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                a[i][j] = random.nextGaussian();
+            }
+        }
+        // A^T A + I is positive definite
+        double[] precision = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                for (int k = 0; k < n; k++) {
+                    precision[i * n + j] += a[k][i] * a[k][j];
+                }
+            }
+            precision[i * n + i] += 1;
+        }
+        double[] weights = {1, 2, 3, 1, 5};
+        double[] means = {3, 120, 10, 0.5, 40};
+        double[] stdDevs = {1, 10, 2, 0.1, 5};
+        double[] matrix = new double[days * n];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = means[i % n] + random.nextGaussian() * stdDevs[i % n];
+        }
+
+        double[] scores = new MahalanobisKernel(weights, means, stdDevs, precision).score(matrix, days);
+        for (int day = 0; day < days; day++) {
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    double di = weights[i] * (matrix[day * n + i] - means[i]);
+                    double dj = weights[j] * (matrix[day * n + j] - means[j]);
+                    sum += di * precision[i * n + j] * dj;
+                }
+            }
+            assertEquals(Math.sqrt(sum), scores[day], 1e-9 * Math.sqrt(sum));
+        }
+    }
+
+    @Test
+    void baselineKeepsTheMeansAtFullPrecision() throws IOException {
+        List<String> names = Arrays.asList("Logins", "Time online");
+        RunningStats stats = new RunningStats(names, false, true);
+        Random random = new Random(5);
+        for (int day = 0; day < 200; day++) {
+            double[] values = {random.nextInt(5), 100 + random.nextGaussian() / 1000};
+            stats.addDay(values);
+            for (int e = 0; e < names.size(); e++) {
+                stats.add(e, values[e]);
+            }
+        }
+        Path file = dir.resolve("baseline.txt");
+        AnalysisEngine.outputData(stats, file.toString());
+
+        BaselineCache.Snapshot snapshot = new BaselineCache(file.toString()).reload();
+        for (int e = 0; e < names.size(); e++) {
+            assertNotEquals(Math.round(stats.getMean(e) * 100) / 100.0, stats.getMean(e));
+            assertEquals(stats.getMean(e), snapshot.means[e]);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Chunked analysis must agree with one sequential pass, wherever the chunks fall
+class ParallelAnalysisTest {
+
+    @TempDir
+    Path dir;
+
+    // Event names starting with "Day" put lines that look like headers inside every record
+    private Path log(int days) throws IOException {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        for (int day = 1; day <= days; day++) {
+            text.append("Day ").append(day).append("\n3\n")
+                    .append("Logins:D:").append(random.nextInt(10)).append(":\n")
+                    .append("Daytime minutes:C:").append(random.nextInt(600) + random.nextInt(100) / 100.0).append(":\n")
+                    .append("Day count:D:").append(random.nextInt(3)).append(":\n\n");
+        }
+        Path log = dir.resolve("log.txt");
+        Files.write(log, text.toString().getBytes(StandardCharsets.US_ASCII));
+        return log;
+    }
+
+    @Test
+    void parallelMatchesSequential() throws IOException {
+        Path log = log(60000);
+        RunningStats sequential = AnalysisEngine.streamLogs(log.toString(), 1);
+        RunningStats parallel = AnalysisEngine.streamLogs(log.toString(), 4);
+
+        assertEquals(sequential.getEventNames(), parallel.getEventNames());
+        for (int e = 0; e < sequential.size(); e++) {
+            assertEquals(sequential.getCount(e), parallel.getCount(e));
+            assertEquals(sequential.getMean(e), parallel.getMean(e), 1e-9 * Math.abs(sequential.getMean(e)));
+            assertEquals(sequential.getM2(e), parallel.getM2(e), 1e-9 * sequential.getM2(e));
+        }
+    }
+
+    @Test
+    void boundariesFallOnDayHeaders() throws IOException {
+        Path log = log(60000);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            List<Long> boundaries = ParallelAnalysis.findBoundaries(channel, 16);
+            assertTrue(boundaries.size() > 3);
+            for (long boundary : boundaries.subList(1, boundaries.size() - 1)) {
+                ByteBuffer line = ByteBuffer.allocate(16);
+                channel.read(line, boundary);
+                String text = new String(line.array(), StandardCharsets.US_ASCII);
+                assertTrue(text.matches("(?s)Day \\d+\n3\n.*"), text);
+            }
+        }
+    }
+
+    @Test
+    void headerCheck() {
+        assertTrue(isDayHeader("Day 12\n3\nLogins:D:1:\n"));
+        assertTrue(isDayHeader("Day 12:alice\r\n3\r\n"));
+        assertFalse(isDayHeader("Daytime minutes:C:12:\n"));
+        assertFalse(isDayHeader("Day count:D:1:\n"));
+        assertFalse(isDayHeader("Day 12\nLogins:D:1:\n"));
+        assertFalse(isDayHeader("Day 12\n3")); // Cut off before the count line ends
+    }
+
+    private static boolean isDayHeader(String text) {
+        return ParallelAnalysis.isDayHeader(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
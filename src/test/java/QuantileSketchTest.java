@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Rank error of sketched quantiles, whole and merged, against the exact ranks
+class QuantileSketchTest {
+
+    private static final int N = 200000;
+
+    // The values 0..N-1 in random order, so a value is its own exact rank
+    private static double[] shuffled(long seed) {
+        double[] values = new double[N];
+        for (int i = 0; i < N; i++) {
+            values[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = N - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+        return values;
+    }
+
+    private static void assertRankError(QuantileSketch sketch, double bound) {
+        assertEquals(N, sketch.getCount());
+        assertEquals(0, sketch.getMin());
+        assertEquals(N - 1, sketch.getMax());
+        for (int percent = 1; percent < 100; percent++) {
+            double q = percent / 100.0;
+            double rank = sketch.quantile(q) / N;
+            assertTrue(Math.abs(rank - q) <= bound, "q " + q + " got rank " + rank);
+        }
+    }
+
+    @Test
+    void exactUntilTheFirstCompaction() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 100; i >= 1; i--) {
+            sketch.add(i);
+        }
+        assertEquals(50, sketch.quantile(0.5));
+        assertEquals(1, sketch.quantile(0));
+        assertEquals(100, sketch.quantile(1));
+        assertEquals(25, sketch.sorted().mad(50));
+    }
+
+    @Test
+    void rankErrorIsAboutOneOverK() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : shuffled(1)) {
+            sketch.add(value);
+        }
+        assertRankError(sketch, 2.0 / QuantileSketch.DEFAULT_K);
+    }
+
+    @Test
+    void mergedSketchesKeepTheBound() {
+        double[] values = shuffled(2);
+        QuantileSketch merged = new QuantileSketch();
+        for (int part = 0; part < 8; part++) {
+            QuantileSketch sketch = new QuantileSketch();
+            for (int i = part * N / 8; i < (part + 1) * N / 8; i++) {
+                sketch.add(values[i]);
+            }
+            merged.merge(sketch);
+        }
+        assertRankError(merged, 2.0 / QuantileSketch.DEFAULT_K);
+    }
+}
@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Streamed statistics against the textbook two-pass formulas
+class RunningStatsTest {
+
+    private static final List<String> EVENTS = Arrays.asList("Logins", "Time online");
+
+    private static double[][] values(int days, long seed) {
+        Random random = new Random(seed);
+        double[][] values = new double[days][2];
+        for (int d = 0; d < days; d++) {
+            values[d][0] = random.nextInt(10);
+            values[d][1] = 1000 + random.nextGaussian() * 50;
+        }
+        return values;
+    }
+
+    private static RunningStats stats(double[][] values, int from, int to) {
+        RunningStats stats = new RunningStats(EVENTS);
+        for (int d = from; d < to; d++) {
+            for (int e = 0; e < 2; e++) {
+                stats.add(e, values[d][e]);
+            }
+        }
+        return stats;
+    }
+
+    @Test
+    void meanAndVarianceMatchTwoPasses() {
+        double[][] values = values(5000, 1);
+        RunningStats stats = stats(values, 0, values.length);
+
+        for (int e = 0; e < 2; e++) {
+            double sum = 0;
+            for (double[] day : values) {
+                sum += day[e];
+            }
+            double mean = sum / values.length;
+            double squares = 0;
+            for (double[] day : values) {
+                squares += (day[e] - mean) * (day[e] - mean);
+            }
+            assertEquals(values.length, stats.getCount(e));
+            assertEquals(mean, stats.getMean(e), 1e-9 * Math.abs(mean));
+            assertEquals(squares, stats.getM2(e), 1e-9 * squares);
+            assertEquals(squares / values.length, stats.getVariance(e, stats.getMean(e)), 1e-9 * squares);
+        }
+    }
+
+    @Test
+    void mergedPartsMatchOnePass() {
+        double[][] values = values(5000, 2);
+        RunningStats whole = stats(values, 0, values.length);
+
+        RunningStats merged = stats(values, 0, 1234);
+        merged.merge(stats(values, 1234, 1300));
+        merged.merge(new RunningStats(EVENTS)); // An empty part changes nothing
+        merged.merge(stats(values, 1300, values.length));
+
+        for (int e = 0; e < 2; e++) {
+            assertEquals(whole.getCount(e), merged.getCount(e));
+            assertEquals(whole.getMean(e), merged.getMean(e), 1e-9 * Math.abs(whole.getMean(e)));
+            assertEquals(whole.getM2(e), merged.getM2(e), 1e-9 * whole.getM2(e));
+        }
+    }
+
+    @Test
+    void decayedStatisticsMatchAWeightedComputation() {
+        double[][] values = values(3000, 3);
+        double factor = 0.25;
+        RunningStats stats = stats(values, 0, 2000);
+        stats.decay(factor);
+        stats.merge(stats(values, 2000, values.length));
+
+        for (int e = 0; e < 2; e++) {
+            double weight = 0;
+            double sum = 0;
+            for (int d = 0; d < values.length; d++) {
+                double w = d < 2000 ? factor : 1;
+                weight += w;
+                sum += w * values[d][e];
+            }
+            double mean = sum / weight;
+            double squares = 0;
+            for (int d = 0; d < values.length; d++) {
+                double w = d < 2000 ? factor : 1;
+                squares += w * (values[d][e] - mean) * (values[d][e] - mean);
+            }
+            assertEquals(weight, stats.getWeight(e), 1e-9);
+            assertEquals(mean, stats.getMean(e), 1e-9 * Math.abs(mean));
+            assertEquals(squares, stats.getM2(e), 1e-9 * squares);
+        }
+    }
+}
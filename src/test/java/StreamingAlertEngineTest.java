@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Following a log as it grows, and starting over when it is replaced
+class StreamingAlertEngineTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<Integer> scored = new ArrayList<>();
+
+    private static byte[] records(int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int day = from; day <= to; day++) {
+            text.append(LogWriterTest.record(day));
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private StreamingAlertEngine engine(Path log) throws IOException {
+        return new StreamingAlertEngine(log.toString(), Arrays.asList(1, 2), Arrays.asList(2.0, 10.0),
+                Arrays.asList(1.0, 5.0), 0, (day, total, threshold, flagged) -> scored.add(day));
+    }
+
+    @Test
+    void scoresAppendedRecordsOnce() throws IOException {
+        Path log = dir.resolve("log.txt");
+        Files.write(log, records(1, 5));
+        try (StreamingAlertEngine engine = engine(log)) {
+            assertEquals(5, engine.poll());
+            assertEquals(0, engine.poll());
+            Files.write(log, records(6, 8), StandardOpenOption.APPEND);
+            assertEquals(3, engine.poll());
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), scored);
+    }
+
+    @Test
+    void startsOverOnAReplacedLog() throws IOException {
+        Path log = dir.resolve("log.txt");
+        Files.write(log, records(1, 5));
+        try (StreamingAlertEngine engine = engine(log)) {
+            assertEquals(5, engine.poll());
+
+            // A new, longer file moved into place, as a rollover or a new simulation leaves it
+            Path next = dir.resolve("next.txt");
+            Files.write(next, records(11, 18));
+            Files.move(next, log, StandardCopyOption.REPLACE_EXISTING);
+            assertEquals(8, engine.poll());
+
+            // The same file rewritten in place to more than its old length
+            Files.write(log, records(21, 30));
+            assertEquals(10, engine.poll());
+        }
+        assertEquals(23, scored.size());
+        assertEquals(11, (int) scored.get(5));
+        assertEquals(21, (int) scored.get(13));
+    }
+}
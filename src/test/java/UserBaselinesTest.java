@@ -0,0 +1,38 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+// Per-user scores must match what the shared ScoringKernel gives for the same baseline
+class UserBaselinesTest {
+
+    @Test
+    void scoresMatchTheSharedKernel() {
+        UserDictionary users = new UserDictionary();
+        UserBaselines baselines = new UserBaselines(users, Arrays.asList("Logins", "Time online", "Emails"));
+        int alice = users.intern("alice");
+        int bob = users.intern("bob");
+        for (int day = 0; day < 10; day++) {
+            baselines.add(alice, new double[] {day % 4, 100 + day * 3, 5}, 0); // Never varies her emails
+            baselines.add(bob, new double[] {2, 50 + day % 2, day}, 0);
+        }
+        double[] weights = {1, 2, 3};
+        baselines.prepareScoring(weights);
+
+        double[] day = {9, 140, 8};
+        for (int user : new int[] {alice, bob}) {
+            double[] means = new double[3];
+            double[] stdDevs = new double[3];
+            for (int e = 0; e < 3; e++) {
+                means[e] = baselines.getMean(user, e);
+                stdDevs[e] = baselines.getStddev(user, e);
+            }
+            double expected = new ScoringKernel(weights, means, stdDevs).score(day, 1)[0];
+            double score = baselines.score(user, day, 0);
+            assertTrue(Double.isFinite(score));
+            assertEquals(expected, score, 1e-9 * expected);
+        }
+    }
+}